@@ -0,0 +1,269 @@
+package polyplot.graphics;
+
+import java.util.Arrays;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Samples a function adaptively for drawing: Instead of one sample per pixel column, the function is sampled on a
+ * coarse grid first and the intervals are subdivided where the curve deviates from a straight line by more than a
+ * tolerance (in pixels), so flat regions need few evaluations and steep or oscillating regions get more.<br>
+ * The intervals are refined level by level over the whole width, so if the evaluation budget runs out, the remaining
+ * evaluations go to the intervals with the largest errors instead of the leftmost ones. Finally, points that are on
+ * the line between their neighbors (within the tolerance) are merged.
+ *
+ * @author Polymehr
+ */
+class AdaptiveSampler {
+
+    /**
+     * If <code>true</code>, the functions are sampled adaptively (unless deep zoom or quantized sampling is active).
+     */
+    static boolean ENABLED = true;
+    /**
+     * The maximum deviation of the drawn curve from the function in pixels.
+     */
+    static double TOLERANCE = 0.25;
+    /**
+     * The maximum number of evaluations per pixel column.
+     */
+    static double BUDGET = 4;
+
+    private static final int COARSE_STEP = 4; // pixel columns between the initial samples
+    private static final double MIN_WIDTH = 1.0 / 64; // the smallest interval (in pixel columns)
+
+    // the samples in ascending order of the column; the values are pixels (NaN if the function is undefined)
+    private int size;
+    private double[] columns = new double[0];
+    private double[] values = new double[0];
+    // the deviation of the midpoint of the interval from its chord (only while sampling)
+    private double[] errors = new double[0];
+    private boolean[] refine = new boolean[0];
+
+    // buffers for the next level
+    private double[] nextColumns = new double[0];
+    private double[] nextValues = new double[0];
+    private double[] nextErrors = new double[0];
+    private boolean[] nextRefine = new boolean[0];
+
+    private int evaluations;
+    private double achievedTolerance;
+
+    // intervals with a smaller error are not refined in the current level; of the ones with exactly this error,
+    // only the first <code>ties</code>
+    private double threshold;
+    private int ties;
+
+    /**
+     * Samples a function from column <code>-1</code> to column <code>width</code>.
+     *
+     * @param f
+     *      the function; maps a (fractional) pixel column to a pixel row or <code>NaN</code> if it is undefined.
+     * @param width
+     *      the width of the view.
+     * @param budget
+     *      the maximum number of evaluations per pixel column (at most {@link #BUDGET}, at least <code>1</code>).
+     */
+    void sample(DoubleUnaryOperator f, int width, double budget) {
+        final int evaluationBudget = (int) Math.min(Integer.MAX_VALUE,
+                Math.max(1, Math.min(BUDGET, budget)) * (width + 2));
+        final int coarse = (width + 1 + COARSE_STEP - 1) / COARSE_STEP + 1;
+        ensureCapacity(coarse);
+        size = coarse;
+        for (int i = 0; i < coarse; ++i) {
+            columns[i] = Math.min(width, -1 + i * COARSE_STEP);
+            values[i] = f.applyAsDouble(columns[i]);
+            refine[i] = i < coarse - 1;
+            errors[i] = Double.POSITIVE_INFINITY;
+        }
+        evaluations = coarse;
+        double remaining = 0; // the largest error of the intervals that could not be refined
+        while (true) {
+            int flagged = 0;
+            for (int i = 0; i < size - 1; ++i)
+                if (refine[i])
+                    ++flagged;
+            if (flagged == 0)
+                break;
+            final int available = evaluationBudget - evaluations;
+            if (available <= 0) {
+                for (int i = 0; i < size - 1; ++i)
+                    if (refine[i])
+                        remaining = Math.max(remaining, errors[i]);
+                break;
+            }
+            // only the intervals with the largest errors are refined if the budget is not sufficient
+            threshold = -1;
+            ties = 0;
+            if (flagged > available) {
+                final double[] sorted = new double[flagged];
+                for (int i = 0, j = 0; i < size - 1; ++i)
+                    if (refine[i])
+                        sorted[j++] = errors[i];
+                Arrays.sort(sorted);
+                threshold = sorted[flagged - available];
+                int above = 0;
+                for (double e : sorted)
+                    if (e > threshold)
+                        ++above;
+                ties = available - above;
+            }
+            refineLevel(f);
+        }
+        achievedTolerance = Math.max(TOLERANCE, remaining);
+        merge();
+    }
+
+    /**
+     * Evaluates the midpoints of the flagged intervals and flags the halves that are not straight enough.
+     */
+    private void refineLevel(DoubleUnaryOperator f) {
+        int n = 0;
+        ensureNextCapacity(2 * size);
+        for (int i = 0; i < size; ++i) {
+            nextColumns[n] = columns[i];
+            nextValues[n] = values[i];
+            nextRefine[n] = false;
+            nextErrors[n] = 0;
+            if (i == size - 1 || !refine[i]) {
+                ++n;
+                continue;
+            }
+            if (errors[i] < threshold || errors[i] == threshold && ties-- <= 0) { // maybe in the next level
+                nextRefine[n] = true;
+                nextErrors[n] = errors[i];
+                ++n;
+                continue;
+            }
+            final double a = columns[i], b = columns[i + 1], m = a + (b - a) / 2;
+            final double ya = values[i], yb = values[i + 1], ym = f.applyAsDouble(m);
+            ++evaluations;
+            ++n;
+            nextColumns[n] = m;
+            nextValues[n] = ym;
+            // the deviation from the chord applies to both halves
+            final double error = deviation(ya, ym, yb);
+            final boolean split = b - a > 2 * MIN_WIDTH && error > TOLERANCE;
+            nextRefine[n - 1] = split;
+            nextErrors[n - 1] = error;
+            nextRefine[n] = split;
+            nextErrors[n] = error;
+            ++n;
+        }
+        swap();
+        size = n;
+    }
+
+    /**
+     * @return the deviation of the middle value from the line through the outer ones (infinite if the function is
+     * undefined at some but not all of the points, so the borders of the domain are found)
+     */
+    private static double deviation(double a, double m, double b) {
+        final boolean defA = a == a, defM = m == m, defB = b == b;
+        if (!defA && !defM && !defB)
+            return 0;
+        if (!defA || !defM || !defB)
+            return Double.POSITIVE_INFINITY;
+        final double error = Math.abs(m - (a + (b - a) / 2));
+        return error == error ? error : Double.POSITIVE_INFINITY; // e.g. infinite values
+    }
+
+    /**
+     * Removes the points that are on the line between their neighbors: A point is removed if the line from the last
+     * kept point to the next one passes all removed points within half of the tolerance. The slopes that satisfy
+     * this form a cone that gets narrower with every removed point, so every point is only visited once.
+     */
+    private void merge() {
+        if (size < 3)
+            return;
+        int n = 1; // the last kept point is at n - 1
+        double low = Double.NEGATIVE_INFINITY, high = Double.POSITIVE_INFINITY; // the cone of slopes
+        for (int i = 1; i < size - 1; ++i) {
+            final double a = columns[n - 1], ya = values[n - 1], y = values[i], yb = values[i + 1];
+            boolean keep = !isFinite(ya) || !isFinite(y) || !isFinite(yb);
+            if (!keep) {
+                final double dx = columns[i] - a;
+                low = Math.max(low, (y - TOLERANCE / 2 - ya) / dx);
+                high = Math.min(high, (y + TOLERANCE / 2 - ya) / dx);
+                final double slope = (yb - ya) / (columns[i + 1] - a);
+                keep = slope < low || slope > high;
+            }
+            if (keep) {
+                columns[n] = columns[i];
+                values[n] = values[i];
+                ++n;
+                low = Double.NEGATIVE_INFINITY;
+                high = Double.POSITIVE_INFINITY;
+            }
+        }
+        columns[n] = columns[size - 1];
+        values[n] = values[size - 1];
+        size = n + 1;
+    }
+
+    private static boolean isFinite(double d) {
+        return d == d && !Double.isInfinite(d);
+    }
+
+    private void swap() {
+        double[] tmp = columns;
+        columns = nextColumns;
+        nextColumns = tmp;
+        tmp = values;
+        values = nextValues;
+        nextValues = tmp;
+        tmp = errors;
+        errors = nextErrors;
+        nextErrors = tmp;
+        final boolean[] flags = refine;
+        refine = nextRefine;
+        nextRefine = flags;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (columns.length >= capacity)
+            return;
+        columns = new double[capacity];
+        values = new double[capacity];
+        errors = new double[capacity];
+        refine = new boolean[capacity];
+    }
+
+    private void ensureNextCapacity(int capacity) {
+        if (nextColumns.length >= capacity)
+            return;
+        nextColumns = new double[capacity];
+        nextValues = new double[capacity];
+        nextErrors = new double[capacity];
+        nextRefine = new boolean[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    double getColumn(int i) {
+        return columns[i];
+    }
+
+    /**
+     * @return the pixel row of the sample or <code>NaN</code> if the function is undefined there.
+     */
+    double getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * @return the number of evaluations of the last sampling.
+     */
+    int getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * @return the tolerance that was achieved by the last sampling (larger than {@link #TOLERANCE}
+     * if the budget was not sufficient).
+     */
+    double getAchievedTolerance() {
+        return achievedTolerance;
+    }
+}
@@ -0,0 +1,209 @@
+package polyplot.graphics;
+
+import polyplot.math.AnimatedConstant;
+
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Animates constants (see {@link AnimatedConstant}) and redraws the {@link FunctionPlotter} for every frame.<br>
+ * The frames are started by a scheduler with a fixed rate (the maximum frame rate). A frame sets the values of the
+ * constants on the event dispatch thread and requests a repaint of the plotter (the functions are sampled in the
+ * background, see {@link FunctionRenderer}). A frame is pending until it was painted and the functions were sampled
+ * completely. If the previous frame is still pending when the next one is due, the next one is dropped instead of
+ * queuing more work on the event dispatch thread or cancelling the sampling of the previous frame (which would never
+ * finish if it takes longer than one frame), so the animation slows down to the rate the event dispatch thread and
+ * the renderer can keep up with, but the user interface stays responsive. The frame rate counts the frames that were
+ * shown completely.
+ *
+ * @author Polymehr
+ */
+class Animator {
+
+    private static final long FPS_INTERVAL = 1_000_000_000; // [ns]
+
+    /**
+     * How the value of a constant changes over time.
+     */
+    static class Animation {
+        final AnimatedConstant constant;
+        final double from, to, speed;
+        final double period; // [s]; 0 if the constant is bound to the time
+        private final long start = System.nanoTime();
+
+        /**
+         * Sweeps the constant from <code>from</code> to <code>to</code> and back in <code>2 * period</code> seconds.
+         */
+        Animation(AnimatedConstant constant, double from, double to, double period) {
+            if (!(period > 0) || Double.isInfinite(period))
+                throw new IllegalArgumentException("illegal period: " + period);
+            if (from != from || to != to || Double.isInfinite(from) || Double.isInfinite(to))
+                throw new IllegalArgumentException("illegal range: [" + from + ", " + to + "]");
+            this.constant = constant;
+            this.from = from;
+            this.to = to;
+            this.speed = 0;
+            this.period = period;
+        }
+
+        /**
+         * Binds the constant to the time: Its value is <code>from + speed * t</code> after <code>t</code> seconds.
+         */
+        Animation(AnimatedConstant constant, double from, double speed) {
+            if (from != from || speed != speed || Double.isInfinite(from) || Double.isInfinite(speed))
+                throw new IllegalArgumentException("illegal start or speed: " + from + ", " + speed);
+            this.constant = constant;
+            this.from = from;
+            this.to = Double.NaN;
+            this.speed = speed;
+            this.period = 0;
+        }
+
+        double valueAt(long time) {
+            final double seconds = (time - start) / 1e9;
+            if (period == 0)
+                return from + speed * seconds;
+            final double phase = seconds / period % 2;
+            return from + (to - from) * (phase <= 1 ? phase : 2 - phase);
+        }
+
+        @Override
+        public String toString() {
+            return constant.getName() + " = " + constant.getValue() + (period == 0 ?
+                    " (" + from + " + " + speed + " * t)" : " (" + from + " ↔ " + to + " in " + period + " s)");
+        }
+    }
+
+    private final FunctionPlotter parent;
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> ticks;
+    private final Map<String, Animation> animations; // only accessed by the event dispatch thread
+    private final AtomicBoolean framePending = new AtomicBoolean(false); // until the frame is rendered completely
+    private final Runnable frame = this::frame;
+    private boolean painting; // the frame was started, but not painted yet (only accessed by the EDT)
+
+    private final int maxFps;
+    // only accessed by the event dispatch thread
+    private int frames;
+    private long fpsStart;
+    private double fps;
+    private volatile long dropped; // only updated by the scheduler thread
+
+    Animator(FunctionPlotter parent, int maxFps) {
+        this.parent = parent;
+        this.maxFps = Math.max(1, maxFps); // 0 if the option is malformed
+        animations = new LinkedHashMap<>();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "animator");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts an animation. An existing animation of the same constant will be replaced.
+     */
+    void start(Animation animation) {
+        animations.put(animation.constant.getName().toLowerCase(), animation);
+        if (ticks == null) {
+            framePending.set(false); // the last frame might not have been painted
+            painting = false;
+            frames = 0;
+            fps = 0;
+            fpsStart = System.nanoTime();
+            ticks = scheduler.scheduleAtFixedRate(this::tick, 0, 1_000_000_000 / maxFps, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops changing the value of a constant.
+     *
+     * @return <code>false</code> if the constant was not animated.
+     */
+    boolean stop(String name) {
+        final boolean result = animations.remove(name.toLowerCase()) != null;
+        if (animations.isEmpty() && ticks != null) {
+            ticks.cancel(false);
+            ticks = null;
+            fps = 0;
+        }
+        return result;
+    }
+
+    List<Animation> getAnimations() {
+        return new ArrayList<>(animations.values());
+    }
+
+    boolean isRunning() {
+        return ticks != null;
+    }
+
+    /**
+     * @return the frame rate of the frames that were rendered completely (averaged over the last second).
+     */
+    double getFps() {
+        return fps;
+    }
+
+    long getDroppedFrames() {
+        return dropped;
+    }
+
+    /**
+     * Called by the scheduler.
+     */
+    private void tick() {
+        if (framePending.compareAndSet(false, true))
+            SwingUtilities.invokeLater(frame);
+        else
+            ++dropped;
+    }
+
+    private void frame() {
+        if (animations.isEmpty()) {
+            framePending.set(false);
+            return;
+        }
+        final long now = System.nanoTime();
+        for (Animation a : animations.values())
+            a.constant.setValue(a.valueAt(now));
+        painting = true;
+        try {
+            parent.animationFrame();
+        } catch (RuntimeException e) {
+            painting = false;
+            framePending.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Called by the plotter after the functions were drawn (and their sampling was started). The frame is rendered
+     * once the renderer has no outstanding work.
+     */
+    void painted(FunctionRenderer renderer) {
+        if (!painting)
+            return;
+        painting = false;
+        renderer.whenIdle(this::rendered);
+    }
+
+    private void rendered() {
+        final long now = System.nanoTime();
+        ++frames;
+        if (now - fpsStart >= FPS_INTERVAL) {
+            fps = frames * 1e9 / (now - fpsStart);
+            frames = 0;
+            fpsStart = now;
+        }
+        framePending.set(false);
+    }
+}
@@ -56,6 +56,7 @@ public class CheatSheet extends DrawableComponent {
                 "(Shift) + F", "Add a function (and keep prompt open)",
                 "(Shift) + C", "Add a constant (and keep prompt open)",
                 "E", "Evaluate expression",
+                "X", "Run a command (e.g. roots, intersections, help)",
                 "ESC", "Exit to normal mode",
         };
         final String[] view = {
@@ -63,7 +64,9 @@ public class CheatSheet extends DrawableComponent {
                 "F1", "Toggle the Cheat Sheet",
                 "B",  "Toggle the info box",
                 "R",  "Toggle rendering method of functions",
-                "D",  "Toggle showing of defined functions and constants"
+                "D",  "Toggle showing of defined functions and constants",
+                "Z",  "Toggle deep zoom (extended precision)",
+                "W",  "Show domain coloring of a function (complex plane)"
         };
 
         final String[][] data = {movement, zoom, control, view};
@@ -0,0 +1,300 @@
+package polyplot.graphics;
+
+import polyplot.math.Complex;
+import polyplot.math.PureFunction;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * A component that shows a {@link PureFunction} in the complex plane by colouring
+ * every pixel <code>z</code> of the coordinate system: The hue represents the argument
+ * of <code>f(z)</code> and the lightness its absolute value (zeros are black, poles are white).<br>
+ * As this requires one complex evaluation per pixel, the image is computed in the background
+ * in parallel tiles. It is refined progressively (first with blocks of 8x8 pixels, then 4x4, ...),
+ * so the plot stays responsive while panning or zooming. Outdated computations are cancelled. When the view is only
+ * moved by whole pixels, the finished part of the image is moved along and only the pixels that were not visible
+ * before are computed. If the function cannot be evaluated, the error is shown on the plot.
+ *
+ * @author 5hir0kur0
+ */
+public class DomainColoring extends DrawableComponent {
+
+    private static final int[] BLOCK_SIZES = {8, 4, 2, 1};
+    private static final int TILE_SIZE = 64; // has to be a multiple of the largest block size
+    private static final double MAX_SHIFT_ERROR = 1e-3; // [pixels] the image is only moved by whole pixels
+
+    private PureFunction function;
+
+    private final ExecutorService scheduler;
+    private final AtomicInteger generation;
+    private final Object lock;
+
+    // the image that is displayed (front) and the one that is computed (back; only used by the scheduler thread)
+    private BufferedImage image;
+    private int[] front;
+    private int[] back;
+    // the rectangle of the displayed image that is finished (x0, y0, x1, y1; guarded by the lock)
+    private final int[] finished = new int[4];
+
+    // the view the image is computed for
+    private double lastXCorner = Double.NaN, lastYCorner = Double.NaN;
+    private double lastXPerPixel, lastYPerPixel;
+    private double lastXOffset, lastYOffset;
+    private int lastWidth, lastHeight;
+
+    private volatile int finishedPasses;
+    private volatile long renderTime;
+    private volatile String error; // of the current computation (null if there was none)
+
+    /**
+     * @param foreground
+     *      the color of error messages.
+     */
+    DomainColoring(Color foreground, boolean hidden) {
+        super(foreground, hidden);
+        this.scheduler = Executors.newSingleThreadExecutor(r -> {
+            final Thread t = new Thread(r, "domain-coloring");
+            t.setDaemon(true);
+            return t;
+        });
+        this.generation = new AtomicInteger();
+        this.lock = new Object();
+    }
+
+    /**
+     * Sets the function that is shown.
+     *
+     * @param function
+     *      the function or <code>null</code> to show nothing.
+     */
+    void setFunction(PureFunction function) {
+        this.function = function;
+        this.lastXCorner = Double.NaN; // force recomputation
+        if (function == null)
+            this.generation.incrementAndGet();
+    }
+
+    PureFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * Forces a recomputation (e.g. if the value of an animated constant changed).
+     */
+    void invalidate() {
+        this.lastXCorner = Double.NaN;
+    }
+
+    /**
+     * @return a short description of the current state for the debug overlay.
+     */
+    String getStatus() {
+        if (function == null)
+            return "";
+        return function.getName() + " (pass " + finishedPasses + "/" + BLOCK_SIZES.length + ", "
+                + renderTime / 1_000_000 + "ms)";
+    }
+
+    @Override
+    public void draw(Graphics gc, FunctionPlotter parent) {
+        if (hidden || function == null)
+            return;
+        final int width = parent.getWidth(), height = parent.getHeight();
+        if (width <= 0 || height <= 0)
+            return;
+
+        final double xCorner = parent.getXCorner(), yCorner = parent.getYCorner();
+        final double xPerPixel = parent.getValueXPerPixel(), yPerPixel = parent.getValueYPerPixel();
+        if (xCorner != lastXCorner || yCorner != lastYCorner || xPerPixel != lastXPerPixel
+                || yPerPixel != lastYPerPixel || width != lastWidth || height != lastHeight
+                || function.getXOffset() != lastXOffset || function.getYOffset() != lastYOffset)
+            restart(xCorner, yCorner, xPerPixel, yPerPixel, width, height, parent);
+
+        synchronized (lock) {
+            gc.drawImage(image, 0, 0, null);
+        }
+        final String message = error;
+        if (message != null) {
+            gc.setColor(foreground);
+            gc.drawString(message, 42, 42 + gc.getFontMetrics().getHeight()); // below the errors of the functions
+        }
+    }
+
+    private void restart(double xCorner, double yCorner, double xPerPixel, double yPerPixel,
+                         int width, int height, FunctionPlotter parent) {
+        final int current;
+        final int[] reused;
+        synchronized (lock) {
+            current = generation.incrementAndGet(); // the old computation must not copy its pixels anymore
+            final double dx = (lastXCorner - xCorner) / xPerPixel, dy = (yCorner - lastYCorner) / yPerPixel;
+            if (image == null || image.getWidth() != width || image.getHeight() != height) {
+                image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                front = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+                Arrays.fill(finished, 0);
+            } else if (xPerPixel == lastXPerPixel && yPerPixel == lastYPerPixel
+                    && function.getXOffset() == lastXOffset && function.getYOffset() == lastYOffset) {
+                // only panned: keep the still valid part of the old image until the new one is ready
+                shift((int) Math.round(dx), (int) Math.round(dy), width, height);
+                // lastXCorner is NaN if the function changed, then nothing is finished
+                if (Math.abs(dx - Math.rint(dx)) <= MAX_SHIFT_ERROR && Math.abs(dy - Math.rint(dy)) <= MAX_SHIFT_ERROR)
+                    shiftFinished((int) Math.rint(dx), (int) Math.rint(dy), width, height);
+                else
+                    Arrays.fill(finished, 0);
+            } else {
+                Arrays.fill(finished, 0);
+            }
+            reused = finished.clone();
+        }
+        lastXCorner = xCorner;
+        lastYCorner = yCorner;
+        lastXPerPixel = xPerPixel;
+        lastYPerPixel = yPerPixel;
+        lastXOffset = function.getXOffset();
+        lastYOffset = function.getYOffset();
+        lastWidth = width;
+        lastHeight = height;
+
+        error = null;
+        final PureFunction snapshot = function.copy(); // is never evaluated, so the workers can copy it concurrently
+        finishedPasses = 0;
+        scheduler.execute(() -> render(current, snapshot, xCorner, yCorner, xPerPixel, yPerPixel,
+                width, height, reused, parent));
+    }
+
+    /**
+     * Moves the finished rectangle along with the image (see {@link #shift(int, int, int, int)}).
+     */
+    private void shiftFinished(int dx, int dy, int width, int height) {
+        finished[0] = Math.max(0, finished[0] + dx);
+        finished[1] = Math.max(0, finished[1] + dy);
+        finished[2] = Math.min(width, finished[2] + dx);
+        finished[3] = Math.min(height, finished[3] + dy);
+        if (finished[0] >= finished[2] || finished[1] >= finished[3])
+            Arrays.fill(finished, 0);
+    }
+
+    private void shift(int dx, int dy, int width, int height) {
+        if (Math.abs(dx) >= width || Math.abs(dy) >= height) {
+            Arrays.fill(front, 0);
+            return;
+        }
+        final int[] tmp = front.clone();
+        Arrays.fill(front, 0);
+        for (int y = Math.max(0, dy), stop = Math.min(height, height + dy); y < stop; ++y) {
+            final int from = Math.max(0, -dx), to = Math.max(0, dx);
+            System.arraycopy(tmp, (y - dy) * width + from, front, y * width + to, width - Math.abs(dx));
+        }
+    }
+
+    /**
+     * Computes the image in passes of decreasing block sizes. The pixels in the rectangle <code>reused</code>
+     * (x0, y0, x1, y1) are already finished in the displayed image and are kept as they are.
+     */
+    private void render(int current, PureFunction snapshot, double xCorner, double yCorner, double xPerPixel,
+                        double yPerPixel, int width, int height, int[] reused, FunctionPlotter parent) {
+        if (back == null || back.length != width * height)
+            back = new int[width * height];
+        final int[] raster = back;
+        synchronized (lock) {
+            if (generation.get() != current)
+                return;
+            if (reused[2] > reused[0])
+                System.arraycopy(front, 0, raster, 0, raster.length);
+        }
+        final long start = System.nanoTime();
+        final ThreadLocal<PureFunction> functions = ThreadLocal.withInitial(snapshot::copy);
+        final int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE, tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+        for (int pass = 0; pass < BLOCK_SIZES.length; ++pass) {
+            final int block = BLOCK_SIZES[pass], coarser = pass == 0 ? 0 : BLOCK_SIZES[pass - 1];
+            IntStream.range(0, tilesX * tilesY).parallel().forEach(tile -> {
+                final PureFunction f = functions.get();
+                final Complex z = new Complex();
+                final int x0 = (tile % tilesX) * TILE_SIZE, y0 = (tile / tilesX) * TILE_SIZE;
+                final int x1 = Math.min(width, x0 + TILE_SIZE), y1 = Math.min(height, y0 + TILE_SIZE);
+                if (contains(reused, x0, y0) && contains(reused, x1 - 1, y1 - 1))
+                    return;
+                try {
+                    for (int y = y0; y < y1; y += block) {
+                        if (generation.get() != current)
+                            return;
+                        final double im = yCorner + (height - y - 1) * yPerPixel;
+                        for (int x = x0; x < x1; x += block) {
+                            if (coarser != 0 && x % coarser == 0 && y % coarser == 0 || contains(reused, x, y))
+                                continue; // already computed in the previous pass or finished before
+                            f.complexOf(z.set(xCorner + x * xPerPixel, im), z);
+                            fill(raster, width, x, y, Math.min(block, x1 - x), Math.min(block, y1 - y),
+                                    toRGB(z.getRe(), z.getIm()), reused);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    if (generation.get() == current)
+                        error = e.toString();
+                }
+            });
+
+            synchronized (lock) {
+                if (generation.get() != current)
+                    return;
+                if (front.length == raster.length)
+                    System.arraycopy(raster, 0, front, 0, raster.length);
+                finishedPasses = pass + 1;
+                renderTime = System.nanoTime() - start;
+                if (pass == BLOCK_SIZES.length - 1 && error == null) {
+                    finished[0] = finished[1] = 0;
+                    finished[2] = width;
+                    finished[3] = height;
+                }
+            }
+            parent.repaint();
+        }
+    }
+
+    private static boolean contains(int[] rectangle, int x, int y) {
+        return x >= rectangle[0] && x < rectangle[2] && y >= rectangle[1] && y < rectangle[3];
+    }
+
+    /**
+     * Fills a block of pixels, except for the ones in the rectangle <code>keep</code> (x0, y0, x1, y1).
+     */
+    private static void fill(int[] raster, int width, int x, int y, int w, int h, int rgb, int[] keep) {
+        for (int i = y, stop = y + h; i < stop; ++i) {
+            final int row = i * width;
+            if (i < keep[1] || i >= keep[3] || x + w <= keep[0] || x >= keep[2]) {
+                Arrays.fill(raster, row + x, row + x + w, rgb);
+            } else {
+                Arrays.fill(raster, row + x, row + Math.max(x, keep[0]), rgb);
+                Arrays.fill(raster, row + Math.min(x + w, keep[2]), row + x + w, rgb);
+            }
+        }
+    }
+
+    /**
+     * Maps a complex value to a colour.
+     *
+     * @return the ARGB value; transparent if the value is undefined.
+     */
+    static int toRGB(double re, double im) {
+        if (re != re || im != im)
+            return 0;
+        final double modulus = Math.hypot(re, im);
+        if (modulus == Double.POSITIVE_INFINITY)
+            return 0xFFFFFFFF;
+        double hue = Math.atan2(im, re) / (2 * Math.PI);
+        if (hue < 0)
+            hue += 1;
+        // HSL (saturation 1) to HSB
+        final double lightness = 2 / Math.PI * Math.atan(modulus);
+        final double brightness = lightness + Math.min(lightness, 1 - lightness);
+        final double saturation = brightness == 0 ? 0 : 2 * (1 - lightness / brightness);
+        return Color.HSBtoRGB((float) hue, (float) saturation, (float) brightness);
+    }
+}
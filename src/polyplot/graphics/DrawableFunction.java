@@ -1,14 +1,22 @@
 package polyplot.graphics;
 
+import polyplot.math.DoubleDouble;
+import polyplot.math.EvaluationCache;
 import polyplot.math.PureFunction;
 
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Path2D;
-import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.lang.Double.*;
 
@@ -21,37 +29,198 @@ import static java.lang.Double.*;
  *     <li>points</li>
  *     <li>lines</li>
  * </ul>
+ * Functions that oscillate faster than the pixels (e.g. <code>sin(1000x)</code>) can be drawn as their envelope
+ * instead (the span between the smallest and the largest value in every column, see {@link DrawingMethod}).<br>
+ * The function is sampled in the background for a snapshot of the view (see {@link Viewport}), so expensive functions
+ * do not block the event dispatch thread: The drawing only shows the last finished curve. A coarse curve is shown
+ * first and refined afterwards; curves of views that are outdated when they are finished are discarded. The samples
+ * are cached in tiles in world coordinates (see {@link TileCache}), so only the parts of the curve that were not
+ * visible before have to be sampled when the view is moved. If the tiles cannot be used (e.g. in the deep zoom or if
+ * the tile cache is disabled), the previous curve is moved instead and only the exposed columns are sampled.<br>
+ * Only the points of the curve are kept (not an image of the whole view); the {@link FunctionRenderer} draws the
+ * curves of all functions into one shared image.
  *
  * @author 5hir0kur0
  */
 public class DrawableFunction extends DrawableComponent {
 
     private final PureFunction function;
-    private final Path2D.Double path;
 
-    private int lastWidth = -1;
-    private int lastHeight = -1;
-    private double lastXCorner = NaN;
-    private double lastYCorner = NaN;
-    private static boolean grabbed = false;
-
-    enum DrawingMethod { PATH, POINTS, LINES }
+    /**
+     * <code>ENVELOPE</code> samples every pixel column {@link #ENVELOPE_SAMPLES} times and draws the span between the
+     * smallest and the largest value; <code>AUTO</code> draws lines, unless the curve is aliased (see
+     * {@link #isAliased(Layer, int)}), then it draws the envelope.
+     */
+    enum DrawingMethod { PATH, POINTS, LINES, ENVELOPE, AUTO }
 
     static DrawingMethod DRAWING_METHOD = DrawingMethod.PATH;
+    /**
+     * If <code>true</code>, the functions are sampled at multiples of the pixel width,
+     * so the sampled values can be reused when the view is moved by whole pixels.
+     */
+    static boolean QUANTIZED_SAMPLING = false;
+
+    private final static int COARSE_STEP = 8; // pixel columns between the samples of the coarse pass
+    private final static long COARSE_THRESHOLD = 10_000_000; // skip the coarse pass if rendering is faster [ns]
+    private final static double COST_TIME = 2; // [ns] estimated time of an evaluation per unit of its cost
+    private final static double COLUMN_COST = 4000; // the maximum estimated cost of the evaluations of a pixel column
+    private final static int CANCELLATION_CHECK = 63; // check for a newer request every 64 evaluations
+    private final static double MAX_WORLD_COLUMN = 0x1p40; // the tiles are not used further out (precision)
+    private final static double MAX_SHIFT_ERROR = 1e-3; // [pixels] the previous curve is only moved by whole pixels
+    private final static int ENVELOPE_SAMPLES = 8; // evaluations per pixel column of an envelope
+    private final static double ALIASING_SWING = 2; // [pixels] see isAliased()
+    private final static int ALIASING_REVERSALS = 4;
+    private final static int ALIASING_COLUMNS = 16;
+
+    /**
+     * Identifies the curve of a function: If any of the values changes, the function has to be sampled again.
+     */
+    private final static class LayerKey {
+        final Viewport view;
+        final double xOffset, yOffset;
+        final long version; // see Function.getModifications(); the offsets of called functions matter, too
+        final DrawingMethod method;
+        final boolean quantized, adaptive;
+        final int rgb;
+
+        LayerKey(Viewport view, PureFunction function, Color color) {
+            this.view = view;
+            this.xOffset = function.getXOffset();
+            this.yOffset = function.getYOffset();
+            this.version = function.getModifications();
+            this.method = DRAWING_METHOD;
+            this.quantized = QUANTIZED_SAMPLING && !view.deep;
+            this.adaptive = AdaptiveSampler.ENABLED && !view.deep && !QUANTIZED_SAMPLING;
+            this.rgb = color.getRGB();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof LayerKey))
+                return false;
+            final LayerKey k = (LayerKey) other;
+            return view.equals(k.view) && xOffset == k.xOffset && yOffset == k.yOffset && version == k.version
+                    && method == k.method && quantized == k.quantized && adaptive == k.adaptive && rgb == k.rgb;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * view.hashCode() + Long.hashCode(version);
+        }
+    }
+
+    /**
+     * The curve of the function and the values it was sampled from.
+     */
+    private final static class Layer {
+        LayerKey key;
+        DrawingMethod method; // how the points are drawn (never AUTO); ENVELOPE layers consist of pairs of points
+        Job job; // the job that sampled the layer
+        boolean complete; // false if only the coarse pass is finished
+        // the points of the curve in (fractional) pixels of the view of the key; NaN rows interrupt the curve
+        double[] columns = new double[0], rows = new double[0];
+        int size;
+        double[] samples; // the values at the pixel columns; null if they were not sampled
+        String error;
+        int evaluations;
+        double achievedTolerance; // NaN if it was not sampled adaptively
+    }
+
+    /**
+     * Where the displayed layer is drawn in the current frame: the layer (identified by a number that is increased
+     * whenever the displayed layer changes) and the transformation from its view to the current one.
+     */
+    static final class Placement {
+        final DrawableFunction function;
+        final long serial;
+        final AffineTransform transform;
+
+        private Placement(DrawableFunction function, long serial, AffineTransform transform) {
+            this.function = function;
+            this.serial = serial;
+            this.transform = transform;
+        }
+    }
+
+    /**
+     * A request to sample the function for a view. It is run on the pool of the {@link FunctionRenderer}
+     * as part of a batch.
+     */
+    final class Job extends FunctionRenderer.Job {
+        final int generation;
+        final PureFunction f;
+        final LayerKey key;
+        final TileCache tiles;
 
-    private BufferedImage pixelBuffer;
-    private final static Color TRANSPARENT = new Color(0, true);
+        private Job(int generation, PureFunction f, LayerKey key, TileCache tiles) {
+            this.generation = generation;
+            this.f = f;
+            this.key = key;
+            this.tiles = tiles;
+        }
+
+        @Override
+        void schedule(Executor pool) {
+            DrawableFunction.this.schedule(this, pool);
+        }
+
+        @Override
+        double getCost() {
+            return f.getCost();
+        }
+
+        @Override
+        void promote() {
+            DrawableFunction.this.promote(this);
+        }
+    }
+
+    // the layers (guarded by the lock): the displayed one, a finished one that waits for the other functions of its
+    // batch and an unused one whose buffers can be reused
+    private final Object lock = new Object();
+    private Layer front, staged, spare;
+    private long serial; // of the displayed layer (see Placement)
+    private int evaluations; // of the last complete drawing
+    private double achievedTolerance = NaN; // of the last complete drawing; NaN if it was not sampled adaptively
+
+    // only accessed by the event dispatch thread
+    private LayerKey requested;
+    private LayerKey current; // of the last frame
+    private PureFunction copy; // the function the jobs evaluate; replaced when its version changes
+    private long copyVersion;
+
+    // increased for every request, so outdated jobs can be discarded
+    private final AtomicInteger generation = new AtomicInteger();
+    // the latest job that was not started yet and whether a thread of the pool runs the jobs of this function
+    private final AtomicReference<Job> pending = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile long renderTime = Long.MAX_VALUE; // of the last complete drawing [ns]
+
+    // state of the current sampling pass (only accessed by the thread that runs the jobs, see run())
+    private Job job;
+    private PureFunction sampled;
+    private Viewport view;
+    private boolean deep, quantized;
+    private double yCorner;
+    private final DoubleDouble exactYCorner = new DoubleDouble();
+    private final DoubleDouble deepX = new DoubleDouble();
+    private final DoubleDouble deepY = new DoubleDouble();
+    private double[] samples;
+    private int passEvaluations;
+    private double passTolerance; // NaN if the pass is not sampled adaptively
+    private Layer target; // the layer the points are stored in
+    private final AdaptiveSampler sampler = new AdaptiveSampler();
+    private final Path2D.Double path = new Path2D.Double(); // only used by the event dispatch thread
 
     DrawableFunction(Color color, PureFunction function) {
         super(color);
         this.function = Objects.requireNonNull(function, "function for DrawableFunction must not be null");
-        this.path = new Path2D.Double();
     }
 
     boolean intersectsWith(Point p, int radius, FunctionPlotter parent) {
-        double yVal = this.function.of(parent.getValueOfXPixel(p.x) + this.function.getXOffset());
+        double yVal = this.function.cachedOf(parent.getValueOfXPixel(p.x));
         if (yVal != yVal || yVal == POSITIVE_INFINITY || yVal == NEGATIVE_INFINITY) return false;
-        else return diff(parent.getPixelToYValue(yVal - this.function.getYOffset()), p.y) < radius;
+        else return diff(parent.getPixelToYValue(yVal), p.y) < radius;
     }
 
     public PureFunction getFunction() {
@@ -71,7 +240,6 @@ public class DrawableFunction extends DrawableComponent {
         } catch (IllegalArgumentException ignored) {
             System.err.println(ignored.toString());
         }
-        grabbed = true;
     }
 
     boolean isMoved() {
@@ -81,7 +249,6 @@ public class DrawableFunction extends DrawableComponent {
     void setOffset(double xOffset, double yOffset) {
         this.function.setXOffset(xOffset);
         this.function.setYOffset(yOffset);
-        grabbed = true;
     }
 
     double getXOffset() {
@@ -97,110 +264,891 @@ public class DrawableFunction extends DrawableComponent {
         else return i1 - i2;
     }
 
+    /**
+     * Requests sampling the function again if the view or the function changed since the last finished curve. The
+     * curve is drawn by the {@link FunctionRenderer} together with the other functions (see
+     * {@link #drawCurve(Graphics2D, Rasterizer)}); until the new one is ready, the old curve is moved to the current
+     * position of the view (or scaled if the view was zoomed).
+     */
     @Override
     public void draw(Graphics g, FunctionPlotter parent) {
-        if (this.hidden) return;
-        final Graphics2D g2d = (Graphics2D) g;
-        final int tmpWidth = parent.getWidth();
-        final int tmpHeight = parent.getHeight();
-        final double tmpXCorner = parent.getXCorner();
-        final double tmpYCorner = parent.getYCorner();
-        if (tmpWidth == this.lastWidth && tmpXCorner == this.lastXCorner && tmpYCorner == this.lastYCorner
-                && tmpHeight == this.lastHeight && !grabbed && this.pixelBuffer != null) {
-            g2d.drawImage(this.pixelBuffer, null, null);
-        }
-        this.lastWidth = tmpWidth;
-        this.lastXCorner = tmpXCorner;
-        this.lastYCorner = tmpYCorner;
-        this.lastHeight = tmpHeight;
-        grabbed = false;
-
-        if (this.pixelBuffer != null && this.pixelBuffer.getWidth() == this.lastWidth
-                && this.pixelBuffer.getHeight() == this.lastHeight) {
-            final Graphics2D tmp = this.pixelBuffer.createGraphics();
-            tmp.setBackground(TRANSPARENT);
-            tmp.clearRect(0, 0, this.lastWidth, this.lastHeight);
-        } else {
-            this.pixelBuffer = new BufferedImage(this.lastWidth, this.lastHeight, BufferedImage.TYPE_INT_ARGB);
+        if (this.hidden) {
+            this.current = null;
+            return;
+        }
+        final LayerKey key = new LayerKey(new Viewport(parent), this.function, this.foreground);
+        if (!key.equals(this.requested))
+            this.request(key, parent);
+        this.current = key;
+    }
+
+    /**
+     * @return where the displayed curve is drawn in the current frame or <code>null</code> if it is not drawn.
+     */
+    Placement getPlacement() {
+        final LayerKey key = this.current;
+        if (key == null)
+            return null;
+        synchronized (this.lock) {
+            return this.front == null ? null : new Placement(this, this.serial, getTransform(this.front.key, key));
         }
+    }
+
+    /**
+     * Draws the displayed curve for the current frame (see {@link #getPlacement()}). Paths are drawn with the
+     * graphics, lines and points directly into the pixels of the image with the rasterizer.
+     */
+    void drawCurve(Graphics2D g, Rasterizer rasterizer) {
+        final LayerKey key = this.current;
+        if (key == null)
+            return;
+        synchronized (this.lock) { // the layer must not be reused while it is drawn
+            final Layer layer = this.front;
+            if (layer == null)
+                return;
+            final AffineTransform t = getTransform(layer.key, key);
+            final double sx = t.getScaleX(), sy = t.getScaleY(), tx = t.getTranslateX(), ty = t.getTranslateY();
+            final double[] columns = layer.columns, rows = layer.rows;
+            final int n = layer.size, width = key.view.width, height = key.view.height;
+            // rows far outside of the view are clamped (this includes infinite values)
+            final double top = -height, bottom = 2.0 * height;
+            final Color color = new Color(layer.key.rgb, true);
+            switch (layer.method) {
+                case PATH: {
+                    g.setColor(color);
+                    this.path.reset();
+                    boolean lastWasNaN = true;
+                    for (int i = 0; i < n; ++i) {
+                        final double row = sy * rows[i] + ty;
+                        if (row != row) {
+                            lastWasNaN = true;
+                            continue;
+                        }
+                        final double x = sx * columns[i] + tx, y = Math.max(top, Math.min(bottom, row));
+                        if (lastWasNaN) this.path.moveTo(x, y);
+                        else this.path.lineTo(x, y);
+                        lastWasNaN = false;
+                    }
+                    g.draw(this.path);
+                } break;
+                case POINTS:
+                    rasterizer.setColor(color);
+                    for (int i = 0; i < n; ++i) {
+                        final double row = sy * rows[i] + ty, column = sx * columns[i] + tx;
+                        if (row >= 0 && row < height && column > -1 && column < width)
+                            rasterizer.drawPoint((int) Math.round(column), (int) row);
+                    }
+                    break;
+                case LINES:
+                    rasterizer.setColor(color);
+                    for (int i = 1; i < n; ++i) {
+                        final double a = sy * rows[i - 1] + ty, b = sy * rows[i] + ty;
+                        if (a != a || b != b || (a < 0 && b < 0) || (a >= height && b >= height))
+                            continue;
+                        rasterizer.drawLine((int) Math.round(sx * columns[i - 1] + tx),
+                                (int) Math.max(top, Math.min(bottom, a)),
+                                (int) Math.round(sx * columns[i] + tx),
+                                (int) Math.max(top, Math.min(bottom, b)));
+                    }
+                    break;
+                case ENVELOPE:
+                    rasterizer.setColor(color);
+                    for (int i = 0; i + 1 < n; i += 2) {
+                        final double a = sy * rows[i] + ty, b = sy * rows[i + 1] + ty;
+                        if (a != a || b != b || b < -1 || a >= height)
+                            continue;
+                        // the span is drawn over all columns of the current view that the column of the layer covers
+                        final double left = sx * columns[i] + tx;
+                        for (int x = Math.max(0, (int) Math.round(left)),
+                             right = Math.min(width, Math.max(x + 1, (int) Math.round(left + sx))); x < right; ++x)
+                            rasterizer.fillSpan(x, Math.max(top, a), Math.min(bottom, b) + 1);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Draws the error message of the displayed curve (if there is one).
+     */
+    void drawError(Graphics g) {
+        if (this.current == null)
+            return;
+        synchronized (this.lock) {
+            if (this.front != null && this.front.error != null)
+                g.drawString(this.front.error, 42, 42);
+        }
+    }
+
+    /**
+     * @return the transformation that maps the pixels of one view to the pixels of another view (the offsets of the
+     * function are considered, too).
+     */
+    private static AffineTransform getTransform(LayerKey from, LayerKey to) {
+        final Viewport a = from.view, b = to.view;
+        final double sx = a.xPerPixel / b.xPerPixel, sy = a.yPerPixel / b.yPerPixel;
+        final double tx = b.getColumnShift(a) + (from.xOffset - to.xOffset) / b.xPerPixel;
+        final double ty = b.getRowShift(a) + (from.yOffset - to.yOffset) / b.yPerPixel
+                + (b.height - 1) - sy * (a.height - 1);
+        return new AffineTransform(sx, 0, 0, sy, tx, ty);
+    }
 
+    /**
+     * Requests sampling the function for a new view. Outdated requests are discarded.
+     */
+    private void request(LayerKey key, FunctionPlotter parent) {
+        this.requested = key;
+        if (this.copy == null || this.copyVersion != key.version) {
+            // the copy carries the current offsets of this function and of all functions it calls and a snapshot of
+            // the animated constants, so all layers and tiles of the version are sampled with the same values
+            this.copy = this.function.copy();
+            this.copyVersion = key.version;
+        }
+        // only the copy evaluates quantized arguments, so only it needs the cache (as large as the one of the function)
+        if (key.quantized && this.copy.getRenderCache() == null && this.function.getCache() != null)
+            this.copy.setRenderCacheSize(this.function.getCache().getCapacity());
+        final FunctionRenderer renderer = parent.getFunctionRenderer();
+        renderer.request(new Job(this.generation.incrementAndGet(), this.copy, key, renderer.getTileCache()));
+    }
+
+    /**
+     * Discards all outstanding work (e.g. if the function was redefined).
+     */
+    void dispose() {
+        this.generation.incrementAndGet();
+    }
+
+    /**
+     * Shows the last curve of another drawing of the same function until this one is finished (the drawings are
+     * recreated whenever something is defined). If the function was not recompiled, the curve is still valid, so it
+     * is only sampled again if the view or the offsets changed since then.
+     */
+    void takeOver(DrawableFunction other) {
+        final Layer layer;
+        final int evaluations;
+        final double achievedTolerance;
+        synchronized (other.lock) {
+            if (other.front == null)
+                return;
+            evaluations = other.evaluations;
+            achievedTolerance = other.achievedTolerance;
+            if (other.function == this.function) {
+                layer = other.front; // the other drawing is disposed, so it does not reuse the layer
+            } else {
+                layer = new Layer();
+                layer.key = other.front.key;
+                layer.method = other.front.method;
+                layer.columns = other.front.columns;
+                layer.rows = other.front.rows;
+                layer.size = other.front.size;
+            }
+        }
+        synchronized (this.lock) {
+            this.front = layer;
+            ++this.serial;
+            if (layer.complete) {
+                this.evaluations = evaluations;
+                this.achievedTolerance = achievedTolerance;
+            }
+        }
+        if (layer.complete)
+            this.requested = layer.key;
+        this.renderTime = other.renderTime;
+    }
+
+    /**
+     * @return <code>true</code> if the curve that is displayed is not the final one for the current request.
+     */
+    boolean isRendering() {
+        synchronized (this.lock) {
+            return !this.hidden && this.requested != null
+                    && (this.front == null || !this.front.complete || !this.requested.equals(this.front.key));
+        }
+    }
+
+    /**
+     * @return the time the last complete drawing took in nanoseconds or <code>-1</code> if there was none.
+     */
+    long getRenderTime() {
+        final long time = this.renderTime;
+        return time == Long.MAX_VALUE ? -1 : time;
+    }
+
+    /**
+     * Adds a job to the ones that have to be run. If an older job was not started yet, it is dropped.
+     */
+    private void schedule(Job job, Executor pool) {
+        final Job dropped = this.pending.getAndSet(job);
+        if (dropped != null)
+            dropped.batch.finished(dropped, FunctionRenderer.PASSES - 1);
+        if (this.scheduled.compareAndSet(false, true))
+            pool.execute(this::drain);
+    }
+
+    /**
+     * Runs the pending jobs one after another, so the function is never sampled by two threads at once.
+     */
+    private void drain() {
+        while (true) {
+            final Job next = this.pending.getAndSet(null);
+            if (next != null) {
+                this.run(next);
+                continue;
+            }
+            this.scheduled.set(false);
+            // a job might have been added after the check
+            if (this.pending.get() == null || !this.scheduled.compareAndSet(false, true))
+                return;
+        }
+    }
+
+    /**
+     * Samples the function for a job: First only every {@link #COARSE_STEP}th column (unless sampling the whole
+     * width was fast the last time), then every column. The result of each pass is shown when all functions of the
+     * batch finished the pass, unless a newer request was made in the meantime.
+     */
+    private void run(Job job) {
+        final long start = System.nanoTime();
+        try {
+            if (this.generation.get() != job.generation || job.key.view.width <= 0 || job.key.view.height <= 0)
+                return;
+            this.job = job;
+            this.sampled = job.f;
+            this.view = job.key.view;
+            this.deep = job.key.view.deep;
+            this.quantized = job.key.quantized;
+            this.yCorner = job.key.view.getYCorner();
+            job.key.view.getExactYCorner(this.exactYCorner);
+            // the coarse pass is not needed if only a few columns are missing
+            final Layer shiftable = isTiled(job) ? null : this.getShiftable(job);
+            final boolean panned = isTiled(job) ? this.isCached(job) || this.isPanned(job) : shiftable != null;
+            if (isSlow(job) && !panned && !this.renderPass(job, COARSE_STEP, null))
+                return;
+            job.batch.finished(job, 0);
+            if (this.renderPass(job, 1, shiftable) && !panned)
+                this.renderTime = System.nanoTime() - start;
+        } catch (CancellationException ignored) {
+            // a newer request was made
+        } finally {
+            job.batch.finished(job, FunctionRenderer.PASSES - 1);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if sampling the whole width takes so long that a coarse pass should be shown first:
+     * The time of the last complete drawing decides, or the estimated cost of the function (see
+     * {@link polyplot.math.Function#getCost()}) if it was not drawn yet.
+     */
+    private boolean isSlow(Job job) {
+        final long time = this.renderTime;
+        if (time != Long.MAX_VALUE)
+            return time >= COARSE_THRESHOLD;
+        final double evaluations = job.key.view.width * (job.key.adaptive ? getBudget(job.f) : 1);
+        return evaluations * job.f.getCost() * COST_TIME >= COARSE_THRESHOLD;
+    }
+
+    /**
+     * @return the number of evaluations per pixel column for sampling the function adaptively: at most
+     * {@link AdaptiveSampler#BUDGET}, but expensive functions get fewer (at least one), so they are not sampled more
+     * often than they can afford.
+     */
+    private static double getBudget(PureFunction f) {
+        return Math.max(1, Math.min(AdaptiveSampler.BUDGET, COLUMN_COST / f.getCost()));
+    }
+
+    /**
+     * Samples the points of the curve into an unused layer and stages it.
+     *
+     * @param step
+     *      the number of pixel columns between the samples.
+     * @param shiftable
+     *      the displayed layer if it only has to be moved (see {@link #getShiftable(Job)}) or <code>null</code>.
+     * @return <code>false</code> if the result is outdated.
+     */
+    private boolean renderPass(Job job, int step, Layer shiftable) {
+        final Layer layer;
+        synchronized (this.lock) {
+            layer = this.spare != null ? this.spare : new Layer();
+            this.spare = null;
+        }
+        final int width = job.key.view.width;
+        final boolean complete = step == 1;
+        this.samples = null;
+        if (complete && !job.key.adaptive && (!job.key.quantized || isTiled(job)) && !this.deep
+                && job.key.method != DrawingMethod.ENVELOPE) {
+            if (layer.samples == null || layer.samples.length != width)
+                layer.samples = new double[width];
+            this.samples = layer.samples;
+        }
+        this.passEvaluations = 0;
+        this.passTolerance = NaN;
+        this.target = layer;
+        String error = null;
+        int size = 0;
+        DrawingMethod method = job.key.method == DrawingMethod.AUTO ? DrawingMethod.LINES : job.key.method;
         try {
-            final Graphics2D tmpG2d = pixelBuffer.createGraphics();
-            tmpG2d.setColor(this.foreground);
-            tmpG2d.setRenderingHints(FunctionPlotter.RENDERING_HINTS);
-            switch (DRAWING_METHOD) {
-                case PATH: this.drawPath(tmpG2d, parent); break;
-                case POINTS: this.drawPoints(tmpG2d, parent); break;
-                case LINES: this.drawLines(tmpG2d, parent); break;
+            if (shiftable != null) {
+                method = shiftable.method;
+                size = this.sampleShifted(job, shiftable);
+            } else if (method == DrawingMethod.ENVELOPE)
+                size = this.sampleEnvelope(0, width, step, 0);
+            else if (complete && isTiled(job))
+                size = this.sampleTiles(job);
+            else if (complete && job.key.adaptive)
+                size = this.sampleAdaptively();
+            else
+                size = this.sampleColumns(step);
+            if (complete && job.key.method == DrawingMethod.AUTO && method != DrawingMethod.ENVELOPE
+                    && isAliased(layer, size)) {
+                method = DrawingMethod.ENVELOPE;
+                size = this.sampleEnvelope(0, width, 1, 0);
+                this.passTolerance = NaN;
             }
         } catch (RuntimeException e) {
-            g.drawString(e.toString(), 42, 42);
-            System.err.println(e.toString());
-        }
-        g2d.drawImage(this.pixelBuffer, null, null);
-    }
-
-    private void drawPath(Graphics2D g, FunctionPlotter parent) {
-        this.path.reset();
-        boolean lastWasNaN = true;
-        for (int i = -1, width = parent.getWidth(); i < width; ++i) {
-            final double y = this.function.fastOf(parent.getValueOfXPixel(i));
-            if (y == y) { // when y = NaN this is false
-                final int yPixel, xPixel;
-                if (y == Double.POSITIVE_INFINITY) {
-                    xPixel = i - 1;
-                    yPixel = -1;
-                } else if (y == Double.NEGATIVE_INFINITY) {
-                    xPixel = i - 1;
-                    yPixel = this.lastHeight;
-                } else {
-                    xPixel = i;
-                    yPixel = parent.getPixelToYValue(y);
+            if (e instanceof CancellationException) {
+                synchronized (this.lock) {
+                    this.spare = layer;
                 }
-                if (lastWasNaN) this.path.moveTo(xPixel, yPixel);
-                else this.path.lineTo(xPixel, yPixel);
-                lastWasNaN = false;
-            } else lastWasNaN = true;
-        }
-        g.draw(this.path);
-    }
-
-    private void drawPoints(Graphics2D g, FunctionPlotter parent) {
-        for (int i = 0; i < this.lastWidth; ++i) {
-            final double y = this.function.fastOf(parent.getValueOfXPixel(i));
-            if (y != y) continue;
-            final int yPixel = parent.getPixelToYValue(y);
-
-            if (yPixel >= 0 && yPixel < this.lastHeight) {
-                //this.pixelBuffer.setRGB(i, yPixel, rgb);
-                g.drawRect(i, yPixel, 1, 1);
-            }
-        }
-    }
-
-    private void drawLines(Graphics2D g, FunctionPlotter parent) {
-        if (this.hidden) return;
-        g.setColor(this.foreground);
-        final int OFFSET = this.lastHeight + 42_000;
-        final int NEG_OFFSET = -42_000;
-        //((Graphics2D)g).setStroke(STROKE);
-        int lastYPixel;
-        {
-            final double tmpY = this.function.fastOf(parent.getValueOfXPixel(-1));
-            if (tmpY == tmpY) lastYPixel = parent.getPixelToYValue(tmpY);
-            else lastYPixel = Integer.MAX_VALUE;
-        }
-        for (int i = 0; i < parent.getWidth(); ++i) {
-            final double y = this.function.fastOf(parent.getValueOfXPixel(i));
-            int yPixel = Integer.MAX_VALUE;
-            if (y == y) {
-                yPixel = parent.getPixelToYValue(y);
-                // of one of the points is visible
-                if ((yPixel > NEG_OFFSET && yPixel < OFFSET) || (lastYPixel > NEG_OFFSET && lastYPixel < OFFSET)) {
-                    g.drawLine(i - 1, lastYPixel, i, yPixel);
+                throw e;
+            }
+            this.samples = null;
+            error = e.toString();
+        }
+        layer.key = job.key;
+        layer.method = method;
+        layer.job = job;
+        layer.complete = complete;
+        layer.size = size;
+        layer.samples = this.samples;
+        layer.error = error;
+        layer.evaluations = this.passEvaluations;
+        layer.achievedTolerance = this.passTolerance;
+
+        synchronized (this.lock) {
+            if (this.generation.get() != job.generation) {
+                this.spare = layer;
+                return false;
+            }
+            if (this.staged != null)
+                this.spare = this.staged;
+            this.staged = layer;
+        }
+        return true;
+    }
+
+    /**
+     * Shows the staged layer of a job (called when all functions of its batch finished the pass).
+     */
+    private void promote(Job job) {
+        synchronized (this.lock) {
+            if (this.staged == null || this.staged.job != job || this.generation.get() != job.generation)
+                return;
+            if (this.spare == null)
+                this.spare = this.front;
+            this.front = this.staged;
+            this.staged = null;
+            ++this.serial;
+            if (this.front.complete) {
+                this.evaluations = this.front.evaluations;
+                this.achievedTolerance = this.front.achievedTolerance;
+            }
+        }
+    }
+
+    /**
+     * Samples the function at every <code>step</code>th pixel column (and at the first and the last one).
+     *
+     * @return the number of points.
+     */
+    private int sampleColumns(int step) {
+        int n = 0;
+        for (int i = -1, width = this.view.width; i < width; i = next(i, step, width)) {
+            this.ensurePointCapacity(n + 1);
+            this.addColumn(i, n++);
+        }
+        return n;
+    }
+
+    /**
+     * Samples the function at a pixel column and stores the point at the given index. Infinite values are stored as
+     * infinite rows at the previous column (the rows are clamped when the curve is drawn).
+     */
+    private void addColumn(int column, int index) {
+        final double y = this.sample(column);
+        if (y == Double.POSITIVE_INFINITY || y == Double.NEGATIVE_INFINITY) {
+            this.target.columns[index] = column - 1;
+            this.target.rows[index] = -y;
+        } else {
+            this.target.columns[index] = column;
+            this.target.rows[index] = y == y ? (int) this.view.getRow(y) : NaN;
+        }
+    }
+
+    /**
+     * @return the next pixel column that is sampled (the last column is always sampled)
+     */
+    private static int next(int column, int step, int width) {
+        return column == width - 1 ? width : Math.min(width - 1, column + step);
+    }
+
+    /**
+     * Samples the function adaptively (see {@link AdaptiveSampler}).
+     *
+     * @return the number of points.
+     */
+    private int sampleAdaptively() {
+        this.sampler.sample(column -> {
+            this.checkCancelled();
+            final double y = this.sampled.fastOf(this.view.getValueOfXPixel(column));
+            return y != y ? y : this.view.getRow(y - this.yCorner);
+        }, this.view.width, getBudget(this.sampled));
+        this.passEvaluations = this.sampler.getEvaluations();
+        this.passTolerance = this.sampler.getAchievedTolerance();
+        final int n = this.sampler.size();
+        this.ensurePointCapacity(n);
+        for (int i = 0; i < n; ++i) {
+            this.target.columns[i] = this.sampler.getColumn(i);
+            this.target.rows[i] = this.sampler.getValue(i);
+        }
+        return n;
+    }
+
+    /**
+     * Samples the envelope of the function: Every block of <code>step</code> pixel columns is sampled at
+     * {@link #ENVELOPE_SAMPLES} evenly spaced positions (and at its left border, which is the right border of the
+     * previous block). For each column of the block, the rows of the largest and of the smallest value are stored as
+     * a pair of points, so the curve shows every value the function takes within the column, even if it oscillates
+     * faster than one sample per column could show.
+     *
+     * @param from
+     *      the first pixel column.
+     * @param to
+     *      the last pixel column (exclusive).
+     * @param n
+     *      the number of points that are already stored (the new ones are appended).
+     * @return the number of points.
+     */
+    private int sampleEnvelope(int from, int to, int step, int n) {
+        this.ensurePointCapacity(n + 2 * (to - from));
+        double border = this.subSample(from - 0.5);
+        for (int i = from; i < to; i += step) {
+            double min = border == border ? border : NaN, max = min;
+            for (int k = 1; k <= ENVELOPE_SAMPLES; ++k) {
+                final double y = this.subSample(i - 0.5 + (double) step * k / ENVELOPE_SAMPLES);
+                if (k == ENVELOPE_SAMPLES)
+                    border = y;
+                if (y != y)
+                    continue;
+                if (!(y >= min))
+                    min = y;
+                if (!(y <= max))
+                    max = y;
+            }
+            final double top = max == max ? this.view.getRow(max) : NaN;
+            final double bottom = min == min ? this.view.getRow(min) : NaN;
+            for (int column = i, end = Math.min(to, i + step); column < end; ++column) {
+                this.target.columns[n] = column;
+                this.target.rows[n] = top;
+                this.target.columns[n + 1] = column;
+                this.target.rows[n + 1] = bottom;
+                n += 2;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return <code>true</code> if the points of the curve change their direction by more than
+     * {@link #ALIASING_SWING} pixels {@link #ALIASING_REVERSALS} times within {@link #ALIASING_COLUMNS} columns, i.e.
+     * if the function oscillates faster than the curve can show, so lines between the samples would zigzag randomly
+     * (single reversals, e.g. at poles or corners, do not count).
+     */
+    private static boolean isAliased(Layer layer, int size) {
+        final double[] columns = layer.columns, rows = layer.rows;
+        final double[] reversals = new double[ALIASING_REVERSALS]; // the columns of the last reversals (a ring)
+        Arrays.fill(reversals, NEGATIVE_INFINITY);
+        int count = 0;
+        for (int i = 2; i < size; ++i) {
+            final double a = rows[i - 2], b = rows[i - 1], c = rows[i];
+            if (columns[i] - columns[i - 2] > 2 || isNaN(a + b + c) || isInfinite(a + b + c))
+                continue;
+            final double d1 = b - a, d2 = c - b;
+            if (d1 > ALIASING_SWING && d2 < -ALIASING_SWING || d1 < -ALIASING_SWING && d2 > ALIASING_SWING) {
+                // the oldest reversal in the ring is the one ALIASING_REVERSALS - 1 reversals ago
+                final int slot = count++ % ALIASING_REVERSALS;
+                if (columns[i - 1] - reversals[(slot + 1) % ALIASING_REVERSALS] <= ALIASING_COLUMNS)
+                    return true;
+                reversals[slot] = columns[i - 1];
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Samples the function in tiles that are aligned to the world coordinates (see {@link TileCache}). Only the tiles
+     * that are not cached are sampled.
+     *
+     * @return the number of points.
+     */
+    private int sampleTiles(Job job) {
+        final Viewport v = this.view;
+        final double origin = v.getXCorner() / v.xPerPixel; // the world column of the pixel column 0
+        final long first = firstTile(v), last = lastTile(v);
+        final boolean aligned = origin == Math.rint(origin); // the samples are at the pixel columns
+        int n = 0;
+        for (long t = first; t <= last; ++t) {
+            final TileCache.Key key = this.tileKey(job, t);
+            TileCache.Tile tile = job.tiles.get(key);
+            if (tile == null) {
+                tile = job.key.adaptive ? this.sampleTileAdaptively(t) : this.sampleTile(t);
+                job.tiles.put(key, tile);
+            }
+            this.passTolerance = maxTolerance(this.passTolerance, tile.achievedTolerance);
+            this.ensurePointCapacity(n + tile.columns.length);
+            final double start = (double) t * TileCache.TILE_COLUMNS - origin;
+            for (int i = t == first ? 0 : 1; i < tile.columns.length; ++i) { // the first sample is the last one of
+                final double column = start + tile.columns[i];               // the previous tile
+                this.target.columns[n] = column;
+                this.target.rows[n] = v.getRow(tile.values[i] - this.yCorner);
+                ++n;
+                if (this.samples != null && aligned && column >= 0 && column < this.samples.length)
+                    this.samples[(int) column] = tile.values[i];
+            }
+        }
+        if (!aligned)
+            this.samples = null;
+        return n;
+    }
+
+    /**
+     * @return <code>true</code> if the displayed curve only has to be moved to show the job, so only the tiles of
+     * the columns that were not visible before are missing.
+     */
+    private boolean isPanned(Job job) {
+        final Layer previous;
+        synchronized (this.lock) {
+            previous = this.front;
+        }
+        if (previous == null || !previous.complete)
+            return false;
+        final LayerKey a = previous.key, b = job.key;
+        return b.view.hasSameScale(a.view) && a.version == b.version && a.xOffset == b.xOffset
+                && a.yOffset == b.yOffset && a.adaptive == b.adaptive && a.quantized == b.quantized
+                && Math.abs(b.view.getColumnShift(a.view)) < b.view.width;
+    }
+
+    /**
+     * @return the displayed layer if the job can be drawn by moving it by whole pixels and only sampling the columns
+     * that were not visible before (see {@link #sampleShifted(Job, Layer)}) or <code>null</code>.
+     */
+    private Layer getShiftable(Job job) {
+        final Layer previous;
+        synchronized (this.lock) {
+            previous = this.front;
+        }
+        if (previous == null || !previous.complete || previous.error != null)
+            return null;
+        final LayerKey a = previous.key, b = job.key;
+        if (!b.view.hasSameScale(a.view) || a.version != b.version || a.xOffset != b.xOffset
+                || a.yOffset != b.yOffset || a.method != b.method || a.adaptive != b.adaptive
+                || a.quantized != b.quantized)
+            return null;
+        final double dx = b.view.getColumnShift(a.view);
+        if (Math.abs(dx - Math.rint(dx)) > MAX_SHIFT_ERROR || Math.abs(dx) >= b.view.width)
+            return null;
+        return previous;
+    }
+
+    /**
+     * Moves the points of the previous layer to the view of the job and samples only the columns that were not
+     * visible before (one more, as the curve has to be connected), so a vertical pan needs no evaluations at all.
+     *
+     * @return the number of points.
+     */
+    private int sampleShifted(Job job, Layer previous) {
+        final AffineTransform t = getTransform(previous.key, job.key);
+        final int dx = (int) Math.rint(t.getTranslateX()), width = this.view.width;
+        final double dy = t.getTranslateY();
+        if (this.samples != null && previous.samples != null)
+            System.arraycopy(previous.samples, Math.max(0, -dx), this.samples, Math.max(0, dx), width - Math.abs(dx));
+        else
+            this.samples = null;
+        this.passTolerance = previous.achievedTolerance;
+
+        final boolean envelope = previous.method == DrawingMethod.ENVELOPE;
+        // the columns of the points that are kept (from inclusive, to exclusive): envelopes consist of the columns
+        // from 0 to width - 1, curves of the columns from -1 to width (the last one only if it was moved there)
+        final double keepFrom, keepTo;
+        if (envelope) {
+            keepFrom = Math.max(0, dx);
+            keepTo = Math.min(width, width + dx);
+        } else {
+            keepFrom = dx > 0 ? Math.nextUp((double) dx) : -1;
+            keepTo = dx < 0 ? width - 1 + dx : width + 1;
+        }
+        int n = 0;
+        if (dx > 0)
+            n = this.sampleStrip(job, envelope, envelope ? 0 : -1, envelope ? dx : dx + 1, n);
+        this.ensurePointCapacity(n + previous.size);
+        for (int i = 0; i < previous.size; ++i) {
+            final double column = previous.columns[i] + dx;
+            if (column >= keepFrom && column < keepTo) { // both points of a column of an envelope are kept
+                this.target.columns[n] = column;
+                this.target.rows[n] = previous.rows[i] + dy;
+                ++n;
+            }
+        }
+        if (dx < 0)
+            n = this.sampleStrip(job, envelope, envelope ? width + dx : width - 1 + dx, width, n);
+        return n;
+    }
+
+    /**
+     * Samples the pixel columns from <code>from</code> to <code>to</code> (exclusive) and appends the points.
+     *
+     * @return the number of points.
+     */
+    private int sampleStrip(Job job, boolean envelope, int from, int to, int n) {
+        if (envelope)
+            return this.sampleEnvelope(from, to, 1, n);
+        if (job.key.adaptive) {
+            final int offset = from + 1; // the sampler samples the columns from -1 to its width (inclusive)
+            this.sampler.sample(column -> {
+                this.checkCancelled();
+                final double y = this.sampled.fastOf(this.view.getValueOfXPixel(column + offset));
+                return y != y ? y : this.view.getRow(y - this.yCorner);
+            }, to - 1 - offset, getBudget(this.sampled));
+            this.passTolerance = maxTolerance(this.passTolerance, this.sampler.getAchievedTolerance());
+            this.ensurePointCapacity(n + this.sampler.size());
+            for (int i = 0; i < this.sampler.size(); ++i) {
+                this.target.columns[n] = this.sampler.getColumn(i) + offset;
+                this.target.rows[n] = this.sampler.getValue(i);
+                ++n;
+            }
+            return n;
+        }
+        this.ensurePointCapacity(n + to - from);
+        for (int i = from; i < to; ++i)
+            this.addColumn(i, n++);
+        return n;
+    }
+
+    private static double maxTolerance(double a, double b) {
+        return a != a ? b : b != b ? a : Math.max(a, b);
+    }
+
+    /**
+     * @return <code>true</code> if the samples of the job can be cached in tiles (the world columns have to be
+     * exact; envelopes are not cached).
+     */
+    private static boolean isTiled(Job job) {
+        final Viewport v = job.key.view;
+        return !v.deep && job.tiles != null && job.tiles.isEnabled() && job.key.method != DrawingMethod.ENVELOPE
+                && Math.abs(v.getXCorner() / v.xPerPixel) + v.width + 2 * TileCache.TILE_COLUMNS < MAX_WORLD_COLUMN;
+    }
+
+    /**
+     * @return <code>true</code> if all tiles of the job are cached.
+     */
+    private boolean isCached(Job job) {
+        for (long t = firstTile(job.key.view), last = lastTile(job.key.view); t <= last; ++t)
+            if (!job.tiles.contains(this.tileKey(job, t)))
+                return false;
+        return true;
+    }
+
+    private TileCache.Key tileKey(Job job, long tile) {
+        return new TileCache.Key(this.function, job.key.version, job.key.view.xPerPixel, job.key.view.yPerPixel,
+                job.key.adaptive, tile);
+    }
+
+    private static long firstTile(Viewport v) {
+        return (long) Math.floor((v.getXCorner() / v.xPerPixel - 1) / TileCache.TILE_COLUMNS);
+    }
+
+    private static long lastTile(Viewport v) {
+        return (long) Math.floor((v.getXCorner() / v.xPerPixel + v.width) / TileCache.TILE_COLUMNS);
+    }
+
+    /**
+     * Samples a tile at every world column.
+     */
+    private TileCache.Tile sampleTile(long tile) {
+        final int n = TileCache.TILE_COLUMNS + 1;
+        final double[] columns = new double[n], values = new double[n];
+        final double start = (double) tile * TileCache.TILE_COLUMNS;
+        for (int i = 0; i < n; ++i) {
+            this.checkCancelled();
+            columns[i] = i;
+            values[i] = this.sampled.fastOf((start + i) * this.view.xPerPixel);
+        }
+        return new TileCache.Tile(columns, values, n, NaN);
+    }
+
+    /**
+     * Samples a tile adaptively. The tolerance is measured in pixels, so the tile depends on the vertical scale, too.
+     */
+    private TileCache.Tile sampleTileAdaptively(long tile) {
+        final double start = (double) tile * TileCache.TILE_COLUMNS + 1, xPerPixel = this.view.xPerPixel;
+        final double yPerPixel = this.view.yPerPixel;
+        // the sampler starts at column -1; the rows are relative to the value 0
+        this.sampler.sample(column -> {
+            this.checkCancelled();
+            final double y = this.sampled.fastOf((start + column) * xPerPixel);
+            return y != y ? y : -y / yPerPixel;
+        }, TileCache.TILE_COLUMNS - 1, getBudget(this.sampled));
+        final int n = this.sampler.size();
+        final double[] columns = new double[n], values = new double[n];
+        for (int i = 0; i < n; ++i) {
+            columns[i] = this.sampler.getColumn(i) + 1;
+            values[i] = -this.sampler.getValue(i) * yPerPixel;
+        }
+        return new TileCache.Tile(columns, values, this.sampler.getEvaluations(), this.sampler.getAchievedTolerance());
+    }
+
+    private void ensurePointCapacity(int capacity) {
+        final Layer layer = this.target;
+        if (layer.columns.length >= capacity)
+            return;
+        final int length = Math.max(capacity, 2 * layer.columns.length);
+        layer.columns = Arrays.copyOf(layer.columns, length);
+        layer.rows = Arrays.copyOf(layer.rows, length);
+    }
+
+    /**
+     * @return the number of evaluations of the last complete drawing.
+     */
+    int getEvaluations() {
+        synchronized (this.lock) {
+            return this.evaluations;
+        }
+    }
+
+    /**
+     * @return the cache of the quantized values of the copy of the function that is sampled or <code>null</code> if
+     * there is none (the function itself does not use one).
+     */
+    EvaluationCache getRenderCache() {
+        return this.copy == null ? null : this.copy.getRenderCache();
+    }
+
+    /**
+     * @return the tolerance (in pixels) achieved by the last complete drawing or <code>NaN</code> if it was not
+     * sampled adaptively.
+     */
+    double getAchievedTolerance() {
+        synchronized (this.lock) {
+            return this.achievedTolerance;
+        }
+    }
+
+    /**
+     * Stops the current pass if a newer request was made. This is only checked every few evaluations.
+     */
+    private void checkCancelled() {
+        if ((++this.passEvaluations & CANCELLATION_CHECK) == 0 && this.generation.get() != this.job.generation)
+            throw new CancellationException();
+    }
+
+    /**
+     * Samples the function at the given pixel column. If the deep zoom is active, the function is
+     * evaluated with extended precision.
+     * @return the value of the function relative to the y corner of the view (<code>NaN</code> and infinite values
+     * are returned as is)
+     */
+    private double sample(int column) {
+        this.checkCancelled();
+        if (!this.deep) {
+            final double x = this.view.getValueOfXPixel(column);
+            final double value = this.quantized
+                    ? this.sampled.cachedOf(x, this.view.xPerPixel)
+                    : this.sampled.fastOf(x);
+            if (this.samples != null && column >= 0 && column < this.samples.length)
+                this.samples[column] = value;
+            return value - this.yCorner;
+        }
+        return this.sampleDeep(column);
+    }
+
+    /**
+     * Samples the function at a fractional pixel column (see {@link #sample(int)}), without storing the value.
+     */
+    private double subSample(double column) {
+        this.checkCancelled();
+        if (!this.deep)
+            return this.sampled.fastOf(this.view.getValueOfXPixel(column)) - this.yCorner;
+        return this.sampleDeep(column);
+    }
+
+    private double sampleDeep(double column) {
+        this.view.getValueOfXPixel(column, this.deepX);
+        this.sampled.deepOf(this.deepX, this.deepY);
+        if (this.deepY.isNaN() || this.deepY.isInfinite())
+            return this.deepY.getHi();
+        return this.deepY.subtract(this.exactYCorner).doubleValue();
+    }
+
+    /**
+     * Returns the values of the function at the pixel columns (<code>parent.getValueOfXPixel(i)</code>)
+     * computed during the last drawing, if the view and the function did not change since then.
+     *
+     * @return a copy of the values or <code>null</code> if they are not available.
+     */
+    double[] getSamples(FunctionPlotter parent) {
+        final LayerKey key = new LayerKey(new Viewport(parent), this.function, this.foreground);
+        synchronized (this.lock) {
+            if (this.front == null || !this.front.complete || this.front.samples == null || !key.equals(this.front.key))
+                return null;
+            return this.front.samples.clone();
+        }
+    }
+
+    /**
+     * Returns the rows of the displayed curve at the pixel columns of the current view of the plotter. Nothing is
+     * evaluated: The points of the curve are moved to the view like when the curve is drawn and the rows between
+     * them are interpolated (the rows of an envelope are the middle of its spans).
+     *
+     * @return the (fractional) rows or <code>null</code> if there is no curve; <code>NaN</code> where the curve is
+     * undefined, infinite or not known.
+     */
+    double[] getRows(FunctionPlotter parent) {
+        final LayerKey key = new LayerKey(new Viewport(parent), this.function, this.foreground);
+        final int width = key.view.width;
+        synchronized (this.lock) {
+            final Layer layer = this.front;
+            if (layer == null || width <= 0)
+                return null;
+            final double[] result = new double[width];
+            Arrays.fill(result, NaN);
+            final AffineTransform t = getTransform(layer.key, key);
+            final double sx = t.getScaleX(), sy = t.getScaleY(), tx = t.getTranslateX(), ty = t.getTranslateY();
+            final double[] columns = layer.columns, rows = layer.rows;
+            if (layer.method == DrawingMethod.ENVELOPE) {
+                for (int i = 0; i + 1 < layer.size; i += 2) {
+                    final double row = sy * (rows[i] + rows[i + 1]) / 2 + ty, left = sx * columns[i] + tx;
+                    for (int x = Math.max(0, (int) Math.round(left)),
+                         right = Math.min(width, Math.max(x + 1, (int) Math.round(left + sx))); x < right; ++x)
+                        result[x] = row; // NaN if the column is undefined
                 }
+                return result;
+            }
+            for (int i = 0; i < layer.size; ++i) {
+                final double b = sy * rows[i] + ty, right = sx * columns[i] + tx;
+                if (isNaN(b) || isInfinite(b))
+                    continue;
+                final long column = Math.round(right);
+                if (column >= 0 && column < width && right == column)
+                    result[(int) column] = b;
+                if (i == 0)
+                    continue;
+                final double a = sy * rows[i - 1] + ty, left = sx * columns[i - 1] + tx;
+                if (isNaN(a) || isInfinite(a) || !(right > left))
+                    continue;
+                for (int x = Math.max(0, (int) Math.ceil(left)), end = (int) Math.min(width - 1, Math.floor(right));
+                     x <= end; ++x)
+                    result[x] = a + (b - a) * (x - left) / (right - left);
             }
-            lastYPixel = yPixel;
+            return result;
         }
     }
 
@@ -0,0 +1,295 @@
+package polyplot.graphics;
+
+import polyplot.math.Function;
+import polyplot.math.FunctionFamily;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A component that draws families of functions (e.g. <code>f(x, a)</code> for <code>a</code> from 0 to 5).<br>
+ * All members of all families are drawn into one layer. The layer is rendered in the background as part of the batch
+ * of the functions (see {@link FunctionRenderer}) whenever the view or the families change; until the new one is
+ * ready, the last one is moved to the current view.
+ * The members are colored with a ramp from blue (first value of the parameter) to red (last value),
+ * so no color has to be assigned to every member. Families that cannot be sampled are not drawn; their errors are
+ * shown on the plot instead.
+ *
+ * @author Polymehr
+ */
+public class FunctionFamilies extends DrawableComponent {
+
+    // the ramp goes from this hue to 0 (red)
+    private static final float RAMP_HUE = 2f / 3;
+    private static final float RAMP_SATURATION = 0.85f;
+    private static final float RAMP_BRIGHTNESS = 0.9f;
+    private static final double MAX_SHIFT_ERROR = 1e-3; // [pixels] the layer is only moved by whole pixels
+
+    /**
+     * The members of all families drawn for a view.
+     */
+    private static final class Layer {
+        BufferedImage image;
+        Rasterizer rasterizer; // draws into the image
+        Viewport view;
+        final List<String> errors = new ArrayList<>(); // of the families that could not be sampled
+        Job job;
+    }
+
+    /**
+     * A request to render the families for a view. It is run on the pool of the {@link FunctionRenderer}.
+     */
+    final class Job extends FunctionRenderer.Job {
+        final int generation;
+        final Viewport view;
+        final List<FunctionFamily> families;
+
+        private Job(int generation, Viewport view, List<FunctionFamily> families) {
+            this.generation = generation;
+            this.view = view;
+            this.families = families;
+        }
+
+        @Override
+        void schedule(Executor pool) {
+            pool.execute(() -> render(this));
+        }
+
+        @Override
+        double getCost() {
+            double cost = 0;
+            for (FunctionFamily family : families)
+                cost += family.getCost();
+            return cost;
+        }
+
+        @Override
+        void promote() {
+            FunctionFamilies.this.promote(this);
+        }
+    }
+
+    private final Map<String, FunctionFamily> families; // only accessed by the event dispatch thread
+    private int revision; // increased whenever the families change
+
+    // only accessed by the event dispatch thread
+    private Viewport requestedView;
+    private int requestedRevision = -1;
+
+    // the displayed layer, a finished one that waits for the functions of its batch and an unused one whose image can
+    // be reused (guarded by the lock)
+    private final Object lock = new Object();
+    private Layer front, staged, spare;
+    private final AtomicInteger generation = new AtomicInteger(); // increased for every request
+
+    /**
+     * @param foreground
+     *      the color of error messages.
+     */
+    FunctionFamilies(Color foreground, boolean hidden) {
+        super(foreground, hidden);
+        families = new LinkedHashMap<>();
+    }
+
+    /**
+     * Adds a family. An existing family of the same function will be replaced.
+     */
+    void set(FunctionFamily family) {
+        families.put(family.getName().toLowerCase(), family);
+        ++revision;
+    }
+
+    /**
+     * @return the family of the given function (case insensitive) or <code>null</code> if there is none.
+     */
+    FunctionFamily get(String function) {
+        return families.get(function.toLowerCase());
+    }
+
+    void remove(String function) {
+        if (families.remove(function.toLowerCase()) != null)
+            ++revision;
+    }
+
+    void clear() {
+        families.clear();
+        ++revision;
+    }
+
+    List<FunctionFamily> getFamilies() {
+        return new ArrayList<>(families.values());
+    }
+
+    /**
+     * Must be called if functions are redefined (or the values of animated constants changed), because the families
+     * evaluate copies of the functions.
+     *
+     * @param lookup
+     *      returns the current function with the given name or <code>null</code> if it does not exist any more.
+     */
+    void update(java.util.function.Function<String, Function> lookup) {
+        families.replaceAll((name, family) -> {
+            final Function f = lookup.apply(name);
+            return f == null || f.getNumberOfArguments() != 2 ? null : family.withFunction(f);
+        });
+        families.values().removeIf(Objects::isNull);
+        ++revision;
+    }
+
+    /**
+     * @return the color of a member of a family of the given size.
+     */
+    static Color getRampColor(int member, int size) {
+        final float t = size < 2 ? 0f : (float) member / (size - 1);
+        return Color.getHSBColor(RAMP_HUE * (1 - t), RAMP_SATURATION, RAMP_BRIGHTNESS);
+    }
+
+    /**
+     * Requests rendering the families again if the view or the families changed and draws the last finished layer
+     * (moved or scaled to the current view).
+     */
+    @Override
+    public void draw(Graphics gc, FunctionPlotter parent) {
+        if (hidden || families.isEmpty())
+            return;
+        final Viewport view = new Viewport(parent);
+        if (revision != requestedRevision || !view.equals(requestedView)) {
+            requestedView = view;
+            requestedRevision = revision;
+            parent.getFunctionRenderer().request(new Job(generation.incrementAndGet(), view,
+                    new ArrayList<>(families.values())));
+        }
+        synchronized (lock) { // the image must not be reused while it is drawn
+            if (front == null || view.width <= 0 || view.height <= 0)
+                return;
+            final AffineTransform t = getTransform(front.view, view);
+            final double tx = t.getTranslateX(), ty = t.getTranslateY();
+            if (t.getScaleX() == 1 && t.getScaleY() == 1 && Math.abs(tx - Math.rint(tx)) <= MAX_SHIFT_ERROR
+                    && Math.abs(ty - Math.rint(ty)) <= MAX_SHIFT_ERROR)
+                gc.drawImage(front.image, (int) Math.rint(tx), (int) Math.rint(ty), null);
+            else
+                ((Graphics2D) gc).drawImage(front.image, t, null);
+            if (!front.errors.isEmpty()) {
+                gc.setColor(foreground);
+                final int lineHeight = gc.getFontMetrics().getHeight();
+                // below the errors of the functions and of the domain coloring
+                for (int i = 0; i < front.errors.size(); ++i)
+                    gc.drawString(front.errors.get(i), 42, 42 + (i + 2) * lineHeight);
+            }
+        }
+    }
+
+    /**
+     * @return the transformation that maps the pixels of one view to the pixels of another view.
+     */
+    private static AffineTransform getTransform(Viewport from, Viewport to) {
+        final double sx = from.xPerPixel / to.xPerPixel, sy = from.yPerPixel / to.yPerPixel;
+        return new AffineTransform(sx, 0, 0, sy, to.getColumnShift(from),
+                to.getRowShift(from) + (to.height - 1) - sy * (from.height - 1));
+    }
+
+    /**
+     * Samples the members of all families of a job and draws them into an unused layer (on a thread of the pool).
+     */
+    private void render(Job job) {
+        try {
+            final Viewport view = job.view;
+            if (generation.get() != job.generation || view.width <= 0 || view.height <= 0)
+                return;
+            final Layer layer;
+            synchronized (lock) {
+                layer = spare != null ? spare : new Layer();
+                spare = null;
+            }
+            if (layer.image == null || layer.image.getWidth() != view.width || layer.image.getHeight() != view.height) {
+                layer.image = new BufferedImage(view.width, view.height, BufferedImage.TYPE_INT_ARGB_PRE);
+                layer.rasterizer = new Rasterizer(layer.image);
+            }
+            layer.view = view;
+            layer.job = job;
+            layer.errors.clear();
+            if (!draw(layer, job)) {
+                synchronized (lock) {
+                    spare = layer;
+                }
+                return;
+            }
+            synchronized (lock) {
+                if (generation.get() != job.generation) {
+                    spare = layer;
+                    return;
+                }
+                if (staged != null)
+                    spare = staged;
+                staged = layer;
+            }
+        } finally {
+            job.batch.finished(job, FunctionRenderer.PASSES - 1);
+        }
+    }
+
+    /**
+     * Draws the members of all families of a job with the rasterizer of the layer (like the lines of the functions).
+     *
+     * @return <code>false</code> if a newer request was made.
+     */
+    private boolean draw(Layer layer, Job job) {
+        final Viewport view = job.view;
+        final int width = view.width, height = view.height;
+        final double yCorner = view.getYCorner();
+        final Graphics2D g = layer.image.createGraphics();
+        g.setBackground(new Color(0, true));
+        g.clearRect(0, 0, width, height);
+        g.dispose();
+        final Rasterizer rasterizer = layer.rasterizer;
+        for (FunctionFamily family : job.families) {
+            final double[][] values;
+            try {
+                values = family.sample(view.getValueOfXPixel(0), view.xPerPixel, width,
+                        () -> generation.get() != job.generation);
+            } catch (RuntimeException e) {
+                layer.errors.add("family of " + family.getName() + ": " + e.toString());
+                continue;
+            }
+            if (values == null)
+                return false;
+            for (int member = 0; member < values.length; ++member) {
+                rasterizer.setColor(getRampColor(member, values.length));
+                double last = Double.NaN;
+                for (int x = 0; x < width; ++x) {
+                    final double y = values[member][x];
+                    final double row = y != y || Double.isInfinite(y) ? Double.NaN
+                            : Math.max(-height, Math.min(2 * height, view.getRow(y - yCorner)));
+                    if (row == row && last == last && !(row < 0 && last < 0) && !(row >= height && last >= height))
+                        rasterizer.drawLine(x - 1, (int) last, x, (int) row);
+                    last = row;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Shows the staged layer of a job (called when all jobs of its batch finished a pass).
+     */
+    private void promote(Job job) {
+        synchronized (lock) {
+            if (staged == null || staged.job != job || generation.get() != job.generation)
+                return;
+            if (spare == null)
+                spare = front;
+            front = staged;
+            staged = null;
+        }
+    }
+}
@@ -1,8 +1,19 @@
 package polyplot.graphics;
 
 import polyplot.PolyPlot;
+import polyplot.math.AnimatedConstant;
 import polyplot.math.CompilationContext;
 import polyplot.math.Compiler;
+import polyplot.math.CurveFitter;
+import polyplot.math.DataSeries;
+import polyplot.math.DoubleDouble;
+import polyplot.math.EvaluationCache;
+import polyplot.math.FunctionAnalyzer;
+import polyplot.math.FunctionFamily;
+import polyplot.math.Integrator;
+import polyplot.math.IntersectionFinder;
+import polyplot.math.Profiler;
+import polyplot.math.RootFinder;
 import polyplot.math.Function;
 import polyplot.math.PureFunction;
 
@@ -12,17 +23,25 @@ import javax.script.ScriptException;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * A {@link JPanel} that contains a ordinate system that can display
@@ -52,8 +71,16 @@ public class FunctionPlotter extends JPanel implements Observer {
     Options o;
 
 
-    private double xCorner;
-    private double yCorner;
+    // the corners are stored with extended precision, so it is possible to zoom in further than 1e-12 (deep zoom)
+    private final DoubleDouble xCorner;
+    private final DoubleDouble yCorner;
+    private boolean deepZoom;
+
+    /**
+     * If the value of a pixel is smaller than this factor times the ulp of the visible values, the pixels cannot be
+     * distinguished properly with {@code double}s anymore and the extended-precision path is used.
+     */
+    private static final double DEEP_ZOOM_THRESHOLD = 1 << 12;
 
     private final double spanBase;
     private double span, spanX, spanY;
@@ -65,21 +92,47 @@ public class FunctionPlotter extends JPanel implements Observer {
 
     private double zoomBase;
     private int zoom;
+    // the zoom steps of the mouse wheel that are applied together when the next frame is painted
+    private int pendingZoom;
+    private Point pendingZoomCenter;
 
 
     private final JPanel overlay;
     private final Scale scale;
+    private final DomainColoring domainColoring;
     private final InfoBox info;
     private final DebugGUI debug;
     private final InputField inputField;
     private final CheatSheet help;
     private final FunctionOverview functionInfo;
+    private final Markers markers;
+    private final Shading shading;
+    private final FunctionFamilies families;
+    private final Animator animator;
+    private final FunctionRenderer functionRenderer;
 
     private final Compiler compiler;
     private List<DrawableFunction> functions;
     private DrawableFunction grabbedFunction;
     private final Map<String, Color> functionColors;
 
+    /**
+     * Functions with a higher estimated cost (see {@link Function#getCost()}) are so expensive,
+     * that rendering them will be noticeably slow.
+     */
+    private static final double EXPENSIVE_FUNCTION_COST = 50_000;
+    private final Set<String> expensiveFunctions;
+
+    private final Map<String, Consumer<List<String>>> commands;
+    private Runnable cancelJob;
+
+    private static final long ROOT_FINDER_MAX_EVALUATIONS = 5_000_000;
+    private static final int MAX_MARKERS = 10_000;
+    private static final int MAX_LISTED_RESULTS = 50;
+    private static final int FAMILY_DEFAULT_MEMBERS = 11; // if the step of a family is omitted
+    private static final double ANIMATION_DEFAULT_PERIOD = 5; // [s]
+    private static final long PROGRESS_DELAY = 500_000_000; // only report the progress of longer jobs [ns]
+
 
     private Mode mode;
 
@@ -103,8 +156,9 @@ public class FunctionPlotter extends JPanel implements Observer {
         overlay.setOpaque(false);
 
         this.span = spanBase = o.span;
-        yCorner = -(span / 2);
-        xCorner = -(span / 2);
+        yCorner = new DoubleDouble(-(span / 2));
+        xCorner = new DoubleDouble(-(span / 2));
+        deepZoom = o.deepZoom;
 
         boundOffset = new Insets(0, 0, 0, 0);
 
@@ -112,11 +166,26 @@ public class FunctionPlotter extends JPanel implements Observer {
         registerMouseListener();
 
         DrawableFunction.DRAWING_METHOD = o.functionsPointRendering;
+        DrawableFunction.QUANTIZED_SAMPLING = o.functionCacheQuantized;
+        AdaptiveSampler.ENABLED = o.functionAdaptiveSampling;
+        AdaptiveSampler.TOLERANCE = o.functionSampleTolerance;
+        AdaptiveSampler.BUDGET = o.functionSampleBudget;
 
         underlayComponents = new LinkedList<>();
         overlayComponents = new LinkedList<>();
+        domainColoring = new DomainColoring(o.scaleColor, false);
+        underlayComponents.add(domainColoring);
+        shading = new Shading(false);
+        underlayComponents.add(shading);
         scale = new Scale(o.scaleColor);
         underlayComponents.add(scale);
+        families = new FunctionFamilies(o.scaleColor, false);
+        underlayComponents.add(families);
+        animator = new Animator(this, o.animationMaxFps);
+        functionRenderer = new FunctionRenderer(this, o.functionRenderThreads > 0 ?
+                o.functionRenderThreads : Runtime.getRuntime().availableProcessors(), o.functionTileCacheSize << 20);
+        markers = new Markers(o.scaleColor, false);
+        overlayComponents.add(markers);
         info = new InfoBox(o.infoBoxForeground, o.infoBoxBackground, o.infoBoxDocked, o.infoBoxShowPixels,
                 o.infoBoxHidden, o.infoBoxFunctionRadius);
         overlayComponents.add(info);
@@ -145,6 +214,10 @@ public class FunctionPlotter extends JPanel implements Observer {
         grabbedFunction = null;
         compiler.getContext().addObserver(this);
         functionColors = new HashMap<>();
+        expensiveFunctions = new HashSet<>();
+        commands = new HashMap<>();
+        cancelJob = null;
+        registerCommands();
 
         updateSpans();
         updatePow();
@@ -160,23 +233,73 @@ public class FunctionPlotter extends JPanel implements Observer {
     }
 
     double getValueOfXPixel(int pixel) {
-        return xCorner + pixel * getValueXPerPixel();
+        return xCorner.getHi() + (pixel * getValueXPerPixel() + xCorner.getLo());
     }
 
     double getValueOfYPixel(int pixel) {
-        return (yCorner + (getHeight() - pixel - 1) * getValueYPerPixel());
+        return yCorner.getHi() + ((getHeight() - pixel - 1) * getValueYPerPixel() + yCorner.getLo());
+    }
+
+    /**
+     * Stores the exact value of a pixel in <code>result</code>.
+     */
+    void getValueOfXPixel(int pixel, DoubleDouble result) {
+        result.set(xCorner).add(pixel * getValueXPerPixel());
+    }
+
+    /**
+     * Stores the exact value of a pixel in <code>result</code>.
+     */
+    void getValueOfYPixel(int pixel, DoubleDouble result) {
+        result.set(yCorner).add((getHeight() - pixel - 1) * getValueYPerPixel());
     }
 
     int getPixelToYValue(double value) {
         if (value != value)
             throw new IllegalArgumentException("Value has to be a real number! " + value);
-        return (int) (getHeight() - (value / getValueYPerPixel() - yCorner / getValueYPerPixel()) - 1);
+        return getPixelToYOffset(new DoubleDouble(value).subtract(yCorner).doubleValue());
+    }
+
+    int getPixelToYValue(DoubleDouble value) {
+        if (value.isNaN())
+            throw new IllegalArgumentException("Value has to be a real number! " + value);
+        return getPixelToYOffset(new DoubleDouble(value).subtract(yCorner).doubleValue());
+    }
+
+    /**
+     * @return the pixel of a value that is given relative to the y corner
+     */
+    int getPixelToYOffset(double offset) {
+        return (int) (getHeight() - offset / getValueYPerPixel() - 1);
     }
 
     int getPixelToXValue(double value) {
         if (value == Double.NaN)
             throw new IllegalArgumentException("Value has to be a real number! " + value);
-        return (int) ((value / getValueXPerPixel() - xCorner / getValueXPerPixel()) - 1);
+        return (int) (new DoubleDouble(value).subtract(xCorner).doubleValue() / getValueXPerPixel() - 1);
+    }
+
+    int getPixelToXValue(DoubleDouble value) {
+        if (value.isNaN())
+            throw new IllegalArgumentException("Value has to be a real number! " + value);
+        return (int) (new DoubleDouble(value).subtract(xCorner).doubleValue() / getValueXPerPixel() - 1);
+    }
+
+    /**
+     * @return <code>true</code> if the deep zoom mode is enabled and the current zoom level is so high that
+     * neighbouring pixels cannot be told apart with <code>double</code> precision anymore.
+     */
+    boolean isDeepZoomActive() {
+        if (!deepZoom)
+            return false;
+        final double maxX = Math.max(Math.abs(xCorner.getHi()), Math.abs(xCorner.getHi() + spanX));
+        final double maxY = Math.max(Math.abs(yCorner.getHi()), Math.abs(yCorner.getHi() + spanY));
+        return getValueXPerPixel() < DEEP_ZOOM_THRESHOLD * Math.ulp(maxX)
+            || getValueYPerPixel() < DEEP_ZOOM_THRESHOLD * Math.ulp(maxY);
+    }
+
+    boolean isDeepZoomEnabled() {
+        return deepZoom;
     }
 
     double getYSpan() {
@@ -184,11 +307,25 @@ public class FunctionPlotter extends JPanel implements Observer {
     }
 
     double getXCorner() {
-        return xCorner;
+        return xCorner.doubleValue();
     }
 
     double getYCorner() {
-        return yCorner;
+        return yCorner.doubleValue();
+    }
+
+    /**
+     * @return a copy of the exact x corner
+     */
+    DoubleDouble getExactXCorner() {
+        return new DoubleDouble(xCorner);
+    }
+
+    /**
+     * @return a copy of the exact y corner
+     */
+    DoubleDouble getExactYCorner() {
+        return new DoubleDouble(yCorner);
     }
 
     double getSpan() {
@@ -277,6 +414,7 @@ public class FunctionPlotter extends JPanel implements Observer {
     public void paintComponent(Graphics g) {
         final Graphics2D g2d = (Graphics2D)g;
         g2d.setRenderingHints(RENDERING_HINTS);
+        applyPendingZoom();
         if (this.getWidth() != lastWidth && this.getHeight() != lastHeight) {
             lastWidth  = this.getWidth();
             lastHeight = this.getHeight();
@@ -294,25 +432,57 @@ public class FunctionPlotter extends JPanel implements Observer {
         drawFunctions(g);
     }
 
-    private void drawFunctions(Graphics g) {
-        for (DrawableFunction f : functions) f.draw(g, this);
+    /**
+     * @return the sampling method and the evaluations of the last drawing for the debug overlay.
+     */
+    private String getSamplingStatus() {
+        final int evaluations = functions.stream().filter(f -> !f.isHidden())
+                .mapToInt(DrawableFunction::getEvaluations).sum();
+        final double achieved = functions.stream().filter(f -> !f.isHidden())
+                .mapToDouble(DrawableFunction::getAchievedTolerance).filter(t -> t == t).max().orElse(Double.NaN);
+        final long rendering = functions.stream().filter(DrawableFunction::isRendering).count();
+        final String pending = rendering == 0 ? "" : ", " + rendering + " rendering";
+        if (achieved != achieved)
+            return "per column (" + evaluations + " evaluations" + pending + ")";
+        return String.format("adaptive (tolerance %.2fpx, achieved %.2fpx, budget %.1f/column, %d evaluations%s)",
+                AdaptiveSampler.TOLERANCE, achieved, AdaptiveSampler.BUDGET, evaluations, pending);
     }
 
+    /**
+     * @return the renderer the functions are sampled with.
+     */
+    FunctionRenderer getFunctionRenderer() {
+        return functionRenderer;
+    }
 
-    private void move(Point a, Point b) {
-
-        double ya = getValueOfYPixel(a.y);
-        double xa = getValueOfXPixel(a.x);
+    /**
+     * @return the render times of the visible functions and of the last batch for the debug overlay.
+     */
+    private String getRenderTimes() {
+        return functions.stream().filter(f -> !f.isHidden())
+                .map(f -> f.getFunction().getName() + " " + (f.getRenderTime() < 0 ? "-" :
+                        String.format("%.1fms", f.getRenderTime() / 1e6)))
+                .collect(Collectors.joining(", ")) + String.format(" (batch %.1fms, composite %.1fms, %d threads)",
+                functionRenderer.getFrameTime() / 1e6, functionRenderer.getCompositeTime() / 1e6,
+                functionRenderer.getParallelism());
+    }
 
-        double yb = getValueOfYPixel(b.y);
-        double xb = getValueOfXPixel(b.x);
+    private void drawFunctions(Graphics g) {
+        for (DrawableFunction f : functions) f.draw(g, this);
+        functionRenderer.submit();
+        animator.painted(functionRenderer);
+        functionRenderer.composite(g, functions, getWidth(), getHeight());
+    }
 
 
-        double yd = yb - ya;
-        double xd = xb - xa;
+    private void move(Point a, Point b) {
+        applyPendingZoom();
+        // (value of b) - (value of a), computed directly from the pixel difference to avoid cancellation
+        double yd = (a.y - b.y) * getValueYPerPixel();
+        double xd = (b.x - a.x) * getValueXPerPixel();
 
-        yCorner -= yd;
-        xCorner -= xd;
+        yCorner.subtract(yd);
+        xCorner.subtract(xd);
     }
 
     private void move(Point a, Point b, boolean function) {
@@ -327,10 +497,11 @@ public class FunctionPlotter extends JPanel implements Observer {
 
     private void center(boolean x, boolean y, boolean function) {
         if (mode != Mode.INPUT) {
+            applyPendingZoom();
             if (x)
-                yCorner = -(spanY / 2);
+                yCorner.set(-(spanY / 2));
             if (y)
-                xCorner = -(spanX / 2);
+                xCorner.set(-(spanX / 2));
             if (function && mode == Mode.MOVE && grabbedFunction != null) {
                 double xOffset = y ? 0 : grabbedFunction.getXOffset();
                 double yOffset = x ? 0 : grabbedFunction.getYOffset();
@@ -343,28 +514,43 @@ public class FunctionPlotter extends JPanel implements Observer {
 
 
     void zoom(Point center, int factor) {
+        applyPendingZoom();
+        setZoom(center, zoom + factor);
+    }
 
-        int y0 = center.y, x0 = center.x;
-
-        double vy = getValueOfYPixel(y0), vx = getValueOfXPixel(x0);
-
-        span = spanBase * Math.pow(zoomBase, zoom += factor);
-        updateSpans();
-        int x1 = getPixelToXValue(vx), y1 = getPixelToYValue(vy);
+    /**
+     * Zooms when the next frame is painted, so a fast burst of mouse wheel events only changes the view once.
+     * The steps are only combined if the center does not change.
+     */
+    private void requestZoom(Point center, int factor) {
+        if (pendingZoomCenter != null && !pendingZoomCenter.equals(center))
+            applyPendingZoom();
+        pendingZoomCenter = center;
+        pendingZoom += factor;
+    }
 
-        move(new Point(x1, y1), center);
+    private void applyPendingZoom() {
+        final Point center = pendingZoomCenter;
+        if (center == null)
+            return;
+        pendingZoomCenter = null;
+        if (pendingZoom != 0)
+            setZoom(center, zoom + pendingZoom);
     }
 
     void setZoom(Point center, int newValue) {
-        int y0 = center.y, x0 = center.x;
-
-        double vy = getValueOfYPixel(y0), vx = getValueOfXPixel(x0);
+        pendingZoomCenter = null;
+        pendingZoom = 0;
+        final DoubleDouble vx = new DoubleDouble(), vy = new DoubleDouble();
+        getValueOfXPixel(center.x, vx);
+        getValueOfYPixel(center.y, vy);
 
         span = spanBase * Math.pow(zoomBase, zoom = newValue);
         updateSpans();
-        int x1 = getPixelToXValue(vx), y1 = getPixelToYValue(vy);
 
-        move(new Point(x1, y1), center);
+        // keep the value under the center at the same pixel
+        xCorner.set(vx).subtract(center.x * getValueXPerPixel());
+        yCorner.set(vy).subtract((getHeight() - center.y - 1) * getValueYPerPixel());
     }
 
     private void updateSpans() {
@@ -394,6 +580,438 @@ public class FunctionPlotter extends JPanel implements Observer {
             }
     }
 
+    /**
+     * Warns in the input field about every newly defined function that is very expensive to evaluate.
+     */
+    private void warnIfExpensive() {
+        for (Function f : compiler.getContext().getFunctions(true))
+            if (f.getCost() > EXPENSIVE_FUNCTION_COST && expensiveFunctions.add(f.getFullExpression()))
+                inputField.postError(String.format("Warning: '%s' is very expensive to evaluate " +
+                        "(estimated cost: %.0f); rendering might be slow!", f.getName(), f.getCost()));
+    }
+
+    /**
+     * Registers the commands that can be run with the command prompt (key <code>X</code>).<br>
+     * The arguments of the commands are separated by whitespace (see {@link InputField#getArguments(CharSequence)}).
+     */
+    private void registerCommands() {
+        commands.put("help", args ->
+                inputField.postLine("Commands: " + String.join(", ", new TreeSet<>(commands.keySet()))));
+        commands.put("clear", args -> {
+            markers.clear();
+            shading.clear();
+            families.clear();
+            repaint();
+        });
+        commands.put("cancel", args -> {
+            if (cancelJob == null)
+                inputField.postLine("Nothing to cancel.");
+            else
+                cancelJob.run();
+            cancelJob = null;
+        });
+        commands.put("analyze", this::analyze);
+        commands.put("integrate", this::integrate);
+        commands.put("family", this::family);
+        commands.put("animate", this::animate);
+        commands.put("fit", this::fit);
+        commands.put("intersections", this::findIntersections);
+        commands.put("list", args -> {
+            final List<String> groups = args.isEmpty() ?
+                    markers.getGroups() : Collections.singletonList(String.join(" ", args));
+            for (String group : groups) {
+                final List<Point2D.Double> points = markers.get(group);
+                if (points == null)
+                    inputField.postError("There are no markers named '" + group + "'!");
+                else
+                    postResults(group + ": " + points.size() + " point(s)",
+                            points.stream().map(p -> p.y != p.y ? "x = " + p.x : "(" + p.x + ", " + p.y + ")"));
+            }
+        });
+        commands.put("roots", args -> {
+            final DrawableFunction df = getCommandFunction(args, "roots [function]");
+            if (df == null)
+                return;
+            final PureFunction f = df.getFunction();
+            final double from = getValueOfXPixel(0), to = getValueOfXPixel(getWidth() - 1);
+            final double[] samples = df.getSamples(this);
+            final int intervals = 4 * getWidth();
+            final RootFinder finder = new RootFinder(f, ROOT_FINDER_MAX_EVALUATIONS, MAX_MARKERS);
+            startJob(finder::cancel);
+            inputField.postLine("Searching roots of " + f.getName() + " in [" + from + ", " + to + "]...");
+            CompletableFuture.supplyAsync(() -> samples != null ?
+                    finder.find(from, to, samples) : finder.find(from, to, intervals))
+                    .whenComplete((roots, ex) -> SwingUtilities.invokeLater(() -> {
+                        if (ex != null) {
+                            inputField.postException(ex);
+                            return;
+                        }
+                        if (finder.isCancelled()) {
+                            inputField.postError("Search for roots of " + f.getName() + " cancelled.");
+                            return;
+                        }
+                        final List<Point2D.Double> points = new ArrayList<>(roots.length);
+                        for (double root : roots)
+                            points.add(new Point2D.Double(root, 0));
+                        markers.set("roots " + f.getName(), points, df.getForegroundColor());
+                        postResults(f.getName() + " has " + roots.length + " root(s)" +
+                                (finder.isTruncated() ? " (search truncated; there might be more)" : "") + ":",
+                                Arrays.stream(roots).mapToObj(r -> f.getName() + "(" + r + ") = 0"));
+                        repaint();
+                    }));
+        });
+    }
+
+    /**
+     * Analyzes a function in the visible range in the background, lists the results and marks them.
+     */
+    private void analyze(List<String> args) {
+        final DrawableFunction df = getCommandFunction(args, "analyze [function]");
+        if (df == null)
+            return;
+        final PureFunction f = df.getFunction();
+        final String name = f.getName();
+        final double from = getValueOfXPixel(0), to = getValueOfXPixel(getWidth() - 1);
+        final int intervals = getWidth() - 1;
+        final double[] samples = df.getSamples(this);
+        final FunctionAnalyzer analyzer = new FunctionAnalyzer(f, ROOT_FINDER_MAX_EVALUATIONS);
+        startJob(analyzer::cancel);
+        inputField.postLine("Analyzing " + name + " in [" + from + ", " + to + "]...");
+        final long start = System.nanoTime();
+        final AtomicInteger reported = new AtomicInteger(0); // in quarters
+        final DoubleConsumer progress = fraction -> {
+            final int quarter = (int) (fraction * 4), last = reported.get();
+            if (quarter > last && quarter < 4 && System.nanoTime() - start > PROGRESS_DELAY
+                    && reported.compareAndSet(last, quarter))
+                SwingUtilities.invokeLater(() -> inputField.postLine("Analyzing " + name + ": " + 25 * quarter + "%"));
+        };
+        CompletableFuture.supplyAsync(() -> analyzer.analyze(from, to, intervals, samples, progress))
+                .whenComplete((report, ex) -> SwingUtilities.invokeLater(() -> {
+                    if (ex != null) {
+                        inputField.postException(ex);
+                        return;
+                    }
+                    if (analyzer.isCancelled() || report == null) {
+                        inputField.postError("Analysis of " + name + " cancelled.");
+                        return;
+                    }
+                    final Color color = df.getForegroundColor();
+                    final java.util.function.Function<List<double[]>, List<Point2D.Double>> points = l ->
+                            l.stream().map(p -> new Point2D.Double(p[0], p[1])).collect(Collectors.toList());
+                    markers.set("minima " + name, points.apply(report.minima), color);
+                    markers.set("maxima " + name, points.apply(report.maxima), color);
+                    markers.set("inflection points " + name, points.apply(report.inflectionPoints), color);
+                    markers.setVerticalLines("asymptotes " + name, report.asymptotes, color);
+
+                    inputField.postOutput(name + ": " + report.minima.size() + " minima, " + report.maxima.size()
+                            + " maxima, " + report.inflectionPoints.size() + " inflection points, "
+                            + report.asymptotes.size() + " vertical asymptotes"
+                            + (report.truncated ? " (analysis truncated)" : ""));
+                    inputField.postLine("range ≈ [" + report.minimum + ", " + report.maximum + "]"
+                            + (report.asymptotes.isEmpty() ? "" : " (unbounded at the asymptotes)"));
+                    postResults("Details:", Stream.of(
+                            report.minima.stream().map(p -> "minimum: " + name + "(" + p[0] + ") = " + p[1]),
+                            report.maxima.stream().map(p -> "maximum: " + name + "(" + p[0] + ") = " + p[1]),
+                            report.inflectionPoints.stream().map(p -> "inflection point: " + name + "(" + p[0]
+                                    + ") = " + p[1]),
+                            report.asymptotes.stream().map(x -> "vertical asymptote: x = " + x))
+                            .flatMap(java.util.function.Function.identity()));
+                    repaint();
+                }));
+    }
+
+    /**
+     * Draws a family <code>f(x, a)</code> of a function of two arguments for the parameter <code>a</code>
+     * from <code>from</code> to <code>to</code>, removes it (without range) or lists the families (without arguments).
+     */
+    private void family(List<String> args) {
+        if (args.isEmpty()) {
+            postResults(families.getFamilies().size() + " family(s):",
+                    families.getFamilies().stream().map(FunctionFamily::toString));
+            return;
+        }
+        if (args.size() == 1) {
+            if (families.get(args.get(0)) == null) {
+                inputField.postError("There is no family of '" + args.get(0) + "'!");
+                return;
+            }
+            families.remove(args.get(0));
+            repaint();
+            return;
+        }
+        if (args.size() != 3 && args.size() != 4) {
+            inputField.postError("Usage: family <function> <from> <to> [step]");
+            return;
+        }
+        final Function f = compiler.getContext().getFunction(args.get(0));
+        if (f == null || !f.isUserDefined()) {
+            inputField.postError("No function with name '" + args.get(0) + "' found!");
+            return;
+        }
+        final double from = compiler.constantExpression(args.get(1));
+        final double to = compiler.constantExpression(args.get(2));
+        final double step = args.size() == 4 ?
+                compiler.constantExpression(args.get(3)) : (to - from) / (FAMILY_DEFAULT_MEMBERS - 1);
+        final FunctionFamily family = new FunctionFamily(f, from, to, step);
+        families.set(family);
+        inputField.postOutput(family.toString());
+        repaint();
+    }
+
+    /**
+     * Animates a constant (sweeps it from <code>from</code> to <code>to</code> and back or binds it to the time),
+     * stops its animation (without range) or lists the animations (without arguments).
+     */
+    private void animate(List<String> args) {
+        if (args.isEmpty()) {
+            postResults(animator.getAnimations().size() + " animation(s):",
+                    animator.getAnimations().stream().map(Animator.Animation::toString));
+            return;
+        }
+        final String name = args.get(0);
+        if (args.size() == 1) {
+            if (!animator.stop(name)) {
+                inputField.postError("The constant '" + name + "' is not animated!");
+                return;
+            }
+            compiler.stopAnimation(name);
+            return;
+        }
+        final boolean time = args.get(1).equalsIgnoreCase("time");
+        if (time ? args.size() > 3 : args.size() != 3 && args.size() != 4) {
+            inputField.postError("Usage: animate <constant> (<from> <to> [period] | time [speed])");
+            return;
+        }
+        final double first = time ? (args.size() == 3 ? compiler.constantExpression(args.get(2)) : 1.0)
+                : compiler.constantExpression(args.get(1));
+        final double second = time ? Double.NaN : compiler.constantExpression(args.get(2));
+        final double period = !time && args.size() == 4 ?
+                compiler.constantExpression(args.get(3)) : ANIMATION_DEFAULT_PERIOD;
+        final AnimatedConstant constant = compiler.animate(name);
+        final Animator.Animation animation = time ?
+                new Animator.Animation(constant, constant.getValue(), first) :
+                new Animator.Animation(constant, first, second, period);
+        animator.start(animation);
+        inputField.postOutput("Animating " + animation);
+    }
+
+    /**
+     * Draws a frame of the animation of the constants (called by the {@link Animator}).
+     * The components that cache their images are redrawn, as the functions changed. The families evaluate snapshots
+     * of the functions, so they take new ones.
+     */
+    void animationFrame() {
+        families.update(name -> compiler.getContext().getFunction(name));
+        domainColoring.invalidate();
+        repaint();
+    }
+
+    /**
+     * Fits the parameters of a function <code>f(x, a, b, ...)</code> to the points of a file in the background,
+     * marks the points and stores the fitted parameters in constants (named like the parameters or as given).
+     * The current values of the constants are the initial values (or 1 if they are not defined).
+     */
+    private void fit(List<String> args) {
+        if (args.size() < 2) {
+            inputField.postError("Usage: fit <function> <file> [constants...]");
+            return;
+        }
+        final Function f = compiler.getContext().getFunction(args.get(0));
+        if (f == null || !f.isUserDefined()) {
+            inputField.postError("No function with name '" + args.get(0) + "' found!");
+            return;
+        }
+        final CurveFitter fitter = new CurveFitter(f);
+        final List<String> names = args.size() > 2 ? args.subList(2, args.size()) : CurveFitter.getParameterNames(f);
+        if (names.size() != fitter.getNumberOfParameters()) {
+            inputField.postError(f.getName() + " has " + fitter.getNumberOfParameters() + " parameter(s), but "
+                    + names.size() + " constant(s) were given!");
+            return;
+        }
+        final double[] initial = names.stream().mapToDouble(n -> {
+            final Double value = compiler.getContext().getConstant(n);
+            return value == null ? 1.0 : value;
+        }).toArray();
+        final Path file = Paths.get(args.get(1));
+        startJob(fitter::cancel);
+        inputField.postLine("Fitting " + f.getName() + " to " + file.getFileName() + "...");
+        final long start = System.nanoTime();
+        final DataSeries[] data = new DataSeries[1];
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                data[0] = DataSeries.read(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return fitter.fit(data[0], initial, CurveFitter.DEFAULT_MAX_ITERATIONS);
+        }).whenComplete((result, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex != null) {
+                inputField.postException(ex.getCause() != null ? ex.getCause() : ex);
+                return;
+            }
+            if (fitter.isCancelled() || result == null) {
+                inputField.postError("Fit of " + f.getName() + " cancelled.");
+                return;
+            }
+            final DataSeries points = data[0];
+            final int stride = Math.max(1, (points.size() + MAX_MARKERS - 1) / MAX_MARKERS);
+            final List<Point2D.Double> marked = new ArrayList<>();
+            for (int i = 0; i < points.size(); i += stride)
+                marked.add(new Point2D.Double(points.getX(i), points.getY(i)));
+            markers.set("data " + file.getFileName(), marked, null);
+            try {
+                for (int i = 0; i < names.size(); ++i)
+                    compiler.defineConstant(names.get(i), result.parameters[i]);
+            } catch (RuntimeException e) {
+                inputField.postException(e);
+            }
+
+            inputField.postOutput(f.getName() + " fitted to " + points.size() + " points in " + result.iterations
+                    + " iterations (" + (System.nanoTime() - start) / 1_000_000 + "ms)"
+                    + (result.converged ? "" : " (not converged)")
+                    + (points.getSkippedLines() > 0 ? "; " + points.getSkippedLines() + " lines skipped" : ""));
+            for (int i = 0; i < names.size(); ++i)
+                inputField.postLine(names.get(i) + " = " + result.parameters[i] + " ± " + result.errors[i]);
+            inputField.postLine("sum of squared residuals = " + result.sumOfSquares + ", rms = "
+                    + Math.sqrt(result.sumOfSquares / points.size()));
+            repaint();
+        }));
+    }
+
+    /**
+     * Integrates a function in the background and shades the area (if enabled).
+     */
+    private void integrate(List<String> args) {
+        if (args.size() != 3 && args.size() != 4) {
+            inputField.postError("Usage: integrate <function> <from> <to> [tolerance]");
+            return;
+        }
+        final DrawableFunction df = getCommandFunction(args.subList(0, 1), "");
+        if (df == null)
+            return;
+        final double from = compiler.constantExpression(args.get(1));
+        final double to = compiler.constantExpression(args.get(2));
+        final double tolerance = args.size() == 4 ?
+                compiler.constantExpression(args.get(3)) : Integrator.DEFAULT_TOLERANCE;
+        final PureFunction f = df.getFunction();
+        final Integrator.Job job = new Integrator.Job(f, from, to, tolerance);
+        startJob(job::cancel);
+        inputField.postLine("Integrating " + f.getName() + " from " + from + " to " + to + "...");
+        CompletableFuture.supplyAsync(job::run)
+                .whenComplete((result, ex) -> SwingUtilities.invokeLater(() -> {
+                    if (ex != null) {
+                        inputField.postException(ex.getCause() != null ? ex.getCause() : ex);
+                        return;
+                    }
+                    if (job.isCancelled() || result == null) {
+                        inputField.postError("Integration of " + f.getName() + " cancelled.");
+                        return;
+                    }
+                    inputField.postOutput("integrate(" + f.getName() + ", " + from + ", " + to + ") = " + result);
+                    inputField.postLine(result.evaluations + " evaluations");
+                    if (o.functionShadeIntegrals) {
+                        shading.set(f.getName(), from, to);
+                        repaint();
+                    }
+                }));
+    }
+
+    /**
+     * Finds the intersections of the visible functions (or of the given ones) in the visible range
+     * in the background and marks them.
+     */
+    private void findIntersections(List<String> args) {
+        final List<DrawableFunction> selected = new ArrayList<>();
+        for (DrawableFunction df : functions)
+            if (!df.isHidden() && (args.isEmpty()
+                    || args.stream().anyMatch(a -> a.equalsIgnoreCase(df.getFunction().getName()))))
+                selected.add(df);
+        if (selected.size() < 2) {
+            inputField.postError("At least two visible functions are needed!");
+            return;
+        }
+        final List<PureFunction> fs = selected.stream().map(DrawableFunction::getFunction).collect(Collectors.toList());
+        final List<double[]> samples = selected.stream().map(df -> df.getSamples(this)).collect(Collectors.toList());
+        final double from = getValueOfXPixel(0), to = getValueOfXPixel(getWidth() - 1);
+        final int intervals = getWidth() - 1;
+        final IntersectionFinder finder = new IntersectionFinder(fs, ROOT_FINDER_MAX_EVALUATIONS, MAX_MARKERS);
+        startJob(finder::cancel);
+        final int pairs = fs.size() * (fs.size() - 1) / 2;
+        inputField.postLine("Searching intersections of " + fs.size() + " functions (" + pairs + " pairs)...");
+        CompletableFuture.supplyAsync(() -> finder.find(from, to, intervals, samples))
+                .whenComplete((intersections, ex) -> SwingUtilities.invokeLater(() -> {
+                    if (ex != null) {
+                        inputField.postException(ex);
+                        return;
+                    }
+                    if (finder.isCancelled()) {
+                        inputField.postError("Search for intersections cancelled.");
+                        return;
+                    }
+                    markers.set("intersections", intersections.stream()
+                            .map(i -> new Point2D.Double(i.x, i.y)).collect(Collectors.toList()), null);
+                    postResults(intersections.size() + " intersection(s)" + (finder.getSkippedPairs() > 0 ?
+                                    " (" + finder.getSkippedPairs() + " of " + pairs + " pairs skipped)" : "") +
+                                    (finder.isTruncated() ? " (search truncated; there might be more)" : "") + ":",
+                            intersections.stream().map(IntersectionFinder.Intersection::toString));
+                    repaint();
+                }));
+    }
+
+    /**
+     * Cancels the currently running command job (if any) and sets the new one.
+     */
+    private void startJob(Runnable cancel) {
+        if (cancelJob != null)
+            cancelJob.run();
+        cancelJob = cancel;
+    }
+
+    /**
+     * Posts the title and at most {@link #MAX_LISTED_RESULTS} lines to the input field.
+     */
+    private void postResults(String title, Stream<String> lines) {
+        inputField.postOutput(title);
+        final List<String> list = lines.collect(Collectors.toList());
+        list.stream().limit(MAX_LISTED_RESULTS).forEach(inputField::postLine);
+        if (list.size() > MAX_LISTED_RESULTS)
+            inputField.postLine("... and " + (list.size() - MAX_LISTED_RESULTS) + " more");
+    }
+
+    /**
+     * @return the drawn function with the given name (case insensitive) or <code>null</code> if there is none.
+     */
+    DrawableFunction getDrawableFunction(String name) {
+        for (DrawableFunction df : functions)
+            if (df.getFunction().getName().equalsIgnoreCase(name))
+                return df;
+        return null;
+    }
+
+    /**
+     * Gets the function a command refers to: the one named in the first argument or,
+     * if there is no argument, the only one or the one under the mouse cursor.
+     *
+     * @return the function or <code>null</code> if there is none (an error has been posted then).
+     */
+    private DrawableFunction getCommandFunction(List<String> args, String usage) {
+        if (!args.isEmpty()) {
+            final DrawableFunction df = getDrawableFunction(args.get(0));
+            if (df != null)
+                return df;
+            inputField.postError("No function with name '" + args.get(0) + "' found!");
+            return null;
+        }
+        if (functions.size() == 1)
+            return functions.get(0);
+        if (mouse != null)
+            for (int i = functions.size() - 1; i >= 0; --i)
+                if (functions.get(i).intersectsWith(mouse, o.mouseGrabRadius, this))
+                    return functions.get(i);
+        inputField.postError("Usage: " + usage);
+        return null;
+    }
+
     /**
      * Registers following key bindings:<br>
      * <ul>
@@ -490,6 +1108,38 @@ public class FunctionPlotter extends JPanel implements Observer {
                 repaint();
             }
         });
+        input.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, 0), "toggleDeepZoom");
+        action.put("toggleDeepZoom", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (mode == Mode.INPUT) return;
+                deepZoom = !deepZoom;
+                repaint();
+            }
+        });
+        input.put(KeyStroke.getKeyStroke(KeyEvent.VK_W, 0), "domainColoring");
+        action.put("domainColoring", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (mode == Mode.INPUT) return;
+                final String autoInput = domainColoring.getFunction() == null ? null :
+                        domainColoring.getFunction().getName();
+                inputField.read("Domain coloring of function (empty to disable)", autoInput, false, true,
+                        (String f) -> {
+                    f = f.trim();
+                    if (f.isEmpty()) {
+                        domainColoring.setFunction(null);
+                        return;
+                    }
+                    final Function function = compiler.getContext().getFunction(f);
+                    if (function instanceof PureFunction && function.isUserDefined())
+                        domainColoring.setFunction((PureFunction) function);
+                    else
+                        inputField.postError("No function with name '" + f + "' and one argument found!");
+                }, FunctionPlotter.this);
+                repaint();
+            }
+        });
         input.put(KeyStroke.getKeyStroke(KeyEvent.VK_D, 0), "toggleFuncInfo");
         action.put("toggleFuncInfo", new AbstractAction() {
             @Override
@@ -502,6 +1152,7 @@ public class FunctionPlotter extends JPanel implements Observer {
         Consumer<String> addFunctionConstant = s -> {
             try {
                 compiler.definition(s);
+                warnIfExpensive();
             } catch (IllegalArgumentException|IllegalStateException|NullPointerException ex) {
                 inputField.postException(ex);
             }
@@ -571,6 +1222,7 @@ public class FunctionPlotter extends JPanel implements Observer {
                 }
             try {
                 compiler.definition(result.toString());
+                warnIfExpensive();
             } catch (IllegalArgumentException|IllegalStateException|NullPointerException ex) {
                 inputField.postException(ex);
             }
@@ -639,6 +1291,7 @@ public class FunctionPlotter extends JPanel implements Observer {
                 }
             try {
                 compiler.definition(result.toString());
+                warnIfExpensive();
             } catch (IllegalArgumentException|IllegalStateException|NullPointerException ex) {
                 inputField.postException(ex);
             }
@@ -677,6 +1330,30 @@ public class FunctionPlotter extends JPanel implements Observer {
             }
         });
 
+        input.put(KeyStroke.getKeyStroke(KeyEvent.VK_X, 0), "command");
+        action.put("command", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (mode == Mode.INPUT) return;
+                inputField.read("Command (help for a list)", true, false, s -> {
+                    final List<String> args = new ArrayList<>(InputField.getArguments(s));
+                    if (args.isEmpty())
+                        return;
+                    final Consumer<List<String>> command = commands.get(args.remove(0).toLowerCase());
+                    inputField.postInput("> " + s);
+                    if (command == null)
+                        inputField.postError("Unknown command! Type 'help' for a list of commands.");
+                    else
+                        try {
+                            command.accept(args);
+                        } catch (RuntimeException ex) {
+                            inputField.postException(ex);
+                        }
+                }, FunctionPlotter.this);
+                repaint();
+            }
+        });
+
         input.put(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0), "reRender");
         action.put("reRender", new AbstractAction() {
             @Override
@@ -1006,12 +1683,7 @@ public class FunctionPlotter extends JPanel implements Observer {
         this.addMouseWheelListener(e -> {
 
             if (e.isControlDown())
-                if (e.getWheelRotation() < 0)
-                    for (int i = 0; i > e.getWheelRotation(); --i)
-                        zoom(e.getPoint(), -1);
-                else
-                    for (int i = 0; i < e.getWheelRotation(); ++i)
-                        zoom(e.getPoint(), 1);
+                requestZoom(e.getPoint(), e.getWheelRotation());
 
             else if (e.isShiftDown())
                 if (e.getWheelRotation() < 0)
@@ -1096,9 +1768,11 @@ public class FunctionPlotter extends JPanel implements Observer {
 
     @Override
     public void update(Observable o, Object arg) {
+        List<DrawableFunction> previous = new ArrayList<>(functions);
         List<DrawableFunction> moved = functions.stream()
                 .filter(DrawableFunction::isMoved)
                 .collect(Collectors.toList());
+        functions.forEach(DrawableFunction::dispose);
         functions.clear();
         debug.updateFuncConstCount();
         compiler.getContext().getFunctions(true).forEach(f -> {
@@ -1109,12 +1783,21 @@ public class FunctionPlotter extends JPanel implements Observer {
                 else
                     tmp = new Color(this.o.functionColors[functionColors.size() % this.o.functionColors.length]);
                 functionColors.put(f.getName().toLowerCase(), tmp);
+                ((PureFunction) f).setCacheSize(this.o.functionCacheSize);
                 final DrawableFunction tmpDrawable = new DrawableFunction(tmp, (PureFunction) f);
                 final int index = moved.indexOf(tmpDrawable);
                 if (index >= 0) tmpDrawable.setOffset(moved.get(index).getXOffset(), moved.get(index).getYOffset());
+                final int last = previous.indexOf(tmpDrawable);
+                if (last >= 0) tmpDrawable.takeOver(previous.get(last));
                 functions.add(tmpDrawable);
             }
         });
+        families.update(name -> compiler.getContext().getFunction(name));
+        if (domainColoring.getFunction() != null) {
+            // the functions are recreated when something is redefined
+            final Function f = compiler.getContext().getFunction(domainColoring.getFunction().getName());
+            domainColoring.setFunction(f instanceof PureFunction ? (PureFunction) f : null);
+        }
         repaint();
     }
 
@@ -1143,7 +1826,7 @@ public class FunctionPlotter extends JPanel implements Observer {
             if (hidden)
                 return;
 
-            String[] info = {
+            List<String> info = new ArrayList<>(Arrays.asList(
                     "DEBUG INFO:",
                     "program_version        = " + PolyPlot.VERSION,
                     "mode                   = " + mode,
@@ -1156,6 +1839,15 @@ public class FunctionPlotter extends JPanel implements Observer {
                     "value_per_x_pixel      = " + getValueXPerPixel(),
                     "value_per_y_pixel      = " + getValueYPerPixel(),
                     "function_render_method = " + DrawableFunction.DRAWING_METHOD,
+                    "function_sampling      = " + getSamplingStatus(),
+                    "function_render_times  = " + getRenderTimes(),
+                    "function_tiles         = " + functionRenderer.getTileCache().getStatus(),
+                    "deep_zoom              = " + (deepZoom ? isDeepZoomActive() ? "active" : "enabled" : "disabled"),
+                    "domain_coloring        = " + domainColoring.getStatus(),
+                    "animation              = " + (!animator.isRunning() ? "" : String.format("%.1f fps "
+                            + "(max %d, %d dropped)", animator.getFps(), o.animationMaxFps,
+                            animator.getDroppedFrames())),
+                    "evaluation_cache       = " + getCacheStatistics(),
                     "defined_functions      = " + functions + " (" + functionsUser + ")",
                     "defined_constants      = " + constants + " (" + constantsUser + ")",
                     "grabbed_function       = " + (grabbedFunction == null ? "" :
@@ -1167,7 +1859,15 @@ public class FunctionPlotter extends JPanel implements Observer {
                     "resolution             = " + getWidth()+"x"+getHeight(),
                     "theme                  = " + o.theme,
                     "render_time            = " + renderTime + "ns",
-            };
+                    "function_costs         = " + compiler.getContext().getFunctions(true).stream()
+                            .sorted(Comparator.comparingDouble(Function::getCost).reversed())
+                            .limit(3)
+                            .map(f -> f.getName() + ": " + Math.round(f.getCost()))
+                            .collect(Collectors.joining(", ")),
+                    "profiler               = " + (Profiler.isEnabled() ? "enabled" : "disabled")
+            ));
+            for (String line : Profiler.summary(5))
+                info.add("    " + line);
             Font f = gc.getFont();
             gc.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
 
@@ -1196,6 +1896,32 @@ public class FunctionPlotter extends JPanel implements Observer {
             gc.setFont(f);
         }
 
+        /**
+         * @return the hit rates of the evaluation caches of all drawn functions.
+         */
+        private String getCacheStatistics() {
+            long hits = 0, lookups = 0, renderHits = 0, renderLookups = 0;
+            boolean cached = false;
+            for (DrawableFunction df : FunctionPlotter.this.functions) {
+                final EvaluationCache c = df.getFunction().getCache(), rc = df.getRenderCache();
+                if (c != null) {
+                    cached = true;
+                    hits += c.getHits();
+                    lookups += c.getHits() + c.getMisses();
+                }
+                if (rc != null) {
+                    cached = true;
+                    renderHits += rc.getHits();
+                    renderLookups += rc.getHits() + rc.getMisses();
+                }
+            }
+            if (!cached)
+                return "disabled";
+            return String.format("%.1f%% of %d (exact), %.1f%% of %d (rendering)",
+                    lookups == 0 ? 0.0 : 100.0 * hits / lookups, lookups,
+                    renderLookups == 0 ? 0.0 : 100.0 * renderHits / renderLookups, renderLookups);
+        }
+
         void updateFuncConstCount() {
             CompilationContext context = compiler.getContext();
 
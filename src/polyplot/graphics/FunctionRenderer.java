@@ -0,0 +1,276 @@
+package polyplot.graphics;
+
+import javax.swing.SwingUtilities;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Samples the {@link DrawableFunction}s of the {@link FunctionPlotter} in parallel.<br>
+ * All functions whose images are outdated when a frame is painted form a batch. The functions of a batch are
+ * rendered on a fork/join pool (every function has its own curves, so they do not depend on each other), but the
+ * new images are only shown when all functions of the batch finished the same pass (first the coarse pass, then the
+ * complete one). So the functions are always composited in their z-order from curves of the same view and do not
+ * move one after another while panning.<br>
+ * The functions only keep the points of their curves. The curves of all functions are drawn into one shared image,
+ * which is reused as long as no curve changed (see {@link #composite(Graphics, List, int, int)}), so the memory does
+ * not grow with the number of functions and an unchanged frame only needs one image to be drawn. Lines and points
+ * are drawn directly into the pixels of the shared image by a {@link Rasterizer}.
+ *
+ * @author 5hir0kur0
+ */
+class FunctionRenderer {
+
+    static final int PASSES = 2; // the coarse and the complete pass
+
+    private final static Color TRANSPARENT = new Color(0, true);
+    private final static double MAX_SHIFT_ERROR = 1e-3; // [pixels] the shared image is only moved by whole pixels
+
+    /**
+     * A request to render something in the background as part of a batch (the curve of a function, see
+     * {@link DrawableFunction}, or the families, see {@link FunctionFamilies}).
+     */
+    abstract static class Job {
+        Batch batch;
+        int reported; // the number of passes that were reported to the batch
+
+        /**
+         * Starts the job on the pool. It has to report every pass to the batch (see {@link Batch#finished}).
+         */
+        abstract void schedule(Executor pool);
+
+        /**
+         * @return the estimated cost of one evaluation of all curves of the job (see
+         * {@link polyplot.math.Function#getCost()}).
+         */
+        abstract double getCost();
+
+        /**
+         * Shows the result of the job (called when all jobs of its batch finished a pass).
+         */
+        abstract void promote();
+    }
+
+    /**
+     * The functions that are rendered for the same frame.
+     */
+    final class Batch {
+        private final List<Job> jobs = new ArrayList<>();
+        private final AtomicInteger[] remaining = new AtomicInteger[PASSES];
+        private long start;
+
+        /**
+         * Called when a job finished a pass, skipped it or was cancelled. A job has to report every pass exactly
+         * once, so the passes up to <code>pass</code> that it did not report yet are reported now.
+         */
+        void finished(Job job, int pass) {
+            for (int p = job.reported; p <= pass; ++p)
+                if (remaining[p].decrementAndGet() == 0)
+                    release(p);
+            job.reported = Math.max(job.reported, pass + 1);
+        }
+
+        /**
+         * Shows the images of all functions of the batch at once.
+         */
+        private void release(int pass) {
+            for (Job job : jobs)
+                job.promote();
+            if (pass == PASSES - 1) {
+                frameTime = System.nanoTime() - start;
+                completed();
+            }
+            parent.repaint();
+        }
+    }
+
+    private final FunctionPlotter parent;
+    private final ForkJoinPool pool;
+    private final TileCache tiles;
+    private Batch batch; // collects the requests while a frame is painted (only accessed by the EDT)
+    private volatile long frameTime; // of the last complete batch [ns]
+
+    // the number of started batches whose complete pass was not shown yet and the actions that wait until there are
+    // none (guarded by the list)
+    private int outstanding;
+    private final List<Runnable> idle = new ArrayList<>();
+
+    // the shared image and the curves it shows (only accessed by the event dispatch thread)
+    private BufferedImage surface;
+    private Rasterizer rasterizer; // draws into the shared image
+    private final List<DrawableFunction.Placement> composited = new ArrayList<>();
+    private long compositeTime; // of the last time the shared image was drawn [ns]
+
+    /**
+     * @param threads
+     *      the number of threads the functions are sampled on.
+     * @param tileCacheSize
+     *      the maximum memory used for caching sampled tiles in bytes (see {@link TileCache}).
+     */
+    FunctionRenderer(FunctionPlotter parent, int threads, long tileCacheSize) {
+        this.parent = parent;
+        this.pool = new ForkJoinPool(Math.max(1, threads)); // the worker threads are daemon threads
+        this.tiles = new TileCache(tileCacheSize);
+    }
+
+    /**
+     * Adds a job to the batch of the current frame. It is started by {@link #submit()}.
+     */
+    void request(Job job) {
+        if (batch == null)
+            batch = new Batch();
+        batch.jobs.add(job);
+        job.batch = batch;
+    }
+
+    /**
+     * Starts the jobs of the current frame (called after all functions were drawn).
+     */
+    void submit() {
+        final Batch b = batch;
+        batch = null;
+        if (b == null)
+            return;
+        for (int p = 0; p < PASSES; ++p)
+            b.remaining[p] = new AtomicInteger(b.jobs.size());
+        b.start = System.nanoTime();
+        synchronized (idle) {
+            ++outstanding;
+        }
+        // the cheap jobs are started first, so their curves are not delayed by expensive ones if there are more jobs
+        // than threads
+        b.jobs.sort(Comparator.comparingDouble(Job::getCost));
+        for (Job job : b.jobs)
+            job.schedule(pool);
+    }
+
+    /**
+     * Runs an action on the event dispatch thread as soon as all started batches are complete (immediately if there
+     * are none), e.g. to wait with the next frame of an animation until the current one is shown.
+     */
+    void whenIdle(Runnable action) {
+        synchronized (idle) {
+            if (outstanding > 0) {
+                idle.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * Called when the complete pass of a batch was shown.
+     */
+    private void completed() {
+        final List<Runnable> actions;
+        synchronized (idle) {
+            if (--outstanding > 0 || idle.isEmpty())
+                return;
+            actions = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (Runnable action : actions)
+            SwingUtilities.invokeLater(action);
+    }
+
+    /**
+     * Draws the curves of the functions in the given order (after {@link DrawableFunction#draw} was called for the
+     * current frame). The shared image is only drawn again if a curve changed; if all curves were moved by the same
+     * number of whole pixels (e.g. while the view is moved and the new curves are not finished yet), it is moved.
+     */
+    void composite(Graphics g, List<DrawableFunction> functions, int width, int height) {
+        final List<DrawableFunction.Placement> placements = new ArrayList<>(functions.size());
+        for (DrawableFunction f : functions) {
+            final DrawableFunction.Placement placement = f.getPlacement();
+            if (placement != null)
+                placements.add(placement);
+        }
+        if (placements.isEmpty() || width <= 0 || height <= 0) {
+            composited.clear();
+            return;
+        }
+        Point shift = surface != null && surface.getWidth() == width && surface.getHeight() == height
+                ? getShift(placements) : null;
+        if (shift == null) {
+            final long start = System.nanoTime();
+            if (surface == null || surface.getWidth() != width || surface.getHeight() != height) {
+                surface = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+                rasterizer = new Rasterizer(surface);
+            }
+            final Graphics2D sg = surface.createGraphics();
+            try {
+                sg.setBackground(TRANSPARENT);
+                sg.clearRect(0, 0, width, height);
+                sg.setRenderingHints(FunctionPlotter.RENDERING_HINTS);
+                for (DrawableFunction.Placement placement : placements)
+                    placement.function.drawCurve(sg, rasterizer);
+            } finally {
+                sg.dispose();
+            }
+            composited.clear();
+            composited.addAll(placements);
+            shift = new Point();
+            compositeTime = System.nanoTime() - start;
+        }
+        g.drawImage(surface, shift.x, shift.y, null);
+        for (DrawableFunction.Placement placement : placements)
+            placement.function.drawError(g);
+    }
+
+    /**
+     * @return the number of pixels the shared image has to be moved to show the curves or <code>null</code> if it
+     * has to be drawn again.
+     */
+    private Point getShift(List<DrawableFunction.Placement> placements) {
+        if (placements.size() != composited.size())
+            return null;
+        double dx = 0, dy = 0;
+        for (int i = 0; i < placements.size(); ++i) {
+            final DrawableFunction.Placement a = composited.get(i), b = placements.get(i);
+            if (a.function != b.function || a.serial != b.serial
+                    || a.transform.getScaleX() != b.transform.getScaleX()
+                    || a.transform.getScaleY() != b.transform.getScaleY())
+                return null;
+            final double x = b.transform.getTranslateX() - a.transform.getTranslateX();
+            final double y = b.transform.getTranslateY() - a.transform.getTranslateY();
+            if (i == 0) {
+                dx = x;
+                dy = y;
+            } else if (Math.abs(x - dx) > MAX_SHIFT_ERROR || Math.abs(y - dy) > MAX_SHIFT_ERROR)
+                return null;
+        }
+        if (Math.abs(dx - Math.rint(dx)) > MAX_SHIFT_ERROR || Math.abs(dy - Math.rint(dy)) > MAX_SHIFT_ERROR)
+            return null;
+        return new Point((int) Math.rint(dx), (int) Math.rint(dy));
+    }
+
+    TileCache getTileCache() {
+        return tiles;
+    }
+
+    int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * @return the time from starting the last batch until all of its functions were complete.
+     */
+    long getFrameTime() {
+        return frameTime;
+    }
+
+    /**
+     * @return the time it took to draw the shared image the last time.
+     */
+    long getCompositeTime() {
+        return compositeTime;
+    }
+}
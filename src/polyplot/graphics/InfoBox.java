@@ -1,5 +1,6 @@
 package polyplot.graphics;
 
+import polyplot.math.DoubleDouble;
 import polyplot.math.PureFunction;
 
 import java.awt.Color;
@@ -46,8 +47,11 @@ public class InfoBox extends DrawableComponent {
         if (mouse == null || mouse.x < 0 || mouse.y < 0)
             return;
 
-        BigDecimal xV = BigDecimal.valueOf(parent.getValueOfXPixel(mouse.x)).setScale(-parent.getPower() + 3, RoundingMode.HALF_UP);
-        BigDecimal yV = BigDecimal.valueOf(parent.getValueOfYPixel(mouse.y)).setScale(-parent.getPower() + 3, RoundingMode.HALF_UP);
+        final DoubleDouble exactX = new DoubleDouble(), exactY = new DoubleDouble();
+        parent.getValueOfXPixel(mouse.x, exactX);
+        parent.getValueOfYPixel(mouse.y, exactY);
+        BigDecimal xV = exactX.bigDecimalValue().setScale(-parent.getPower() + 3, RoundingMode.HALF_UP);
+        BigDecimal yV = exactY.bigDecimalValue().setScale(-parent.getPower() + 3, RoundingMode.HALF_UP);
 
         String xString = "X: " + xV.toEngineeringString() + (showPixel ? " (" + mouse.x + ")" : "");
         String yString = "Y: " + yV.toEngineeringString() + (showPixel ? " (" + mouse.y + ")" : "");
@@ -135,14 +139,19 @@ public class InfoBox extends DrawableComponent {
     }
 
     private String getFunctionString(PureFunction f, int xPos, FunctionPlotter parent) {
-        double val = f.of(parent.getValueOfXPixel(xPos));
+        final DoubleDouble x = new DoubleDouble(), val = new DoubleDouble();
+        parent.getValueOfXPixel(xPos, x);
+        if (parent.isDeepZoomActive())
+            f.deepOf(x, val);
+        else
+            val.set(f.cachedOf(parent.getValueOfXPixel(xPos))); // same argument as DrawableFunction.intersectsWith()
         String calc =
                 // Special cases
-                Double.isNaN(val) ? "Undefined" :
-                        Double.POSITIVE_INFINITY == val ? "∞" : Double.NEGATIVE_INFINITY == val ? "-∞" :
+                val.isNaN() ? "Undefined" :
+                        Double.POSITIVE_INFINITY == val.getHi() ? "∞" : Double.NEGATIVE_INFINITY == val.getHi() ? "-∞" :
                                 // else use rounded value
-                                BigDecimal.valueOf(val).setScale(-parent.getPower() + 3, RoundingMode.HALF_UP).toEngineeringString();
-        BigDecimal xVal = BigDecimal.valueOf(parent.getValueOfXPixel(xPos))
+                                val.bigDecimalValue().setScale(-parent.getPower() + 3, RoundingMode.HALF_UP).toEngineeringString();
+        BigDecimal xVal = x.bigDecimalValue()
                 .setScale(-parent.getPower() + 3, RoundingMode.HALF_UP);
         return f.getName() + "(" + xVal + ") = " + calc;
     }
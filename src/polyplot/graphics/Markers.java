@@ -0,0 +1,134 @@
+package polyplot.graphics;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A component that marks points (e.g. roots of functions) on the coordinate system.<br>
+ * The points are given in values, not in pixels, and are organized in named groups,
+ * so the results of a command can be replaced or removed at once.
+ *
+ * @author Polymehr
+ */
+public class Markers extends DrawableComponent {
+
+    private static final int RADIUS = 4;
+
+    private final Map<String, Group> groups;
+
+    private static class Group {
+        final List<Point2D.Double> points;
+        final Color color;
+        final boolean vertical; // draw vertical lines at the x values instead of points
+
+        Group(List<Point2D.Double> points, Color color, boolean vertical) {
+            this.points = points;
+            this.color = color;
+            this.vertical = vertical;
+        }
+    }
+
+    Markers(Color foreground, boolean hidden) {
+        super(foreground, hidden);
+        groups = new LinkedHashMap<>();
+    }
+
+    /**
+     * Sets the points of a group. An existing group with the same name will be replaced.
+     *
+     * @param name
+     *      the name of the group.
+     * @param points
+     *      the points (values).
+     * @param color
+     *      the color of the markers or <code>null</code> for the default color.
+     */
+    void set(String name, List<Point2D.Double> points, Color color) {
+        groups.put(Objects.requireNonNull(name),
+                new Group(new ArrayList<>(points), color == null ? foreground : color, false));
+    }
+
+    /**
+     * Sets a group of vertical lines (e.g. asymptotes). An existing group with the same name will be replaced.
+     *
+     * @param name
+     *      the name of the group.
+     * @param xs
+     *      the x values of the lines.
+     * @param color
+     *      the color of the lines or <code>null</code> for the default color.
+     */
+    void setVerticalLines(String name, List<Double> xs, Color color) {
+        final List<Point2D.Double> points = new ArrayList<>(xs.size());
+        for (double x : xs)
+            points.add(new Point2D.Double(x, Double.NaN));
+        groups.put(Objects.requireNonNull(name), new Group(points, color == null ? foreground : color, true));
+    }
+
+    /**
+     * @return the names of the groups in the order they were added.
+     */
+    List<String> getGroups() {
+        return new ArrayList<>(groups.keySet());
+    }
+
+    /**
+     * @return the points of a group or <code>null</code> if there is no group with the given name.
+     */
+    List<Point2D.Double> get(String name) {
+        final Group g = groups.get(name);
+        return g == null ? null : Collections.unmodifiableList(g.points);
+    }
+
+    void remove(String name) {
+        groups.remove(name);
+    }
+
+    void clear() {
+        groups.clear();
+    }
+
+    /**
+     * @return the number of marked points.
+     */
+    int size() {
+        return groups.values().stream().mapToInt(g -> g.points.size()).sum();
+    }
+
+    @Override
+    public void draw(Graphics gc, FunctionPlotter parent) {
+        if (hidden)
+            return;
+        final int width = parent.getWidth(), height = parent.getHeight();
+        for (Group g : groups.values()) {
+            gc.setColor(g.color);
+            if (g.vertical) {
+                for (Point2D.Double p : g.points) {
+                    final int x = parent.getPixelToXValue(p.x) + 1;
+                    if (x < 0 || x > width)
+                        continue;
+                    for (int y = 0; y < height; y += 2 * RADIUS) // dashed
+                        gc.drawLine(x, y, x, y + RADIUS - 1);
+                }
+                continue;
+            }
+            for (Point2D.Double p : g.points) {
+                if (p.y != p.y || Double.isInfinite(p.y))
+                    continue;
+                final int x = parent.getPixelToXValue(p.x) + 1;
+                final int y = parent.getPixelToYValue(p.y);
+                if (x < -RADIUS || y < -RADIUS || x > width + RADIUS || y > height + RADIUS)
+                    continue;
+                gc.drawOval(x - RADIUS, y - RADIUS, 2 * RADIUS, 2 * RADIUS);
+                gc.drawLine(x, y, x, y);
+            }
+        }
+    }
+}
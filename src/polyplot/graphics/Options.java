@@ -37,8 +37,35 @@ public enum Options {
     private static final String FUNCTION_GRAB_RADIUS_DEFAULT = "20";
     private static final String FUNCTION_RENDERING = "graphics.functions.rendering-method";
     private static final String FUNCTION_RENDERING_DEFAULT = "LINES";
+    private static final String FUNCTION_CACHE_SIZE = "graphics.functions.cache-size";
+    private static final String FUNCTION_CACHE_SIZE_DEFAULT = "1024";
+    private static final String FUNCTION_CACHE_QUANTIZED = "graphics.functions.cache-quantized";
+    private static final String FUNCTION_CACHE_QUANTIZED_DEFAULT = "false";
+    private static final String FUNCTION_SHADE_INTEGRALS = "graphics.functions.shade-integrals";
+    private static final String FUNCTION_SHADE_INTEGRALS_DEFAULT = "true";
+    private static final String FUNCTION_ADAPTIVE = "graphics.functions.adaptive-sampling";
+    private static final String FUNCTION_ADAPTIVE_DEFAULT = "true";
+    private static final String FUNCTION_TOLERANCE = "graphics.functions.sample-tolerance";
+    private static final String FUNCTION_TOLERANCE_DEFAULT = "0.25";
+    private static final String FUNCTION_BUDGET = "graphics.functions.sample-budget";
+    private static final String FUNCTION_BUDGET_DEFAULT = "4";
+    private static final String FUNCTION_THREADS = "graphics.functions.render-threads";
+    private static final String FUNCTION_THREADS_DEFAULT = "0";
+    private static final String FUNCTION_TILE_CACHE = "graphics.functions.tile-cache-size";
+    private static final String FUNCTION_TILE_CACHE_DEFAULT = "64";
     Integer[] functionColors;
     int mouseGrabRadius;
+    int functionCacheSize;
+    boolean functionCacheQuantized;
+    boolean functionShadeIntegrals;
+    boolean functionAdaptiveSampling;
+    double functionSampleTolerance;
+    double functionSampleBudget;
+    int functionRenderThreads;
+    long functionTileCacheSize; // [MiB]
+    private static final String ANIMATION_MAX_FPS = "graphics.animation.max-fps";
+    private static final String ANIMATION_MAX_FPS_DEFAULT = "60";
+    int animationMaxFps;
     DrawableFunction.DrawingMethod functionsPointRendering;
 
     private static final String BOX_FG = "graphics.info-box.foreground";
@@ -107,6 +134,10 @@ public enum Options {
     private static final String SCALE_STRETCH_DEFAULT = "false";
     boolean scaleStretch;
 
+    private static final String DEEP_ZOOM = "graphics.deep-zoom";
+    private static final String DEEP_ZOOM_DEFAULT = "false";
+    boolean deepZoom;
+
     private static final String ZOOM_BASE = "graphics.zoom-base";
     private static final String ZOOM_BASE_DEFAULT = "1.05";
     double zoomBase;
@@ -131,6 +162,15 @@ public enum Options {
         defaults.put(FUNCTION_COLORS, FUNCTION_COLORS_DEFAULT);
         defaults.put(FUNCTION_RENDERING, FUNCTION_RENDERING_DEFAULT);
         defaults.put(FUNCTION_GRAB_RADIUS, FUNCTION_GRAB_RADIUS_DEFAULT);
+        defaults.put(FUNCTION_CACHE_SIZE, FUNCTION_CACHE_SIZE_DEFAULT);
+        defaults.put(FUNCTION_CACHE_QUANTIZED, FUNCTION_CACHE_QUANTIZED_DEFAULT);
+        defaults.put(FUNCTION_SHADE_INTEGRALS, FUNCTION_SHADE_INTEGRALS_DEFAULT);
+        defaults.put(FUNCTION_ADAPTIVE, FUNCTION_ADAPTIVE_DEFAULT);
+        defaults.put(FUNCTION_TOLERANCE, FUNCTION_TOLERANCE_DEFAULT);
+        defaults.put(FUNCTION_BUDGET, FUNCTION_BUDGET_DEFAULT);
+        defaults.put(FUNCTION_THREADS, FUNCTION_THREADS_DEFAULT);
+        defaults.put(FUNCTION_TILE_CACHE, FUNCTION_TILE_CACHE_DEFAULT);
+        defaults.put(ANIMATION_MAX_FPS, ANIMATION_MAX_FPS_DEFAULT);
 
         defaults.put(BOX_BG, BOX_BG_DEFAULT);
         defaults.put(BOX_FG, BOX_FG_DEFAULT);
@@ -158,6 +198,7 @@ public enum Options {
         defaults.put(DEBUG_FG, DEBUG_FG_DEFAULT);
 
         defaults.put(ZOOM_BASE, ZOOM_BASE_DEFAULT);
+        defaults.put(DEEP_ZOOM, DEEP_ZOOM_DEFAULT);
         defaults.put(SPAN, SPAN_DEFAULT);
 
         defaults.put(THEME, THEME_DEFAULT);
@@ -379,6 +420,7 @@ public enum Options {
             this.zoomBase = getDoubleValue(ZOOM_BASE, d -> d == d && d > 0 && d != Double.POSITIVE_INFINITY);
             this.span = getDoubleValue(SPAN, d -> d == d && d > 0 && d != Double.POSITIVE_INFINITY);
             this.scaleStretch = getBoolValue(SCALE_STRETCH);
+            this.deepZoom = getBoolValue(DEEP_ZOOM);
 
             this.infoBoxFunctionRadius = getIntValue(BOX_RADIUS, i -> i >= -1);
             this.infoBoxDocked = getBoolValue(BOX_DOCKED);
@@ -395,6 +437,15 @@ public enum Options {
                 this.functionsPointRendering = DrawableFunction.DrawingMethod.valueOf(FUNCTION_RENDERING_DEFAULT);
             }
             this.mouseGrabRadius = getIntValue(FUNCTION_GRAB_RADIUS, i -> i > 0);
+            this.functionCacheSize = getIntValue(FUNCTION_CACHE_SIZE, i -> i >= 0 && i <= 1 << 20);
+            this.functionCacheQuantized = getBoolValue(FUNCTION_CACHE_QUANTIZED);
+            this.functionShadeIntegrals = getBoolValue(FUNCTION_SHADE_INTEGRALS);
+            this.functionAdaptiveSampling = getBoolValue(FUNCTION_ADAPTIVE);
+            this.functionSampleTolerance = getDoubleValue(FUNCTION_TOLERANCE, d -> d > 0 && d <= 100);
+            this.functionSampleBudget = getDoubleValue(FUNCTION_BUDGET, d -> d >= 1 && d <= 1000);
+            this.functionRenderThreads = getIntValue(FUNCTION_THREADS, i -> i >= 0 && i <= 256);
+            this.functionTileCacheSize = getIntValue(FUNCTION_TILE_CACHE, i -> i >= 0 && i <= 1 << 16);
+            this.animationMaxFps = getIntValue(ANIMATION_MAX_FPS, i -> i > 0 && i <= 1000);
 
         } else {
             // Prevent the loading of non-theme options set in theme files on reload.
@@ -402,6 +453,15 @@ public enum Options {
             options.put(SCALE_STRETCH, SCALE_STRETCH_DEFAULT);
             options.put(FUNCTION_RENDERING, FUNCTION_RENDERING_DEFAULT);
             options.put(FUNCTION_GRAB_RADIUS, FUNCTION_GRAB_RADIUS_DEFAULT);
+            options.put(FUNCTION_CACHE_SIZE, FUNCTION_CACHE_SIZE_DEFAULT);
+            options.put(FUNCTION_CACHE_QUANTIZED, FUNCTION_CACHE_QUANTIZED_DEFAULT);
+            options.put(FUNCTION_SHADE_INTEGRALS, FUNCTION_SHADE_INTEGRALS_DEFAULT);
+            options.put(FUNCTION_ADAPTIVE, FUNCTION_ADAPTIVE_DEFAULT);
+            options.put(FUNCTION_TOLERANCE, FUNCTION_TOLERANCE_DEFAULT);
+            options.put(FUNCTION_BUDGET, FUNCTION_BUDGET_DEFAULT);
+            options.put(FUNCTION_THREADS, FUNCTION_THREADS_DEFAULT);
+            options.put(FUNCTION_TILE_CACHE, FUNCTION_TILE_CACHE_DEFAULT);
+            options.put(ANIMATION_MAX_FPS, ANIMATION_MAX_FPS_DEFAULT);
             options.put(BOX_DOCKED, BOX_DOCKED_DEFAULT);
             options.put(BOX_PIXELS, BOX_PIXELS_DEFAULT);
             options.put(BOX_RADIUS, BOX_RADIUS_DEFAULT);
@@ -409,6 +469,7 @@ public enum Options {
             options.put(OV_SHOW_HIDDEN, OV_SHOW_HIDDEN_DEFAULT);
             options.put(OV_HIDE, OV_HIDE_DEFAULT);
             options.put(ZOOM_BASE, ZOOM_BASE_DEFAULT);
+            options.put(DEEP_ZOOM, DEEP_ZOOM_DEFAULT);
             options.put(SPAN, SPAN_DEFAULT);
             options.put(THEME, THEME_DEFAULT);
         }
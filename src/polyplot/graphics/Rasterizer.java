@@ -0,0 +1,172 @@
+package polyplot.graphics;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Draws antialiased lines, points and spans of the curves directly into the pixels of an image, instead of passing
+ * every line through the Java2D pipeline. The results look like the ones of {@link java.awt.Graphics2D#drawLine} and
+ * {@link java.awt.Graphics2D#drawRect} with {@link FunctionPlotter#RENDERING_HINTS} (a line of width 1 between the
+ * centers of the pixels with square caps).<br>
+ * The coverage of the pixels is computed span by span: For a flat line, the line covers a vertical span of
+ * <code>sqrt(1 + slope^2)</code> pixels in every column, which moves linearly through the column, so the area of the
+ * pixels it covers can be integrated exactly (steep lines are drawn row by row).
+ *
+ * @author 5hir0kur0
+ */
+final class Rasterizer {
+
+    private final int[] pixels;
+    private final int width, height;
+    private int red, green, blue, alpha;
+    private int opaque; // the premultiplied color of a completely covered pixel
+
+    /**
+     * @param image
+     *      the image to draw into; has to be of type {@link BufferedImage#TYPE_INT_ARGB_PRE}.
+     */
+    Rasterizer(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB_PRE)
+            throw new IllegalArgumentException("unsupported image type: " + image.getType());
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+    }
+
+    void setColor(Color color) {
+        this.red = color.getRed();
+        this.green = color.getGreen();
+        this.blue = color.getBlue();
+        this.alpha = color.getAlpha();
+        this.opaque = this.alpha << 24 | div255(this.red * this.alpha) << 16 | div255(this.green * this.alpha) << 8
+                | div255(this.blue * this.alpha);
+    }
+
+    /**
+     * Draws a point like <code>drawRect(x, y, 1, 1)</code> (a block of 2x2 pixels).
+     */
+    void drawPoint(int x, int y) {
+        for (int row = Math.max(0, y), bottom = Math.min(height - 1, y + 1); row <= bottom; ++row)
+            for (int column = Math.max(0, x), right = Math.min(width - 1, x + 1); column <= right; ++column)
+                blend(column, row, 1);
+    }
+
+    /**
+     * Fills the (fractional) rows from <code>top</code> to <code>bottom</code> of a pixel column; the pixels at the
+     * ends are only covered partially.
+     */
+    void fillSpan(int x, double top, double bottom) {
+        if (x < 0 || x >= width || !(bottom > top))
+            return;
+        for (int y = Math.max(0, (int) Math.floor(top)), last = Math.min(height - 1, (int) Math.ceil(bottom) - 1);
+             y <= last; ++y)
+            blend(x, y, Math.min(y + 1, bottom) - Math.max(y, top));
+    }
+
+    /**
+     * Draws an antialiased line between the centers of two pixels.
+     */
+    void drawLine(int x0, int y0, int x1, int y1) {
+        if (Math.abs(y1 - y0) <= Math.abs(x1 - x0))
+            drawSpans(x0, y0, x1, y1, false);
+        else
+            drawSpans(y0, x0, y1, x1, true);
+    }
+
+    /**
+     * Draws a line along its major axis <code>u</code>: For every pixel column (or row if the line is transposed),
+     * the span of the line in the minor axis <code>v</code> is drawn.
+     */
+    private void drawSpans(int u0, int v0, int u1, int v1, boolean transposed) {
+        if (u1 < u0) {
+            int tmp = u0;
+            u0 = u1;
+            u1 = tmp;
+            tmp = v0;
+            v0 = v1;
+            v1 = tmp;
+        }
+        final double slope = u1 == u0 ? 0 : (double) (v1 - v0) / (u1 - u0);
+        final double length = Math.sqrt(1 + slope * slope); // the span of the line in the minor axis
+        final double half = length / 2, cap = 0.5 / length; // the square caps in the major axis
+        final double start = u0 + 0.5 - cap, end = u1 + 0.5 + cap;
+        final int uLimit = transposed ? height : width, vLimit = transposed ? width : height;
+        for (int u = Math.max(0, (int) Math.floor(start)), last = Math.min(uLimit - 1, (int) Math.floor(end));
+             u <= last; ++u) {
+            final double a = Math.max(u, start), b = Math.min(u + 1, end);
+            if (b <= a)
+                continue;
+            // the center of the span at the borders of the part of the column that is covered
+            final double centerA = v0 + 0.5 + slope * (a - u0 - 0.5), centerB = v0 + 0.5 + slope * (b - u0 - 0.5);
+            for (int v = Math.max(0, (int) Math.floor(Math.min(centerA, centerB) - half)),
+                 bottom = Math.min(vLimit - 1, (int) Math.floor(Math.max(centerA, centerB) + half)); v <= bottom; ++v) {
+                final double coverage = slope == 0 ? (b - a) * overlap(centerA - v + half, half)
+                        : (area(centerB - v + half, half) - area(centerA - v + half, half)) / slope;
+                if (transposed)
+                    blend(v, u, coverage);
+                else
+                    blend(u, v, coverage);
+            }
+        }
+    }
+
+    /**
+     * @param s
+     *      the position of the center of the span relative to the position where it starts to overlap the pixel.
+     * @param half
+     *      half of the length of the span (at least <code>0.5</code>).
+     * @return the length of the part of the span that overlaps the pixel.
+     */
+    private static double overlap(double s, double half) {
+        final double w = 2 * half;
+        if (s <= 0 || s >= w + 1)
+            return 0;
+        return s < 1 ? s : s <= w ? 1 : w + 1 - s;
+    }
+
+    /**
+     * @return the integral of {@link #overlap(double, double)} from <code>0</code> to <code>s</code>.
+     */
+    private static double area(double s, double half) {
+        final double w = 2 * half;
+        if (s <= 0)
+            return 0;
+        if (s <= 1)
+            return s * s / 2;
+        if (s <= w)
+            return s - 0.5;
+        if (s <= w + 1) {
+            final double t = s - w;
+            return w - 0.5 + t - t * t / 2;
+        }
+        return w;
+    }
+
+    /**
+     * Draws the color over a pixel (source over destination with premultiplied alpha).
+     */
+    private void blend(int x, int y, double coverage) {
+        final int a = Math.min(alpha, (int) (coverage * alpha + 0.5));
+        if (a <= 0)
+            return;
+        final int i = y * width + x;
+        if (a == 255) {
+            pixels[i] = opaque;
+            return;
+        }
+        final int dst = pixels[i], inverse = 255 - a;
+        pixels[i] = (a + div255((dst >>> 24) * inverse)) << 24
+                | div255(red * a + ((dst >> 16) & 0xFF) * inverse) << 16
+                | div255(green * a + ((dst >> 8) & 0xFF) * inverse) << 8
+                | div255(blue * a + (dst & 0xFF) * inverse);
+    }
+
+    /**
+     * @return <code>v / 255</code> rounded to the nearest integer (for <code>0 <= v <= 255 * 255</code>).
+     */
+    private static int div255(int v) {
+        v += 128;
+        return (v + (v >> 8)) >> 8;
+    }
+}
@@ -1,5 +1,7 @@
 package polyplot.graphics;
 
+import polyplot.math.DoubleDouble;
+
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Point;
@@ -42,17 +44,18 @@ public class Scale extends DrawableComponent {
         gc.drawLine(0, verticalBar, parent.getWidth(), verticalBar);
         gc.drawLine(horizontalBar, 0, horizontalBar, parent.getHeight());
 
-        BigDecimal startX = BigDecimal.valueOf(parent.getXCorner()).setScale(-pow, RoundingMode.FLOOR);
-        BigDecimal startY = BigDecimal.valueOf(parent.getYCorner()).setScale(-pow, RoundingMode.FLOOR);
+        // use the exact corners, otherwise the markers would collapse when zooming in very far
+        BigDecimal startX = parent.getExactXCorner().bigDecimalValue().setScale(-pow, RoundingMode.FLOOR);
+        BigDecimal startY = parent.getExactYCorner().bigDecimalValue().setScale(-pow, RoundingMode.FLOOR);
 
         final BigDecimal offset = BigDecimal.ONE.movePointRight(pow);
         {
             final int markers = BigDecimal.valueOf(parent.getXSpan()).divide(offset).setScale(0, RoundingMode.CEILING).intValue();
-            final BigDecimal compare = BigDecimal.valueOf(parent.getXCorner() + parent.getXSpan()).add(offset);
+            final BigDecimal compare = parent.getExactXCorner().add(parent.getXSpan()).bigDecimalValue().add(offset);
 
             if (true)
                 for (BigDecimal start = startX; start.compareTo(compare) == -1; start = start.add(offset)) {
-                    drawXMarker(start, new Point(parent.getPixelToXValue(start.doubleValue()), verticalBar), 2, parent, gc);
+                    drawXMarker(start, new Point(parent.getPixelToXValue(DoubleDouble.valueOf(start)), verticalBar), 2, parent, gc);
                 }
       /*else {
         int i = 0;
@@ -66,7 +69,7 @@ public class Scale extends DrawableComponent {
 
         {
             final int markers = BigDecimal.valueOf(parent.getXSpan()).divide(offset).setScale(0, RoundingMode.CEILING).intValue();
-            final BigDecimal compare = BigDecimal.valueOf(parent.getYCorner() + parent.getYSpan()).add(offset);
+            final BigDecimal compare = parent.getExactYCorner().add(parent.getYSpan()).bigDecimalValue().add(offset);
 
             int maxLength = 0;
             List<BigDecimal> cache = new LinkedList<>();
@@ -80,7 +83,7 @@ public class Scale extends DrawableComponent {
             }
 
             for (BigDecimal bd : cache)
-                drawYMarker(bd, new Point(horizontalBar, parent.getPixelToYValue(bd.doubleValue())), 2, maxLength, parent, gc);
+                drawYMarker(bd, new Point(horizontalBar, parent.getPixelToYValue(DoubleDouble.valueOf(bd))), 2, maxLength, parent, gc);
         }
 
     }
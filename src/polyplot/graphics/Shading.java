@@ -0,0 +1,64 @@
+package polyplot.graphics;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A component that shades the area between functions and the x-axis (e.g. of an integral).<br>
+ * Every function can have one shaded area. The functions are referenced by name,
+ * so the area is kept if a function is redefined or moved. The area follows the displayed curve of the function
+ * (see {@link DrawableFunction#getRows(FunctionPlotter)}), so the functions are not evaluated while painting.
+ *
+ * @author Polymehr
+ */
+public class Shading extends DrawableComponent {
+
+    private static final int ALPHA = 0x50;
+
+    private final Map<String, double[]> areas;
+
+    Shading(boolean hidden) {
+        super(Color.BLACK, hidden);
+        areas = new LinkedHashMap<>();
+    }
+
+    /**
+     * Shades the area between a function and the x-axis from <code>from</code> to <code>to</code>.
+     * An existing area of the function will be replaced.
+     */
+    void set(String function, double from, double to) {
+        areas.put(function.toLowerCase(), new double[] {Math.min(from, to), Math.max(from, to)});
+    }
+
+    void clear() {
+        areas.clear();
+    }
+
+    @Override
+    public void draw(Graphics gc, FunctionPlotter parent) {
+        if (hidden || areas.isEmpty())
+            return;
+        final int width = parent.getWidth(), height = parent.getHeight();
+        final int axis = Math.max(-1, Math.min(height, parent.getPixelToYValue(0)));
+        for (Map.Entry<String, double[]> area : areas.entrySet()) {
+            final DrawableFunction df = parent.getDrawableFunction(area.getKey());
+            if (df == null || df.isHidden())
+                continue;
+            final Color c = df.getForegroundColor();
+            gc.setColor(new Color(c.getRed(), c.getGreen(), c.getBlue(), ALPHA));
+            final double[] rows = df.getRows(parent); // the curve is sampled in the background
+            if (rows == null)
+                continue;
+            final double from = area.getValue()[0], to = area.getValue()[1];
+            for (int x = 0; x < width; ++x) {
+                final double value = parent.getValueOfXPixel(x);
+                if (value < from || value > to || rows[x] != rows[x])
+                    continue;
+                final int yPixel = (int) Math.max(-1, Math.min(height, rows[x]));
+                gc.drawLine(x, Math.min(axis, yPixel), x, Math.max(axis, yPixel));
+            }
+        }
+    }
+}
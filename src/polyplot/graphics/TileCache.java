@@ -0,0 +1,139 @@
+package polyplot.graphics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Caches sampled curve data of the functions in tiles of {@link #TILE_COLUMNS} pixel columns. The tiles are aligned
+ * to a grid in world coordinates (tile <code>i</code> covers the values from <code>i * TILE_COLUMNS * xPerPixel</code>
+ * to <code>(i + 1) * TILE_COLUMNS * xPerPixel</code>), so they stay valid when the view is moved and only the tiles
+ * that were not visible before have to be sampled. The least recently used tiles are evicted when the memory budget
+ * is exceeded. The cache is used by all threads of the {@link FunctionRenderer}.
+ *
+ * @author 5hir0kur0
+ */
+class TileCache {
+
+    static final int TILE_COLUMNS = 256;
+
+    /**
+     * Identifies a tile.
+     */
+    static final class Key {
+        final Object function; // the identity of the function (it is recreated when it is redefined)
+        final long version; // see Function.getModifications()
+        final double xPerPixel, yPerPixel; // yPerPixel is only relevant for adaptively sampled tiles (0 otherwise)
+        final boolean adaptive;
+        final long index;
+
+        Key(Object function, long version, double xPerPixel, double yPerPixel, boolean adaptive, long index) {
+            this.function = Objects.requireNonNull(function);
+            this.version = version;
+            this.xPerPixel = xPerPixel;
+            this.yPerPixel = adaptive ? yPerPixel : 0;
+            this.adaptive = adaptive;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key))
+                return false;
+            final Key k = (Key) other;
+            return function == k.function && version == k.version && xPerPixel == k.xPerPixel
+                    && yPerPixel == k.yPerPixel && adaptive == k.adaptive && index == k.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * (31 * System.identityHashCode(function) + Long.hashCode(version))
+                    + Double.hashCode(xPerPixel)) * 31 + Long.hashCode(index);
+        }
+    }
+
+    /**
+     * The samples of a tile: the columns relative to the start of the tile (from <code>0</code> to
+     * {@link #TILE_COLUMNS}, so the last sample is the first one of the next tile) and the values of the function.
+     */
+    static final class Tile {
+        final double[] columns, values;
+        final int evaluations;
+        final double achievedTolerance; // NaN if the tile was not sampled adaptively
+
+        Tile(double[] columns, double[] values, int evaluations, double achievedTolerance) {
+            this.columns = columns;
+            this.values = values;
+            this.evaluations = evaluations;
+            this.achievedTolerance = achievedTolerance;
+        }
+
+        long bytes() {
+            return 16L * columns.length + 96; // the arrays, their headers and the tile and its key
+        }
+    }
+
+    private final long budget; // [bytes]
+    private final Map<Key, Tile> tiles = new LinkedHashMap<>(256, 0.75f, true); // in access order
+    private long bytes;
+    private long hits, misses;
+
+    /**
+     * @param budget
+     *      the maximum memory used by the tiles in bytes.
+     */
+    TileCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return the tile or <code>null</code> if it is not cached.
+     */
+    synchronized Tile get(Key key) {
+        final Tile tile = tiles.get(key);
+        if (tile == null)
+            ++misses;
+        else
+            ++hits;
+        return tile;
+    }
+
+    /**
+     * @return <code>false</code> if the budget is zero, so no tile is ever cached.
+     */
+    boolean isEnabled() {
+        return budget > 0;
+    }
+
+    synchronized boolean contains(Key key) {
+        return tiles.containsKey(key);
+    }
+
+    synchronized void put(Key key, Tile tile) {
+        if (budget <= 0)
+            return;
+        final Tile old = tiles.put(key, tile);
+        if (old != null)
+            bytes -= old.bytes();
+        bytes += tile.bytes();
+        for (Iterator<Tile> it = tiles.values().iterator(); bytes > budget && it.hasNext(); ) {
+            bytes -= it.next().bytes();
+            it.remove();
+        }
+    }
+
+    synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return a short description of the current state for the debug overlay.
+     */
+    synchronized String getStatus() {
+        final long lookups = hits + misses;
+        return String.format("%d tiles, %.1f of %.0f MiB, hit rate %.1f%%", tiles.size(), bytes / 1048576.0,
+                budget / 1048576.0, lookups == 0 ? 0.0 : 100.0 * hits / lookups);
+    }
+}
@@ -0,0 +1,101 @@
+package polyplot.graphics;
+
+import polyplot.math.DoubleDouble;
+
+/**
+ * An immutable snapshot of the visible area of the {@link FunctionPlotter}: its size in pixels, the (exact) corners
+ * and the values per pixel. It is used to compute images in the background while the user keeps moving the view,
+ * so the pixels can be mapped to values without accessing the plotter from another thread.
+ *
+ * @author 5hir0kur0
+ */
+final class Viewport {
+
+    final int width, height;
+    final double xPerPixel, yPerPixel;
+    final boolean deep; // if the deep zoom is active
+    private final DoubleDouble xCorner, yCorner;
+
+    Viewport(FunctionPlotter parent) {
+        this.width = parent.getWidth();
+        this.height = parent.getHeight();
+        this.xPerPixel = parent.getValueXPerPixel();
+        this.yPerPixel = parent.getValueYPerPixel();
+        this.deep = parent.isDeepZoomActive();
+        this.xCorner = parent.getExactXCorner();
+        this.yCorner = parent.getExactYCorner();
+    }
+
+    /**
+     * @see FunctionPlotter#getValueOfXPixel(int)
+     */
+    double getValueOfXPixel(double column) {
+        return xCorner.getHi() + (column * xPerPixel + xCorner.getLo());
+    }
+
+    /**
+     * Stores the exact value of a pixel column in <code>result</code>.
+     */
+    void getValueOfXPixel(double column, DoubleDouble result) {
+        result.set(xCorner).add(column * xPerPixel);
+    }
+
+    double getXCorner() {
+        return xCorner.doubleValue();
+    }
+
+    double getYCorner() {
+        return yCorner.doubleValue();
+    }
+
+    /**
+     * Stores the exact y corner in <code>result</code>.
+     */
+    void getExactYCorner(DoubleDouble result) {
+        result.set(yCorner);
+    }
+
+    /**
+     * @return the (fractional) pixel row of a value that is given relative to the y corner
+     * @see FunctionPlotter#getPixelToYOffset(double)
+     */
+    double getRow(double offset) {
+        return height - offset / yPerPixel - 1;
+    }
+
+    /**
+     * @return the number of columns an image of the other view has to be moved to the right to be shown in this view
+     */
+    double getColumnShift(Viewport from) {
+        return new DoubleDouble(from.xCorner).subtract(xCorner).doubleValue() / xPerPixel;
+    }
+
+    /**
+     * @return the number of rows an image of the other view has to be moved down to be shown in this view
+     */
+    double getRowShift(Viewport from) {
+        return new DoubleDouble(yCorner).subtract(from.yCorner).doubleValue() / yPerPixel;
+    }
+
+    /**
+     * @return <code>true</code> if the other view only differs in its position, so an image of it can be shown
+     * in this view by moving it.
+     */
+    boolean hasSameScale(Viewport other) {
+        return other != null && width == other.width && height == other.height && xPerPixel == other.xPerPixel
+                && yPerPixel == other.yPerPixel && deep == other.deep;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Viewport))
+            return false;
+        final Viewport v = (Viewport) other;
+        return hasSameScale(v) && xCorner.compareTo(v.xCorner) == 0 && yCorner.compareTo(v.yCorner) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Double.hashCode(getXCorner()) + Double.hashCode(getYCorner())) + Double.hashCode(xPerPixel);
+    }
+}
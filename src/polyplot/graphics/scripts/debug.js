@@ -16,3 +16,33 @@ function hack(obj) {
     }
     return result; 
 }
+
+var Profiler = Java.type("polyplot.math.Profiler");
+
+/*
+ * Enables or disables the profiler of the function interpreter.
+ * profile(true) / profile(false); profile() only toggles it.
+ */
+function profile(enabled) {
+    Profiler.setEnabled(enabled === undefined ? !Profiler.isEnabled() : enabled);
+    __internal_fp.repaint();
+    return Profiler.isEnabled();
+}
+
+/*
+ * Prints the profiling results of all functions or of the operations of one function.
+ * sortBy: "name", "calls", "avg" or "time" (default)
+ * profileTable(), profileTable("calls"), profileTable("time", "f")
+ */
+function profileTable(sortBy, func) {
+    if (sortBy === undefined)
+        sortBy = "time";
+    print(func === undefined ? Profiler.table(sortBy) : Profiler.operations(func, sortBy));
+}
+
+/*
+ * Removes all collected profiling data.
+ */
+function profileReset() {
+    Profiler.reset();
+}
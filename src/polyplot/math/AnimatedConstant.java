@@ -0,0 +1,82 @@
+package polyplot.math;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A user-defined constant whose value can change while the functions using it are drawn (e.g. to animate it).
+ * NOTE: Constants are usually compiled into the functions as numbers, so changing one requires recompiling all
+ *       functions. Functions defined while a constant is animated read its value with a unary operation that ignores
+ *       its operand instead, so setting the value is enough. Only the functions are affected: Constants defined with
+ *       an animated constant (and constant expressions in general) use the value at the time they are compiled.
+ *       Copies of functions (e.g. of worker threads or render jobs) get a snapshot of the constant with the value at
+ *       the time they were copied, so all values computed by a copy belong to the same value of the constant, even if
+ *       it changes meanwhile. Changing the value invalidates the caches of all functions, just like moving a function.
+ * @author 5hir0kur0
+ * @see Compiler#animate(String)
+ */
+public final class AnimatedConstant extends Function implements DoubleUnaryOperator {
+    private volatile double value;
+    private volatile long modifications = 0; // of the value (see getModifications())
+
+    AnimatedConstant(String name, double value) {
+        super(name, "[animated constant]", 1, null, false);
+        this.value = value;
+    }
+
+    public double getValue() {
+        return this.value;
+    }
+
+    /**
+     * Sets the value. Must be called by the thread that evaluates the functions, because the caches are invalidated.
+     */
+    public void setValue(double value) {
+        if (Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(this.value)) return;
+        this.value = value;
+        ++this.modifications; // only modified by one thread
+        PureFunction.invalidateCaches();
+    }
+
+    /**
+     * @return the value; the operand is ignored
+     */
+    @Override
+    public double applyAsDouble(double ignored) {
+        return this.value;
+    }
+
+    @Override
+    public double of(double... args) {
+        return this.value;
+    }
+
+    @Override
+    long getModifications(Set<Function> visited) {
+        return visited.add(this) ? this.modifications : 0;
+    }
+
+    /**
+     * @return a snapshot of the constant with the current value (it is not changed by {@link #setValue(double)})
+     */
+    @Override
+    AnimatedConstant copy(Map<Function, Function> copies) {
+        final Function existing = copies.get(this);
+        if (existing != null) return (AnimatedConstant) existing;
+        final AnimatedConstant result = new AnimatedConstant(this.name, this.value);
+        result.modifications = this.modifications;
+        copies.put(this, result);
+        return result;
+    }
+
+    @Override
+    public double getCost() {
+        return 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return this.name + "[animated](" + this.value + ")";
+    }
+}
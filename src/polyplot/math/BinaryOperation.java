@@ -14,7 +14,15 @@ enum BinaryOperation implements ComparableOperator {
     DIVISION("/", (left, right) -> left / right, 41, true),
     MODULUS("%", (left, right) -> left % right, 41, true),
     PLUS("+", (left, right) -> left + right, 39, true),
-    MINUS("-", (left, right) -> left - right, 39, true);
+    MINUS("-", (left, right) -> left - right, 39, true),
+    // comparisons (1 if true, 0 if false and NaN if an operand is NaN);
+    // the longer signs have to come first, because they are matched in this order
+    LESS_OR_EQUAL("<=", (left, right) -> compare(left, right, left <= right), 37, true),
+    GREATER_OR_EQUAL(">=", (left, right) -> compare(left, right, left >= right), 37, true),
+    LESS("<", (left, right) -> compare(left, right, left < right), 37, true),
+    GREATER(">", (left, right) -> compare(left, right, left > right), 37, true),
+    EQUAL("==", (left, right) -> compare(left, right, left == right), 37, true),
+    NOT_EQUAL("!=", (left, right) -> compare(left, right, left != right), 37, true);
 
     private final String sign;
     final DoubleBinaryOperator operation; // accessed by fastOf(...) in PureFunction
@@ -30,6 +38,18 @@ enum BinaryOperation implements ComparableOperator {
         this.weight = weight;
     }
 
+    private static double compare(double left, double right, boolean result) {
+        if (left != left || right != right) return Double.NaN;
+        return result ? 1.0 : 0.0;
+    }
+
+    /**
+     * @return {@code true} if the operator is a comparison like {@code "<"}
+     */
+    public boolean isComparison() {
+        return this.weight == LESS.weight;
+    }
+
     public DoubleBinaryOperator getOperation() {
         return this.operation;
     }
@@ -57,7 +77,7 @@ enum BinaryOperation implements ComparableOperator {
     /**
      * Get the binary operator representing the given sign.
      * @param sign the operator's sign; must be one of {@code "^"}, {@code "*"}, {@code "/"}, {@code "%"}, {@code "+"},
-     *             or {@code "-"}
+     *             {@code "-"}, {@code "<="}, {@code ">="}, {@code "<"}, {@code ">"}, {@code "=="} or {@code "!="}
      * @return the {@code BinaryOperation} object if the parameter was one of the ones mentioned above
      * @throws IllegalArgumentException if the parameter wasn't one of the ones mentioned above
      */
@@ -1,6 +1,7 @@
 package polyplot.math;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.DoubleBinaryOperator;
 import java.util.function.DoubleUnaryOperator;
 import java.util.stream.Collectors;
@@ -17,6 +18,7 @@ import java.util.stream.Collectors;
 public class CompilationContext extends Observable {
     private final Map<String, Constant> constants;
     private final Map<String, Function> functions;
+    private final Map<String, AnimatedConstant> animatedConstants;
 
     private boolean functionCacheInvalid = true;
     private boolean constantCacheInvalid = true;
@@ -72,13 +74,49 @@ public class CompilationContext extends Observable {
         }
     }
 
-    private final static class PureFunctionAdapter extends Function implements DoubleUnaryOperator {
+    final static class PureFunctionAdapter extends Function implements DoubleUnaryOperator {
 
         private final DoubleUnaryOperator operation;
+        private final DoubleUnaryOperator derivative;
+        private final Consumer<Complex> complex;
 
-        PureFunctionAdapter(DoubleUnaryOperator operation, String name) {
+        PureFunctionAdapter(DoubleUnaryOperator operation, DoubleUnaryOperator derivative, Consumer<Complex> complex,
+                            String name) {
             super(name, "[native function]", 1, null, false);
             this.operation = Objects.requireNonNull(operation, "pure function adapter operation must not be null");
+            this.derivative = derivative; // may be null
+            this.complex = complex; // may be null
+        }
+
+        /**
+         * Applies the function to a complex number. Functions without a complex continuation (e.g. "floor()") are
+         * only defined on the real axis.
+         * @param operand the argument; the result will be stored in it
+         */
+        void applyComplex(Complex operand) {
+            if (this.complex != null) this.complex.accept(operand);
+            else if (operand.im == 0.0) operand.set(this.operation.applyAsDouble(operand.re));
+            else operand.set(Double.NaN, Double.NaN);
+        }
+
+        @Override
+        public double getCost() {
+            return nativeCost(this.name);
+        }
+
+        /**
+         * Applies the function to a double-double number. The lower part of the argument is taken into account by
+         * a first-order Taylor expansion if the derivative of the function is known. Otherwise (e.g. for step
+         * functions like "floor()") the argument is rounded to a {@code double}.
+         * @param operand the argument; the result will be stored in it
+         */
+        void applyDeep(DoubleDouble operand) {
+            if (this.derivative == null || operand.lo == 0.0) {
+                operand.set(this.operation.applyAsDouble(operand.doubleValue()));
+            } else {
+                final double value = this.operation.applyAsDouble(operand.hi);
+                operand.set(value, this.derivative.applyAsDouble(operand.hi) * operand.lo);
+            }
         }
 
         @Override
@@ -119,12 +157,34 @@ public class CompilationContext extends Observable {
             return this.applyAsDouble(args[0], args[1]);
         }
 
+        @Override
+        public double getCost() {
+            return nativeCost(this.name);
+        }
+
         @Override
         public String toString() {
             return this.name + "[bi]()";
         }
     }
 
+    /**
+     * @return the estimated cost of a native function (see {@link Function#getCost()})
+     */
+    private static double nativeCost(String name) {
+        switch (name) {
+            case "abs": case "ceil": case "floor": case "round": case "ulp": case "max": case "min":
+            case "toDegrees": case "toRadians":
+                return 2.0;
+            case "sqrt": case "\u221A":
+                return 4.0;
+            case "IEEEremainder": case "cbrt":
+                return 10.0;
+            default: // trigonometric, hyperbolic, exponential and logarithmic functions
+                return 20.0;
+        }
+    }
+
     /**
      * Creates a new {@code CompilationContext}.
      * @param addDefaultFunctionsAndConstants if this option is {@code true}, add some default functions like "sin()"
@@ -133,39 +193,42 @@ public class CompilationContext extends Observable {
     public CompilationContext(boolean addDefaultFunctionsAndConstants) {
         this.constants = new HashMap<>();
         this.functions = new HashMap<>();
+        this.animatedConstants = new LinkedHashMap<>();
         if (!addDefaultFunctionsAndConstants) return;
         addConstant("e", "[native constant; value = " + Math.E + "]", Math.E, false);
         addConstant("pi", "[native constant; value = " + Math.PI + "]", Math.PI, false);
         // in case someone wants to use the unicode-character
         addConstant("\u03C0", "[native constant; value = " + Math.PI + "]", Math.PI, false);
 
-        addPureFunction("abs", Math::abs);
-        addPureFunction("acos", Math::acos);
-        addPureFunction("asin", Math::asin);
-        addPureFunction("atan", Math::atan);
+        // the derivatives are used for extended-precision evaluation (see PureFunctionAdapter.applyDeep())
+        // and the complex operations for evaluation in the complex plane (see PureFunctionAdapter.applyComplex())
+        addPureFunction("abs", Math::abs, Math::signum, z -> z.set(z.modulus()));
+        addPureFunction("acos", Math::acos, x -> -1 / Math.sqrt(1 - x * x), Complex::acos);
+        addPureFunction("asin", Math::asin, x -> 1 / Math.sqrt(1 - x * x), Complex::asin);
+        addPureFunction("atan", Math::atan, x -> 1 / (1 + x * x), Complex::atan);
         addBiFunction("atan2", Math::atan2);
         addBiFunction("IEEEremainder", Math::IEEEremainder);
         addBiFunction("max", Math::max);
         addBiFunction("min", Math::min);
-        addPureFunction("cbrt", Math::cbrt);
-        addPureFunction("ceil", Math::ceil);
-        addPureFunction("cos", Math::cos);
-        addPureFunction("cosh", Math::cosh);
-        addPureFunction("exp", Math::exp);
-        addPureFunction("expm1", Math::expm1);
-        addPureFunction("floor", Math::floor);
-        addPureFunction("log", Math::log);
-        addPureFunction("log10", Math::log10);
-        addPureFunction("log1p", Math::log1p);
-        addPureFunction("round", Math::round);
-        addPureFunction("sin", Math::sin);
-        addPureFunction("sinh", Math::sinh);
-        addPureFunction("sqrt", Math::sqrt);
-        addPureFunction("\u221A", Math::sqrt);
-        addPureFunction("tan", Math::tan);
-        addPureFunction("toDegrees", Math::toDegrees);
-        addPureFunction("toRadians", Math::toRadians);
-        addPureFunction("ulp", Math::ulp);
+        addPureFunction("cbrt", Math::cbrt, x -> 1 / (3 * Math.cbrt(x) * Math.cbrt(x)), Complex::cbrt);
+        addPureFunction("ceil", Math::ceil, null, null);
+        addPureFunction("cos", Math::cos, x -> -Math.sin(x), Complex::cos);
+        addPureFunction("cosh", Math::cosh, Math::sinh, Complex::cosh);
+        addPureFunction("exp", Math::exp, Math::exp, Complex::exp);
+        addPureFunction("expm1", Math::expm1, Math::exp, Complex::expm1);
+        addPureFunction("floor", Math::floor, null, null);
+        addPureFunction("log", Math::log, x -> 1 / x, Complex::log);
+        addPureFunction("log10", Math::log10, x -> 1 / (x * Math.log(10)), Complex::log10);
+        addPureFunction("log1p", Math::log1p, x -> 1 / (1 + x), Complex::log1p);
+        addPureFunction("round", Math::round, null, null);
+        addPureFunction("sin", Math::sin, Math::cos, Complex::sin);
+        addPureFunction("sinh", Math::sinh, Math::cosh, Complex::sinh);
+        addPureFunction("sqrt", Math::sqrt, x -> 0.5 / Math.sqrt(x), Complex::sqrt);
+        addPureFunction("\u221A", Math::sqrt, x -> 0.5 / Math.sqrt(x), Complex::sqrt);
+        addPureFunction("tan", Math::tan, x -> 1 / (Math.cos(x) * Math.cos(x)), Complex::tan);
+        addPureFunction("toDegrees", Math::toDegrees, x -> 180 / Math.PI, z -> z.multiply(180 / Math.PI));
+        addPureFunction("toRadians", Math::toRadians, x -> Math.PI / 180, z -> z.multiply(Math.PI / 180));
+        addPureFunction("ulp", Math::ulp, null, null);
     }
 
     /**
@@ -187,8 +250,9 @@ public class CompilationContext extends Observable {
         }
     }
 
-    private void addPureFunction(String name, DoubleUnaryOperator function) {
-        this.addFunction(name, new PureFunctionAdapter(function, name));
+    private void addPureFunction(String name, DoubleUnaryOperator function, DoubleUnaryOperator derivative,
+                                 Consumer<Complex> complex) {
+        this.addFunction(name, new PureFunctionAdapter(function, derivative, complex, name));
     }
 
     private void addBiFunction(String name, DoubleBinaryOperator function) {
@@ -325,6 +389,48 @@ public class CompilationContext extends Observable {
         // which will notify the observers
     }
 
+    /**
+     * Returns the animated constant with the given name.
+     * @param name the name of the constant; must not be {@code null}
+     * @return the {@link AnimatedConstant} or {@code null} if the constant is not animated
+     */
+    public AnimatedConstant getAnimatedConstant(String name) {
+        return this.animatedConstants.get(name.toLowerCase());
+    }
+
+    /**
+     * @return all animated constants in the order they were added
+     */
+    public List<AnimatedConstant> getAnimatedConstants() {
+        return new ArrayList<>(this.animatedConstants.values());
+    }
+
+    /**
+     * NOTE: This method should only be used by the {@link Compiler} class, as the functions using the constant have
+     *       to be recompiled (see {@link Compiler#animate(String)}).
+     * @param name the name of a user-defined constant
+     * @return the new animated constant; its value is the value of the constant
+     */
+    AnimatedConstant addAnimatedConstant(String name) {
+        Objects.requireNonNull(name, "name must not be null");
+        final Constant constant = this.constants.get(name.toLowerCase());
+        if (constant == null) throw new IllegalArgumentException("the constant '" + name + "' has not been defined");
+        if (!constant.isUserDefined())
+            throw new IllegalArgumentException("only user-defined constants can be animated: " + name);
+        final AnimatedConstant result = new AnimatedConstant(constant.getName(), constant.getValue());
+        this.animatedConstants.put(name.toLowerCase(), result);
+        return result;
+    }
+
+    /**
+     * NOTE: This method should only be used by the {@link Compiler} class, as the functions using the constant have
+     *       to be recompiled (see {@link Compiler#stopAnimation(String)}).
+     * @return {@code true} if the constant was animated
+     */
+    boolean removeAnimatedConstant(String name) {
+        return this.animatedConstants.remove(name.toLowerCase()) != null;
+    }
+
     void changed() {
         this.functionCacheInvalid = true;
         this.constantCacheInvalid = true;
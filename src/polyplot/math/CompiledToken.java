@@ -1,5 +1,7 @@
 package polyplot.math;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.function.DoubleBinaryOperator;
 import java.util.function.DoubleUnaryOperator;
@@ -9,12 +11,15 @@ import java.util.function.DoubleUnaryOperator;
  */
 final class CompiledToken {
     enum Type {
-        NUMBER, ARGUMENT, UNARY_OPERATION, BINARY_OPERATION, FUNCTION
+        NUMBER, ARGUMENT, UNARY_OPERATION, BINARY_OPERATION, FUNCTION,
+        // the jumps are relative, so compiled expressions can be concatenated; the token after a jump is token
+        // "index + offset" (the token after the jump itself is "index + 1")
+        JUMP, JUMP_IF_FALSE
     }
 
     final ImpureFunction function;
     final double number; // avoid autoboxing by using a primitive field
-    final int index; // same here
+    final int index; // same here (the argument index or the offset of a jump)
     final DoubleUnaryOperator unaryOperator;
     final DoubleBinaryOperator binaryOperator;
     final Type type;
@@ -25,6 +30,13 @@ final class CompiledToken {
         return new CompiledToken(null, number, -1, null, null, Type.NUMBER);
     }
 
+    /**
+     * @return a number token with the value {@code NaN} (e.g. for the undefined parts of piecewise functions)
+     */
+    static CompiledToken newUndefined() {
+        return new CompiledToken(null, Double.NaN, -1, null, null, Type.NUMBER);
+    }
+
     static CompiledToken newArgument(int index) {
         if (index < 0) throw new IllegalArgumentException("argument token index must not be smaller than 0");
         return new CompiledToken(null, Double.NaN, index, null, null, Type.ARGUMENT);
@@ -47,6 +59,46 @@ final class CompiledToken {
                 Double.NaN, -1, null, null, Type.FUNCTION);
     }
 
+    static CompiledToken newJump(int offset) {
+        if (offset < 1) throw new IllegalArgumentException("jump offset must be positive");
+        return new CompiledToken(null, Double.NaN, offset, null, null, Type.JUMP);
+    }
+
+    /**
+     * Pops the condition and jumps if it is zero. If it is {@code NaN}, the result of the whole conditional expression
+     * is {@code NaN}: It is pushed and the jump before the target (see {@link #newConditional}) is taken as well.
+     */
+    static CompiledToken newJumpIfFalse(int offset) {
+        if (offset < 2) throw new IllegalArgumentException("conditional jump offset must be greater than one");
+        return new CompiledToken(null, Double.NaN, offset, null, null, Type.JUMP_IF_FALSE);
+    }
+
+    /**
+     * Compiles a conditional expression: The condition, a conditional jump to the second branch, the first branch,
+     * a jump to the end and the second branch.
+     * @return the compiled conditional expression
+     */
+    static List<CompiledToken> newConditional(List<CompiledToken> condition, List<CompiledToken> then,
+                                              List<CompiledToken> otherwise) {
+        final List<CompiledToken> result = new ArrayList<>(condition.size() + then.size() + otherwise.size() + 2);
+        result.addAll(condition);
+        result.add(newJumpIfFalse(then.size() + 2));
+        result.addAll(then);
+        result.add(newJump(otherwise.size() + 1));
+        result.addAll(otherwise);
+        return result;
+    }
+
+    /**
+     * @param postfix a compiled expression
+     * @param i the index of a {@link Type#JUMP_IF_FALSE} token
+     * @return the index of the last token of the conditional expression started by the jump
+     */
+    static int endOfConditional(CompiledToken[] postfix, int i) {
+        final int jump = i + postfix[i].index - 1;
+        return jump + postfix[jump].index - 1;
+    }
+
     private CompiledToken(ImpureFunction function, double number, int index, DoubleUnaryOperator unaryOperator,
                           DoubleBinaryOperator binaryOperator, Type type) {
         this.function = function;
@@ -71,6 +123,8 @@ final class CompiledToken {
                 return this.unaryOperator.toString();
             case NUMBER: return Double.toString(this.number);
             case FUNCTION: return this.function.toString();
+            case JUMP: return "jump(" + this.index + ")";
+            case JUMP_IF_FALSE: return "jump_if_false(" + this.index + ")";
             default: return "{{INVALID COMPILE-TIME TOKEN}}";
         }
     }
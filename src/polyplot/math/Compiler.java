@@ -1,5 +1,6 @@
 package polyplot.math;
 
+import java.math.BigDecimal;
 import java.util.*;
 import java.util.function.*;
 import java.util.regex.Matcher;
@@ -38,6 +39,14 @@ public final class Compiler {
 
     private List<String> arguments = Collections.emptyList();
 
+    // the function that is currently defined; calls of it are recursive
+    private String definedFunction = null;
+    private int definedArguments = 0;
+    private Recursion recursion = null;
+
+    private final static String CONDITION = "if";
+    private final static String PIECEWISE = "piecewise";
+
     /**
      * Create a new {@code Compiler} that uses a given {@link CompilationContext}.
      * @param context the {@link CompilationContext}; must not be {@code null}
@@ -85,6 +94,51 @@ public final class Compiler {
         this.context.changed();
     }
 
+    /**
+     * Defines (or redefines) a constant with the given value (e.g. the result of a computation).
+     * @param name the name of the constant; must not be {@code null}
+     * @param value the value; must be finite
+     */
+    public void defineConstant(String name, double value) {
+        if (value != value || Double.isInfinite(value))
+            throw new IllegalArgumentException("constant must not be NaN or infinite: " + value);
+        // the tokenizer does not support exponents, so the value is written without one
+        this.definition(Objects.requireNonNull(name, "name must not be null") + " = "
+                + BigDecimal.valueOf(value).toPlainString());
+    }
+
+    /**
+     * Animates a user-defined constant: All functions are recompiled, so they read the value of the returned
+     * {@link AnimatedConstant} instead of the value the constant was defined with. Setting its value changes the
+     * functions without recompiling them. If the constant is already animated, the existing object is returned.
+     * @param name the name of the constant; must not be {@code null}
+     * @return the animated constant; never {@code null}
+     */
+    public AnimatedConstant animate(String name) {
+        AnimatedConstant result = this.context.getAnimatedConstant(name);
+        if (result != null) return result;
+        result = this.context.addAnimatedConstant(name);
+        try {
+            this.recompileUserDefined();
+        } finally {
+            this.context.changed();
+        }
+        return result;
+    }
+
+    /**
+     * Stops the animation of a constant: All functions are recompiled with the value the constant was defined with.
+     * @param name the name of the constant; must not be {@code null}
+     */
+    public void stopAnimation(String name) {
+        if (!this.context.removeAnimatedConstant(name)) return;
+        try {
+            this.recompileUserDefined();
+        } finally {
+            this.context.changed();
+        }
+    }
+
     /**
      * Returns the {@link CompilationContext} passed to the constructor.
      * @return a {@link CompilationContext}; never {@code null}
@@ -282,18 +336,24 @@ public final class Compiler {
                     stack.push(token);
                     break;
                 case UNARY_OPERATION:
-                    if (!stack.isEmpty() && stack.peek().type == CompiledToken.Type.NUMBER)
-                        stack.push(CompiledToken.newNumber(token.unaryOperator.applyAsDouble(stack.pop().number)));
-                    else stack.push(token);
+                    if (!stack.isEmpty() && stack.peek().type == CompiledToken.Type.NUMBER) {
+                        final double value = token.unaryOperator.applyAsDouble(stack.peek().number);
+                        if (!Double.isInfinite(value)) {
+                            stack.pop();
+                            stack.push(folded(value));
+                        } else stack.push(token);
+                    } else stack.push(token);
                     break;
                 case BINARY_OPERATION:
                     if (!stack.isEmpty() && stack.peek().type == CompiledToken.Type.NUMBER) {
                         final CompiledToken arg1Token = stack.pop();
-                        if (!stack.isEmpty() && stack.peek().type == CompiledToken.Type.NUMBER) {
-                            final CompiledToken arg0Token = stack.pop();
-                            final double arg0 = arg0Token.number;
-                            final double arg1 = arg1Token.number;
-                            stack.push(CompiledToken.newNumber(token.binaryOperator.applyAsDouble(arg0, arg1)));
+                        final boolean constant = !stack.isEmpty() && stack.peek().type == CompiledToken.Type.NUMBER;
+                        final double value = constant
+                                ? token.binaryOperator.applyAsDouble(stack.peek().number, arg1Token.number)
+                                : Double.NaN;
+                        if (constant && !Double.isInfinite(value)) {
+                            stack.pop();
+                            stack.push(folded(value));
                         } else {
                             stack.push(arg1Token);
                             stack.push(token);
@@ -308,11 +368,12 @@ public final class Compiler {
                             f.args[i] = stack.pop().number;
                         else break;
                     }
-                    if (i == f.getNumberOfArguments()) {
-                        stack.push(CompiledToken.newNumber(f.ofStoredArgs()));
-                    } else { // if not all args were constant, push them back onto the stack
+                    final double value = i == f.getNumberOfArguments() ? f.ofStoredArgs() : Double.NaN;
+                    if (i == f.getNumberOfArguments() && !Double.isInfinite(value)) {
+                        stack.push(folded(value));
+                    } else { // if not all args were constant (or the value is infinite), push them back
                         while (--i >= 0) {
-                            stack.push(CompiledToken.newNumber(f.args[i]));
+                            stack.push(folded(f.args[i]));
                             f.args[i] = Double.NaN;
                         }
                         stack.push(token);
@@ -324,6 +385,14 @@ public final class Compiler {
         tokens.addAll(stack);
     }
 
+    /**
+     * @return a number token or an undefined one if the value is {@code NaN} (e.g. a constant call of a piecewise
+     *         function without a default that falls through all branches); infinite values are not folded
+     */
+    private static CompiledToken folded(double value) {
+        return value != value ? CompiledToken.newUndefined() : CompiledToken.newNumber(value);
+    }
+
     // recursive descent parser
     // -> parses the following grammar into a syntax tree
     // // [<...>] => one or more times
@@ -334,8 +403,20 @@ public final class Compiler {
     // <power>         ::= <number> | <number> "^" <factor>
     // <factor>        ::= <power> | <unary_sign> <factor>
     // <product>       ::= <factor> {("*" | "/" | "%") <factor>}
-    // <expression>    ::= <product> {("+" | "-")  <product>}
-    // <function_call> ::= <symbol> "(" <argument_list> ")"
+    // <arithmetic>    ::= <product> {("+" | "-")  <product>}
+    // # comparisons cannot be chained ("a < b < c" is an error)
+    // <expression>    ::= <arithmetic> [("<" | ">" | "<=" | ">=" | "==" | "!=") <arithmetic>]
+    // # only the chosen branch is evaluated
+    // <condition>     ::= "if" "(" <expression> "," <expression> "," <expression> ")"
+    // # pairs of conditions and values, optionally followed by the value if no condition is true (default: NaN)
+    // <piecewise>     ::= "piecewise" "(" <expression> "," <expression> {"," <expression> "," <expression>}
+    //                     ["," <expression>] ")"
+    // # calls of the function that is defined are recursive
+    // <function_call> ::= <symbol> "(" <argument_list> ")" | <integral> | <series> | <condition> | <piecewise>
+    // # the tolerance has to be constant
+    // <integral>      ::= "integrate" "(" <symbol> "," <expression> "," <expression> ["," <expression>] ")"
+    // # the symbol is the variable of the series; it can be used in the first expression
+    // <series>        ::= ("sum" | "prod") "(" <expression> "," <symbol> "," <expression> "," <expression> ")"
     // <argument_list> ::= <expression> {"," <expression>}
     // <symbol>        ::= [<ascii_letter>]
     // <function_def>  ::= <symbol> "(" <symbol_list> ")" "=" <expression>
@@ -345,7 +426,7 @@ public final class Compiler {
     // <definition>    ::= <function_def> | <constant_def>
 
     private static class Node {
-        enum Type { CONSTANT, ARGUMENT, UNARY_OPERATION, BINARY_OPERATION, FUNCTION }
+        enum Type { CONSTANT, ARGUMENT, UNARY_OPERATION, BINARY_OPERATION, FUNCTION, CONDITION }
 
         final Type type;
         final double constant;
@@ -395,6 +476,11 @@ public final class Compiler {
             if (args.isEmpty()) throw new IllegalStateException("trying to create node with zero-arg function");
         }
 
+        Node(Node condition, Node then, Node otherwise) {
+            this(Type.CONDITION, Double.NaN, null, null, null, null, null, Arrays.asList(condition, then, otherwise),
+                    -1);
+        }
+
         Node(int argumentIndex) {
             this(Type.ARGUMENT, Double.NaN, null, null, null, null, null, null, argumentIndex);
             if (!(this.argumentIndex >= 0))
@@ -416,8 +502,18 @@ public final class Compiler {
         boolean isConstant() {
             switch (this.type) {
                 case CONSTANT: return true;
-                case UNARY_OPERATION: return this.right.isConstant();
-                case BINARY_OPERATION: return this.left.isConstant() && this.right.isConstant();
+                // recursive calls cannot be evaluated before the function exists
+                case UNARY_OPERATION:
+                    return !(this.unaryOperation instanceof Recursion
+                            || this.unaryOperation instanceof AnimatedConstant) && this.right.isConstant();
+                case BINARY_OPERATION:
+                    return !(this.binaryOperation instanceof Recursion)
+                            && this.left.isConstant() && this.right.isConstant();
+                case CONDITION: {
+                    if (!this.arguments.get(0).isConstant()) return false;
+                    final Node chosen = this.chooseBranch();
+                    return chosen == null || chosen.isConstant();
+                }
                 case FUNCTION:
                     boolean result = true;
                     for (Node n : this.arguments) if (!n.isConstant()) {
@@ -446,13 +542,31 @@ public final class Compiler {
                     for (Node arg : this.arguments) args[i++] = arg.constantValue();
                     return this.function.of(args);
                 }
+                case CONDITION: {
+                    final Node chosen = this.chooseBranch();
+                    return chosen == null ? Double.NaN : chosen.constantValue();
+                }
                 default: throw new IllegalStateException("invalid node type");
             }
         }
 
+        /**
+         * @return the branch of a condition with a constant condition or {@code null} if the condition is
+         *         {@code NaN}
+         */
+        private Node chooseBranch() {
+            final double condition = this.arguments.get(0).constantValue();
+            if (condition != condition) return null;
+            return condition != 0.0 ? this.arguments.get(1) : this.arguments.get(2);
+        }
+
         List<CompiledToken> compile() {
             List<CompiledToken> result = new LinkedList<>();
-            if (this.isConstant()) result.add(CompiledToken.newNumber(this.constantValue()));
+            final double value = this.isConstant() ? this.constantValue() : Double.NaN;
+            if (this.isConstant() && this.type == Type.CONSTANT && this.constant != this.constant)
+                result.add(CompiledToken.newUndefined()); // explicitly undefined (see piecewise())
+            else if (this.isConstant() && (!Double.isInfinite(value) || this.type == Type.CONSTANT))
+                result.add(folded(value)); // infinite subexpressions (e.g. "1/0") are evaluated at runtime
             else {
                 switch (this.type) {
                     case CONSTANT: throw new UnsupportedOperationException("constant detection not working correctly");
@@ -498,6 +612,13 @@ public final class Compiler {
                         } else throw new IllegalStateException("illegal function class: "
                                     + this.function.getClass().getName());
                         break;
+                    case CONDITION:
+                        if (this.arguments.get(0).isConstant()) // the other branch can never be chosen
+                            result.addAll(this.chooseBranch().compile());
+                        else
+                            result.addAll(CompiledToken.newConditional(this.arguments.get(0).compile(),
+                                    this.arguments.get(1).compile(), this.arguments.get(2).compile()));
+                        break;
                 } // end switch
             } // end else
             return result;
@@ -530,7 +651,11 @@ public final class Compiler {
                 if (!this.context.hasConstant(token.getContent()))
                     throw new IllegalStateException("the constant '" + token.getContent() + "' has not been defined");
 
-                return new Node(this.context.getConstant(token.getContent()));
+                final AnimatedConstant animated = this.context.getAnimatedConstant(token.getContent());
+                if (animated == null) return new Node(this.context.getConstant(token.getContent()));
+                // only functions read the current value; constant expressions are evaluated once
+                if (this.definedFunction == null) return new Node(animated.getValue());
+                return new Node(animated, new Node(0.0));
             }
         } else if (token.isOpeningBracket()) {
             //if (index.get() < tokens.size() - 1) index.set(index.get() + 1);
@@ -557,7 +682,15 @@ public final class Compiler {
             throw new IllegalStateException("expected a function call, but the expression ended");
 
         final Token token = tokens.get(index.get());
-        if (!token.isSymbol() || !this.context.hasFunction(token.getContent()))
+        if (token.isSymbol() && Integral.NAME.equalsIgnoreCase(token.getContent()))
+            return this.integral(tokens, index);
+        if (token.isSymbol() && Series.isSeries(token.getContent()))
+            return this.series(tokens, index);
+        if (token.isSymbol() && (CONDITION.equalsIgnoreCase(token.getContent())
+                || PIECEWISE.equalsIgnoreCase(token.getContent())))
+            return this.condition(tokens, index);
+        final boolean recursive = token.isSymbol() && token.getContent().equalsIgnoreCase(this.definedFunction);
+        if (!recursive && (!token.isSymbol() || !this.context.hasFunction(token.getContent())))
             throw new IllegalStateException("the function '" + token.getContent() + "()' has not been defined");
 
         if (index.get() < tokens.size() - 1) index.set(index.get() + 1);
@@ -582,9 +715,171 @@ public final class Compiler {
 
         if (index.get() < tokens.size()) index.set(index.get() + 1);
 
+        if (recursive) {
+            if (args.size() != this.definedArguments)
+                throw new IllegalStateException("illegal number of arguments for the recursive call of '"
+                        + token.getContent() + "()': " + args.size());
+            if (args.size() > 2)
+                throw new IllegalStateException("recursive functions cannot have more than two arguments: '"
+                        + token.getContent() + "()'");
+            if (this.recursion == null) this.recursion = new Recursion(this.definedFunction, args.size());
+            return args.size() == 1 ? new Node((DoubleUnaryOperator) this.recursion, args.get(0))
+                                    : new Node((DoubleBinaryOperator) this.recursion, args.get(0), args.get(1));
+        }
         return new Node(this.context.getFunction(token.getContent()), args);
     }
 
+    private Node condition(List<Token> tokens, MutableInteger index) {
+        final String name = this.symbol(tokens, index);
+        if (index.get() >= tokens.size() || !tokens.get(index.get()).isOpeningBracket())
+            throw new IllegalStateException("expected an opening bracket after '" + name + "'");
+        if (index.get() < tokens.size() - 1) index.set(index.get() + 1);
+        else throw new IllegalStateException("expected the condition of '" + name + "()', but the expression ended");
+
+        final List<Node> args = this.argumentList(tokens, index);
+        if (index.get() >= tokens.size())
+            throw new IllegalStateException("expected a closing bracket after the argument list of '" + name
+                    + "()', but the expression ended");
+        if (!tokens.get(index.get()).isClosingBracket())
+            throw new IllegalStateException("expected a closing bracket, but got: '"
+                    + tokens.get(index.get()).getContent() + "'");
+        index.set(index.get() + 1);
+        if (CONDITION.equalsIgnoreCase(name)) {
+            if (args.size() != 3)
+                throw new IllegalStateException("illegal number of arguments (usage: " + name
+                        + "(condition, then, otherwise))");
+            return new Node(args.get(0), args.get(1), args.get(2));
+        }
+        if (args.size() < 2)
+            throw new IllegalStateException("illegal number of arguments (usage: " + name
+                    + "(condition, value, condition, value, ..., [otherwise]))");
+        // nested conditions, starting with the last one
+        Node result = args.size() % 2 == 1 ? args.get(args.size() - 1) : new Node(Double.NaN);
+        for (int i = args.size() / 2 * 2 - 2; i >= 0; i -= 2)
+            result = new Node(args.get(i), args.get(i + 1), result);
+        return result;
+    }
+
+    private Node integral(List<Token> tokens, MutableInteger index) {
+        final String name = this.symbol(tokens, index);
+        if (index.get() >= tokens.size() || !tokens.get(index.get()).isOpeningBracket())
+            throw new IllegalStateException("expected an opening bracket after '" + name + "'");
+
+        if (index.get() < tokens.size() - 1) index.set(index.get() + 1);
+        else throw new IllegalStateException("expected the function to be integrated, but the expression ended");
+
+        final String integrandName = this.symbol(tokens, index);
+        final Function integrand = this.context.getFunction(integrandName);
+        if (integrand == null)
+            throw new IllegalStateException("the function '" + integrandName + "()' has not been defined");
+        if (!(integrand instanceof DoubleUnaryOperator))
+            throw new IllegalStateException("only functions with one argument can be integrated: '"
+                    + integrandName + "()'");
+
+        if (index.get() >= tokens.size() || !tokens.get(index.get()).isComma())
+            throw new IllegalStateException("expected a comma after the function to be integrated");
+        if (index.get() < tokens.size() - 1) index.set(index.get() + 1);
+        else throw new IllegalStateException("expected the bounds of the integral, but the expression ended");
+
+        final List<Node> args = this.argumentList(tokens, index);
+        if (index.get() >= tokens.size())
+            throw new IllegalStateException("expected a closing bracket after the argument list of '" + name
+                    + "()', but the expression ended");
+        if (!tokens.get(index.get()).isClosingBracket())
+            throw new IllegalStateException("expected a closing bracket, but got: '"
+                    + tokens.get(index.get()).getContent() + "'");
+        index.set(index.get() + 1);
+
+        if (args.size() != 2 && args.size() != 3)
+            throw new IllegalStateException("illegal number of arguments (usage: " + name
+                    + "(function, from, to[, tolerance]))");
+        double tolerance = Integrator.DEFAULT_TOLERANCE;
+        if (args.size() == 3) {
+            if (!args.get(2).isConstant())
+                throw new IllegalStateException("the tolerance of an integral has to be constant");
+            tolerance = args.get(2).constantValue();
+            if (!(tolerance > 0))
+                throw new IllegalStateException("the tolerance of an integral has to be positive");
+        }
+        return new Node(new Integral(integrand, tolerance), new LinkedList<>(args.subList(0, 2)));
+    }
+
+    private Node series(List<Token> tokens, MutableInteger index) {
+        final String name = this.symbol(tokens, index);
+        final String usage = " (usage: " + name + "(expression, variable, from, to))";
+        if (index.get() >= tokens.size() || !tokens.get(index.get()).isOpeningBracket())
+            throw new IllegalStateException("expected an opening bracket after '" + name + "'");
+        if (index.get() < tokens.size() - 1) index.set(index.get() + 1);
+        else throw new IllegalStateException("expected the expression of '" + name + "()', but the expression ended");
+
+        // the variable is declared after the expression, so it has to be looked up first
+        String variable = null;
+        for (int i = index.get(), brackets = 0; i < tokens.size() - 1 && brackets >= 0; ++i) {
+            final Token token = tokens.get(i);
+            if (token.isOpeningBracket()) ++brackets;
+            else if (token.isClosingBracket()) --brackets;
+            else if (brackets == 0 && token.isComma()) {
+                if (tokens.get(i + 1).isSymbol()) variable = tokens.get(i + 1).getContent();
+                break;
+            }
+        }
+        if (variable == null) throw new IllegalStateException("expected the variable of '" + name + "()'" + usage);
+        if (this.arguments.contains(variable))
+            throw new IllegalStateException("the variable '" + variable + "' of '" + name
+                    + "()' is already an argument");
+
+        final List<String> outerArguments = this.arguments;
+        final List<String> innerArguments = new ArrayList<>(outerArguments);
+        innerArguments.add(variable);
+        final Node expression;
+        this.arguments = innerArguments;
+        try {
+            expression = this.expression(tokens, index);
+        } finally {
+            this.arguments = outerArguments;
+        }
+        // skip ", <variable>,"
+        if (index.get() + 2 >= tokens.size() || !tokens.get(index.get()).isComma()
+                || !variable.equals(tokens.get(index.get() + 1).getContent()) || !tokens.get(index.get() + 2).isComma())
+            throw new IllegalStateException("expected the variable and the bounds of '" + name + "()'" + usage);
+        index.set(index.get() + 3);
+
+        final List<Node> bounds = this.argumentList(tokens, index);
+        if (index.get() >= tokens.size())
+            throw new IllegalStateException("expected a closing bracket after the argument list of '" + name
+                    + "()', but the expression ended");
+        if (!tokens.get(index.get()).isClosingBracket())
+            throw new IllegalStateException("expected a closing bracket, but got: '"
+                    + tokens.get(index.get()).getContent() + "'");
+        index.set(index.get() + 1);
+        if (bounds.size() != 2) throw new IllegalStateException("illegal number of arguments" + usage);
+
+        // the series gets the bounds and only those arguments of the enclosing function the expression uses;
+        // the variable is stored after them
+        final List<CompiledToken> compiled = expression.compile();
+        final int[] slots = new int[innerArguments.size()];
+        final List<Node> args = new LinkedList<>(bounds);
+        for (CompiledToken token : compiled)
+            if (token.type == CompiledToken.Type.ARGUMENT && token.index < outerArguments.size()
+                    && slots[token.index] == 0) {
+                slots[token.index] = args.size();
+                args.add(new Node(token.index));
+            }
+        slots[outerArguments.size()] = args.size();
+        final CompiledToken[] postfix = new CompiledToken[compiled.size()];
+        int i = 0;
+        for (CompiledToken token : compiled)
+            postfix[i++] = token.type == CompiledToken.Type.ARGUMENT ? CompiledToken.newArgument(slots[token.index])
+                                                                      : token;
+
+        double terms = 10.0; // just a guess if the bounds are not constant
+        if (bounds.get(0).isConstant() && bounds.get(1).isConstant())
+            terms = Math.max(0.0, Math.floor(bounds.get(1).constantValue())
+                    - Math.ceil(bounds.get(0).constantValue()) + 1.0);
+        final boolean product = Series.PRODUCT.equalsIgnoreCase(name);
+        return new Node(new Series(product, variable, args.size(), postfix, terms), args);
+    }
+
     private List<Node> argumentList(List<Token> tokens, MutableInteger index) {
         if (index.get() >= tokens.size())
             throw new IllegalStateException("expected an argument list, but the expression ended");
@@ -664,6 +959,27 @@ public final class Compiler {
     private Node expression(List<Token> tokens, MutableInteger index) {
         if (index.get() >= tokens.size())
             throw new IllegalStateException("expected an inner expression, but the expression ended");
+        final Node result = this.arithmetic(tokens, index);
+
+        if (index.get() >= tokens.size() || !tokens.get(index.get()).isBinaryOperator()) return result;
+        final BinaryOperation operation = BinaryOperation.ofSign(tokens.get(index.get()).getContent());
+        if (!operation.isComparison()) return result;
+
+        if (index.get() < tokens.size() - 1) index.set(index.get() + 1);
+        else throw new IllegalStateException("expected an expression to compare with, but the expression ended");
+        final Node comparison = new Node(operation.getOperation(), result, this.arithmetic(tokens, index));
+
+        // comparisons are not associative, so "a < b < c" would silently compare the result of "a < b" with c
+        if (index.get() < tokens.size() && tokens.get(index.get()).isBinaryOperator()
+                && BinaryOperation.ofSign(tokens.get(index.get()).getContent()).isComparison())
+            throw new IllegalStateException("comparisons cannot be chained (at '"
+                    + tokens.get(index.get()).getContent() + "'); use e.g. 'if(a < b, b < c, 0)' instead");
+        return comparison;
+    }
+
+    private Node arithmetic(List<Token> tokens, MutableInteger index) {
+        if (index.get() >= tokens.size())
+            throw new IllegalStateException("expected an arithmetic expression, but the expression ended");
         Node result = this.product(tokens, index);
 
         if (index.get() >= tokens.size()) return result;
@@ -733,6 +1049,10 @@ public final class Compiler {
         if (index.get() < tokens.size() - 1) index.set(index.get() + 1);
         else throw new IllegalStateException("expected a symbol list, but the expression ended");
 
+        if (Integral.NAME.equalsIgnoreCase(name) || Series.isSeries(name) || CONDITION.equalsIgnoreCase(name)
+                || PIECEWISE.equalsIgnoreCase(name))
+            throw new IllegalStateException("'" + name + "' is a reserved name");
+
         final List<String> symbolList = this.symbolList(tokens, index);
         if (index.get() >= tokens.size())
             throw new IllegalStateException("illegal end of expression after the argument list of '" + name + "()'");
@@ -757,9 +1077,15 @@ public final class Compiler {
             compiled = this.fallbackExpression(tokens, index, 0, symbolList);
         } else {
             this.arguments = symbolList;
-            final Node expression = this.expression(tokens, index);
-            this.arguments = Collections.emptyList();
-            compiled = expression.compile();
+            this.definedFunction = name;
+            this.definedArguments = symbolList.size();
+            try {
+                compiled = this.expression(tokens, index).compile();
+            } finally {
+                this.arguments = Collections.emptyList();
+                this.definedFunction = null;
+                this.recursion = null;
+            }
         }
 
         final int endIndex = index.get();
@@ -906,9 +1232,9 @@ public final class Compiler {
             this.context.removeFunctionIfPresent(f.getName());
             try {
                 this.definition(f.getFullExpression());
-            // the only case in which this can happen is if the user assigns a function to itself
+            // calls of a function in its own definition are recursive, so this can only happen if the function uses
+            // a constant or function that could not be recompiled
             // the function will be deleted and there will be an error when the function is recompiled
-            // the exception will be the same every time
             // it has to be caught so other usages of the function are found and deleted in this loop
             } catch (IllegalStateException e) {
                 this.context.changed();
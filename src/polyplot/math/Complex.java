@@ -0,0 +1,251 @@
+package polyplot.math;
+
+/**
+ * A mutable complex number.
+ * NOTE: Like {@link DoubleDouble}, all operations modify the object they are invoked on and return it, so no objects
+ *       have to be allocated while evaluating functions. The multivalued functions ({@link #log()}, {@link #sqrt()},
+ *       {@link #pow(Complex)}, ...) return their principal values.
+ * @author 5hir0kur0
+ */
+public final class Complex {
+    double re;
+    double im;
+
+    public Complex() {
+        this(0.0, 0.0);
+    }
+
+    public Complex(double re, double im) {
+        this.re = re;
+        this.im = im;
+    }
+
+    public Complex(Complex other) {
+        this(other.re, other.im);
+    }
+
+    public double getRe() {
+        return this.re;
+    }
+
+    public double getIm() {
+        return this.im;
+    }
+
+    public Complex set(double re) {
+        return this.set(re, 0.0);
+    }
+
+    public Complex set(double re, double im) {
+        this.re = re;
+        this.im = im;
+        return this;
+    }
+
+    public Complex set(Complex other) {
+        return this.set(other.re, other.im);
+    }
+
+    /**
+     * @return the absolute value {@code |z|}
+     */
+    public double modulus() {
+        return Math.hypot(this.re, this.im);
+    }
+
+    /**
+     * @return the argument of the number in the interval {@code (-pi, pi]}
+     */
+    public double argument() {
+        return Math.atan2(this.im, this.re);
+    }
+
+    public boolean isReal() {
+        return this.im == 0.0;
+    }
+
+    public boolean isNaN() {
+        return this.re != this.re || this.im != this.im;
+    }
+
+    public Complex add(double b) {
+        this.re += b;
+        return this;
+    }
+
+    public Complex add(Complex b) {
+        return this.set(this.re + b.re, this.im + b.im);
+    }
+
+    public Complex subtract(Complex b) {
+        return this.set(this.re - b.re, this.im - b.im);
+    }
+
+    public Complex negate() {
+        return this.set(-this.re, -this.im);
+    }
+
+    public Complex multiply(double b) {
+        return this.set(this.re * b, this.im * b);
+    }
+
+    public Complex multiply(Complex b) {
+        if (this.im == 0.0 && b.im == 0.0) return this.set(this.re * b.re);
+        return this.set(this.re * b.re - this.im * b.im, this.re * b.im + this.im * b.re);
+    }
+
+    public Complex divide(Complex b) {
+        if (this.im == 0.0 && b.im == 0.0) return this.set(this.re / b.re);
+        // Smith's algorithm (avoids overflow of |b|^2)
+        if (Math.abs(b.re) >= Math.abs(b.im)) {
+            final double r = b.im / b.re, d = b.re + b.im * r;
+            return this.set((this.re + this.im * r) / d, (this.im - this.re * r) / d);
+        } else {
+            final double r = b.re / b.im, d = b.re * r + b.im;
+            return this.set((this.re * r + this.im) / d, (this.im * r - this.re) / d);
+        }
+    }
+
+    /**
+     * Raises this number to the given power ({@code exp(exponent * log(this))}). Real powers of non-negative real
+     * numbers and small integral exponents are computed directly to avoid rounding errors.
+     * @param exponent the exponent; must not be {@code null}
+     * @return this object
+     */
+    public Complex pow(Complex exponent) {
+        if (exponent.im == 0.0) {
+            final double e = exponent.re;
+            if (this.im == 0.0 && (this.re >= 0.0 || e == Math.rint(e))) return this.set(Math.pow(this.re, e));
+            if (e == Math.rint(e) && Math.abs(e) <= 64) {
+                final double bRe = this.re, bIm = this.im;
+                final Complex base = new Complex(bRe, bIm);
+                this.set(1.0);
+                for (long n = Math.abs((long) e); n > 0; n >>= 1) {
+                    if ((n & 1) != 0) this.multiply(base);
+                    if (n > 1) base.multiply(base);
+                }
+                if (e < 0) return this.set(new Complex(1.0, 0.0).divide(this));
+                return this;
+            }
+        }
+        if (this.re == 0.0 && this.im == 0.0)
+            return this.set(exponent.re > 0.0 ? 0.0 : Double.NaN);
+        return this.log().multiply(exponent).exp();
+    }
+
+    /**
+     * Computes the remainder of the truncated division like {@code %} does; only defined for real numbers.
+     * @param divisor the divisor; must not be {@code null}
+     * @return this object
+     */
+    public Complex remainder(Complex divisor) {
+        if (this.im != 0.0 || divisor.im != 0.0) return this.set(Double.NaN, Double.NaN);
+        return this.set(this.re % divisor.re);
+    }
+
+    public Complex exp() {
+        if (this.im == 0.0) return this.set(Math.exp(this.re));
+        final double m = Math.exp(this.re);
+        return this.set(m * Math.cos(this.im), m * Math.sin(this.im));
+    }
+
+    public Complex expm1() {
+        if (this.im == 0.0) return this.set(Math.expm1(this.re));
+        return this.exp().add(-1.0);
+    }
+
+    public Complex log() {
+        if (this.im == 0.0 && this.re >= 0.0) return this.set(Math.log(this.re));
+        return this.set(Math.log(this.modulus()), this.argument());
+    }
+
+    public Complex log10() {
+        if (this.im == 0.0 && this.re >= 0.0) return this.set(Math.log10(this.re));
+        return this.log().multiply(1 / Math.log(10));
+    }
+
+    public Complex log1p() {
+        if (this.im == 0.0 && this.re >= -1.0) return this.set(Math.log1p(this.re));
+        return this.add(1.0).log();
+    }
+
+    public Complex sqrt() {
+        if (this.im == 0.0)
+            return this.re >= 0.0 ? this.set(Math.sqrt(this.re)) : this.set(0.0, Math.sqrt(-this.re));
+        final double m = this.modulus();
+        final double a = Math.sqrt((m + Math.abs(this.re)) / 2);
+        final double b = this.im / (2 * a);
+        return this.re >= 0.0 ? this.set(a, b) : this.set(Math.abs(b), Math.copySign(a, this.im));
+    }
+
+    public Complex cbrt() {
+        if (this.im == 0.0) return this.set(Math.cbrt(this.re));
+        final double m = Math.cbrt(this.modulus()), a = this.argument() / 3;
+        return this.set(m * Math.cos(a), m * Math.sin(a));
+    }
+
+    public Complex sin() {
+        if (this.im == 0.0) return this.set(Math.sin(this.re));
+        return this.set(Math.sin(this.re) * Math.cosh(this.im), Math.cos(this.re) * Math.sinh(this.im));
+    }
+
+    public Complex cos() {
+        if (this.im == 0.0) return this.set(Math.cos(this.re));
+        return this.set(Math.cos(this.re) * Math.cosh(this.im), -Math.sin(this.re) * Math.sinh(this.im));
+    }
+
+    public Complex tan() {
+        if (this.im == 0.0) return this.set(Math.tan(this.re));
+        final Complex cos = new Complex(this).cos();
+        return this.sin().divide(cos);
+    }
+
+    public Complex sinh() {
+        if (this.im == 0.0) return this.set(Math.sinh(this.re));
+        return this.set(Math.sinh(this.re) * Math.cos(this.im), Math.cosh(this.re) * Math.sin(this.im));
+    }
+
+    public Complex cosh() {
+        if (this.im == 0.0) return this.set(Math.cosh(this.re));
+        return this.set(Math.cosh(this.re) * Math.cos(this.im), Math.sinh(this.re) * Math.sin(this.im));
+    }
+
+    /**
+     * {@code asin(z) = -i * log(iz + sqrt(1 - z^2))}
+     * @return this object
+     */
+    public Complex asin() {
+        if (this.im == 0.0 && Math.abs(this.re) <= 1.0) return this.set(Math.asin(this.re));
+        final double zRe = this.re, zIm = this.im;
+        this.multiply(this).negate().add(1.0).sqrt().add(new Complex(-zIm, zRe)).log();
+        return this.set(this.im, -this.re);
+    }
+
+    /**
+     * {@code acos(z) = pi / 2 - asin(z)}
+     * @return this object
+     */
+    public Complex acos() {
+        if (this.im == 0.0 && Math.abs(this.re) <= 1.0) return this.set(Math.acos(this.re));
+        return this.asin().negate().add(Math.PI / 2);
+    }
+
+    /**
+     * {@code atan(z) = i / 2 * (log(1 - iz) - log(1 + iz))}
+     * @return this object
+     */
+    public Complex atan() {
+        if (this.im == 0.0) return this.set(Math.atan(this.re));
+        final Complex a = new Complex(1 + this.im, -this.re).log();
+        final Complex b = new Complex(1 - this.im, this.re).log();
+        a.subtract(b);
+        return this.set(-a.im / 2, a.re / 2);
+    }
+
+    @Override
+    public String toString() {
+        if (this.im == 0.0) return Double.toString(this.re);
+        if (this.re == 0.0) return this.im + "i";
+        return this.re + (this.im < 0 || this.im != this.im ? " - " : " + ") + Math.abs(this.im) + "i";
+    }
+}
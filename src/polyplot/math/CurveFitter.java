@@ -0,0 +1,282 @@
+package polyplot.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * Fits the parameters of a function {@code f(x, a, b, ...)} to a {@link DataSeries} with the Levenberg-Marquardt
+ * method (least squares).
+ * NOTE: Every iteration needs the residuals and the Jacobian matrix (the derivatives with respect to the parameters,
+ *       approximated by forward differences) at all data points, which is the expensive part for large series. The
+ *       points are split into chunks that are processed on the common fork/join pool. Every worker evaluates its own
+ *       copy of the function with stored arguments and accumulates the sums of the normal equations
+ *       ({@code JᵀJ}, {@code Jᵀr} and the sum of the squared residuals) of a chunk into a preallocated row, so no
+ *       objects are allocated per point or per iteration. The rows are added in a fixed order afterwards, so the
+ *       results do not depend on the scheduling. The normal equations are solved with a Cholesky decomposition.
+ * @author 5hir0kur0
+ */
+public final class CurveFitter {
+    public final static int DEFAULT_MAX_ITERATIONS = 200;
+
+    private final static int CHUNK_SIZE = 1 << 14;
+    private final static double INITIAL_LAMBDA = 1e-3;
+    private final static double MAX_LAMBDA = 1e16; // the step is negligible then, so the fit cannot be improved
+    private final static double TOLERANCE = 1e-12; // relative change of the sum of squares or of the parameters
+    private final static double STEP = Math.sqrt(Math.ulp(1.0)); // relative step of the finite differences
+
+    private final Function snapshot; // is never evaluated, so the workers can copy it concurrently
+    private final int parameters;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    /**
+     * The result of a fit.
+     */
+    public final static class Result {
+        public final double[] parameters;
+        public final double[] errors; // the standard errors of the parameters; NaN if there are too few points
+        public final double sumOfSquares; // of the residuals
+        public final int iterations;
+        public final boolean converged; // false if the maximum number of iterations was reached
+
+        Result(double[] parameters, double[] errors, double sumOfSquares, int iterations, boolean converged) {
+            this.parameters = parameters;
+            this.errors = errors;
+            this.sumOfSquares = sumOfSquares;
+            this.iterations = iterations;
+            this.converged = converged;
+        }
+    }
+
+    /**
+     * The state of a worker thread.
+     */
+    private final static class Worker {
+        final Function f;
+        final double[] args; // x and the parameters
+        final double[] jacobian; // of the current point
+
+        Worker(Function f, int parameters) {
+            this.f = f;
+            // compiled functions are evaluated with their stored arguments
+            this.args = f instanceof ImpureFunction ? ((ImpureFunction) f).args : new double[parameters + 1];
+            this.jacobian = new double[parameters];
+        }
+
+        double of(double x) {
+            this.args[0] = x;
+            return this.f instanceof ImpureFunction ? ((ImpureFunction) this.f).ofStoredArgs() : this.f.of(this.args);
+        }
+    }
+
+    /**
+     * Creates a new {@code CurveFitter}.
+     * @param model a function of at least two arguments; the first one is {@code x} and the others are the parameters
+     */
+    public CurveFitter(Function model) {
+        if (Objects.requireNonNull(model, "function must not be null").getNumberOfArguments() < 2)
+            throw new IllegalArgumentException("a function with parameters is needed: " + model.getName());
+        this.snapshot = model.copy();
+        this.parameters = model.getNumberOfArguments() - 1;
+    }
+
+    /**
+     * Returns the names of the parameters of a user-defined function (all arguments except the first one).
+     * @param f a user-defined function
+     * @return the names in the order of the arguments
+     */
+    public static List<String> getParameterNames(Function f) {
+        final String expression = f.getFullExpression();
+        final int open = expression.indexOf('('), close = expression.indexOf(')');
+        if (!f.isUserDefined() || open < 0 || close < open)
+            throw new IllegalArgumentException("the parameters of '" + f.getName() + "' are unknown");
+        final List<String> result = new ArrayList<>();
+        for (String name : expression.substring(open + 1, close).split(","))
+            result.add(name.trim());
+        return Collections.unmodifiableList(result.subList(1, result.size()));
+    }
+
+    public int getNumberOfParameters() {
+        return this.parameters;
+    }
+
+    /**
+     * Fits the parameters to the data. The calling thread blocks until the fit is finished.
+     * @param data the data points; must not be {@code null}
+     * @param initial the initial values of the parameters
+     * @param maxIterations the maximum number of iterations; must be positive
+     * @return the result or {@code null} if the fit was cancelled
+     */
+    public Result fit(DataSeries data, double[] initial, int maxIterations) {
+        final int n = Objects.requireNonNull(data, "data must not be null").size(), p = this.parameters;
+        if (Objects.requireNonNull(initial, "initial parameters must not be null").length != p)
+            throw new IllegalArgumentException("illegal number of parameters: " + initial.length);
+        if (maxIterations < 1) throw new IllegalArgumentException("maximum number of iterations must be positive");
+        if (n == 0) throw new IllegalArgumentException("there are no data points");
+
+        final ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> new Worker(this.snapshot.copy(), p));
+        // every chunk writes JᵀJ (row-major, lower triangle), Jᵀr and the sum of squares into its own row
+        final double[][] partials = new double[(n + CHUNK_SIZE - 1) / CHUNK_SIZE][p * p + p + 1];
+        final double[] normal = new double[p * p + p + 1], system = new double[p * p], delta = new double[p];
+        final double[] steps = new double[p];
+
+        double[] current = initial.clone(), trial = new double[p];
+        double sum = this.pass(data, current, steps, true, workers, partials, normal);
+        if (this.cancelled.get()) return null;
+        if (sum != sum || Double.isInfinite(sum))
+            throw new IllegalArgumentException("the function is undefined at some data points "
+                    + "for the initial parameters");
+        double lambda = INITIAL_LAMBDA;
+        int iteration = 0;
+        boolean converged = sum == 0.0;
+        while (!converged && iteration < maxIterations) {
+            if (this.cancelled.get()) return null;
+            ++iteration;
+            // (JᵀJ + λ diag(JᵀJ)) δ = Jᵀr
+            for (int i = 0; i < p; ++i) {
+                for (int j = 0; j <= i; ++j)
+                    system[i * p + j] = system[j * p + i] = normal[i * p + j];
+                system[i * p + i] = normal[i * p + i] == 0.0 ? lambda : normal[i * p + i] * (1 + lambda);
+            }
+            System.arraycopy(normal, p * p, delta, 0, p);
+            if (!choleskySolve(system, delta, p)) {
+                lambda *= 10;
+                if (lambda > MAX_LAMBDA) break;
+                continue;
+            }
+            boolean negligible = true;
+            for (int i = 0; i < p; ++i) {
+                trial[i] = current[i] + delta[i];
+                if (Math.abs(delta[i]) > TOLERANCE * (Math.abs(current[i]) + TOLERANCE)) negligible = false;
+            }
+            final double trialSum = this.pass(data, trial, steps, false, workers, partials, null);
+            if (this.cancelled.get()) return null;
+            if (trialSum < sum) {
+                converged = negligible || sum - trialSum <= TOLERANCE * sum;
+                final double[] tmp = current;
+                current = trial;
+                trial = tmp;
+                sum = this.pass(data, current, steps, true, workers, partials, normal);
+                lambda = Math.max(lambda / 10, Math.ulp(1.0));
+            } else {
+                converged = negligible; // a local minimum
+                lambda *= 10;
+                if (lambda > MAX_LAMBDA) converged = true;
+            }
+        }
+
+        if (this.cancelled.get()) return null;
+        // the covariance matrix is (JᵀJ)⁻¹ times the variance of the residuals
+        final double[] errors = new double[p];
+        final double variance = n > p ? sum / (n - p) : Double.NaN;
+        for (int k = 0; k < p; ++k) {
+            for (int i = 0; i < p; ++i)
+                for (int j = 0; j <= i; ++j)
+                    system[i * p + j] = system[j * p + i] = normal[i * p + j];
+            Arrays.fill(delta, 0.0);
+            delta[k] = 1.0;
+            errors[k] = choleskySolve(system, delta, p) ? Math.sqrt(delta[k] * variance) : Double.NaN;
+        }
+        return new Result(current, errors, sum, iteration, converged);
+    }
+
+    /**
+     * Evaluates the function at all data points.
+     * @param jacobian if {@code true}, the normal equations are computed as well
+     * @param normal the sums of all chunks are stored here if {@code jacobian} is {@code true}
+     * @return the sum of the squared residuals (infinite if the function is undefined at any point)
+     */
+    private double pass(DataSeries data, double[] parameters, double[] steps, boolean jacobian,
+                        ThreadLocal<Worker> workers, double[][] partials, double[] normal) {
+        final int n = data.size(), p = this.parameters, sum = p * p + p;
+        if (jacobian)
+            for (int i = 0; i < p; ++i) {
+                final double h = STEP * Math.max(Math.abs(parameters[i]), 1.0);
+                steps[i] = (parameters[i] + h) - parameters[i]; // exactly representable
+            }
+        IntStream.range(0, partials.length).parallel().forEach(chunk -> {
+            final double[] row = partials[chunk];
+            Arrays.fill(row, 0.0);
+            if (this.cancelled.get()) return;
+            final Worker w = workers.get();
+            final double[] args = w.args, derivatives = w.jacobian;
+            System.arraycopy(parameters, 0, args, 1, p);
+            for (int k = chunk * CHUNK_SIZE, stop = Math.min(n, k + CHUNK_SIZE); k < stop; ++k) {
+                final double x = data.x[k], value = w.of(x), residual = data.y[k] - value;
+                if (residual != residual || Double.isInfinite(residual)) {
+                    row[sum] = Double.POSITIVE_INFINITY;
+                    return;
+                }
+                row[sum] += residual * residual;
+                if (!jacobian) continue;
+                for (int i = 0; i < p; ++i) {
+                    args[i + 1] = parameters[i] + steps[i];
+                    derivatives[i] = (w.of(x) - value) / steps[i];
+                    args[i + 1] = parameters[i];
+                }
+                for (int i = 0; i < p; ++i) {
+                    final double d = derivatives[i];
+                    for (int j = 0; j <= i; ++j) row[i * p + j] += d * derivatives[j];
+                    row[p * p + i] += d * residual;
+                }
+            }
+        });
+        double result = 0.0;
+        if (jacobian) Arrays.fill(normal, 0.0);
+        for (double[] row : partials) {
+            result += row[sum];
+            if (jacobian) for (int i = 0; i < sum; ++i) normal[i] += row[i];
+        }
+        // derivatives that are not finite would make the normal equations unsolvable
+        if (jacobian) for (int i = 0; i < sum; ++i) if (normal[i] != normal[i] || Double.isInfinite(normal[i]))
+            return Double.POSITIVE_INFINITY;
+        return result;
+    }
+
+    /**
+     * Solves {@code A x = b} for a symmetric positive definite matrix {@code A}.
+     * @param a the matrix (row-major); it is overwritten with its decomposition
+     * @param b the right-hand side; it is overwritten with the solution
+     * @return {@code false} if the matrix is not positive definite
+     */
+    static boolean choleskySolve(double[] a, double[] b, int n) {
+        for (int j = 0; j < n; ++j) {
+            double d = a[j * n + j];
+            for (int k = 0; k < j; ++k) d -= a[j * n + k] * a[j * n + k];
+            if (!(d > 0) || Double.isInfinite(d)) return false;
+            d = Math.sqrt(d);
+            a[j * n + j] = d;
+            for (int i = j + 1; i < n; ++i) {
+                double s = a[i * n + j];
+                for (int k = 0; k < j; ++k) s -= a[i * n + k] * a[j * n + k];
+                a[i * n + j] = s / d;
+            }
+        }
+        for (int i = 0; i < n; ++i) { // L y = b
+            double s = b[i];
+            for (int k = 0; k < i; ++k) s -= a[i * n + k] * b[k];
+            b[i] = s / a[i * n + i];
+        }
+        for (int i = n - 1; i >= 0; --i) { // Lᵀ x = y
+            double s = b[i];
+            for (int k = i + 1; k < n; ++k) s -= a[k * n + i] * b[k];
+            b[i] = s / a[i * n + i];
+        }
+        return true;
+    }
+
+    /**
+     * Cancels a running fit ({@link #fit(DataSeries, double[], int)} returns {@code null} then).
+     */
+    public void cancel() {
+        this.cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled.get();
+    }
+}
@@ -0,0 +1,117 @@
+package polyplot.math;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A series of data points {@code (x, y)}, e.g. measurements that a function is fitted to (see {@link CurveFitter}).
+ * NOTE: The coordinates are stored in two primitive arrays, so series with millions of points do not need more memory
+ *       than necessary and can be processed in chunks without any indirection.
+ * @author 5hir0kur0
+ */
+public final class DataSeries {
+    private final static int INITIAL_CAPACITY = 1024;
+
+    final double[] x;
+    final double[] y;
+    private final int skippedLines;
+
+    private DataSeries(double[] x, double[] y, int skippedLines) {
+        this.x = x;
+        this.y = y;
+        this.skippedLines = skippedLines;
+    }
+
+    /**
+     * Creates a series from the given coordinates.
+     * @param x the x values; must not be {@code null}
+     * @param y the y values; must have the same length as {@code x}
+     * @return the series (the arrays are copied)
+     */
+    public static DataSeries of(double[] x, double[] y) {
+        if (Objects.requireNonNull(x, "x values must not be null").length
+                != Objects.requireNonNull(y, "y values must not be null").length)
+            throw new IllegalArgumentException("the number of x and y values differs");
+        return new DataSeries(x.clone(), y.clone(), 0);
+    }
+
+    /**
+     * Reads a series from a text file with one point per line (e.g. a CSV file). The first two numbers of a line are
+     * its x and y values; they can be separated by commas, semicolons or whitespace. Lines that do not start with two
+     * finite numbers (e.g. headers, comments or empty lines) are skipped.
+     * @param file the file; must not be {@code null}
+     * @return the series
+     * @throws IOException if the file cannot be read
+     */
+    public static DataSeries read(Path file) throws IOException {
+        double[] xs = new double[INITIAL_CAPACITY], ys = new double[INITIAL_CAPACITY];
+        int size = 0, skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Objects.requireNonNull(file), StandardCharsets.UTF_8)) {
+            final double[] point = new double[2];
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!parsePoint(line, point)) {
+                    ++skipped;
+                    continue;
+                }
+                if (size == xs.length) {
+                    xs = Arrays.copyOf(xs, 2 * size);
+                    ys = Arrays.copyOf(ys, 2 * size);
+                }
+                xs[size] = point[0];
+                ys[size] = point[1];
+                ++size;
+            }
+        }
+        return new DataSeries(Arrays.copyOf(xs, size), Arrays.copyOf(ys, size), skipped);
+    }
+
+    /**
+     * @param point the first two numbers of the line are stored here
+     * @return {@code false} if the line does not start with two finite numbers
+     */
+    private static boolean parsePoint(String line, double[] point) {
+        int start = 0;
+        for (int i = 0; i < 2; ++i) {
+            while (start < line.length() && isSeparator(line.charAt(start))) ++start;
+            int end = start;
+            while (end < line.length() && !isSeparator(line.charAt(end))) ++end;
+            if (start == end) return false;
+            try {
+                point[i] = Double.parseDouble(line.substring(start, end));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (point[i] != point[i] || Double.isInfinite(point[i])) return false;
+            start = end;
+        }
+        return true;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ',' || c == ';' || Character.isWhitespace(c);
+    }
+
+    public int size() {
+        return this.x.length;
+    }
+
+    public double getX(int index) {
+        return this.x[index];
+    }
+
+    public double getY(int index) {
+        return this.y[index];
+    }
+
+    /**
+     * @return the number of lines that were skipped when the series was read
+     */
+    public int getSkippedLines() {
+        return this.skippedLines;
+    }
+}
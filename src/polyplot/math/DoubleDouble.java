@@ -0,0 +1,261 @@
+package polyplot.math;
+
+import java.math.BigDecimal;
+
+/**
+ * A mutable extended-precision number that is stored as the unevaluated sum of two {@code double}s
+ * ({@code hi + lo}, with {@code |lo| <= ulp(hi) / 2}). This gives roughly 32 significant decimal digits, which is
+ * enough to address single pixels far beyond the zoom level at which plain {@code double} coordinates collapse.
+ * NOTE: All operations modify the object they are invoked on and return it, so no objects have to be allocated in
+ *       the hot path. The algorithms are the well known ones by Dekker and Knuth (see e.g. the QD library).
+ *       Deep-zoom plots evaluate the whole compiled expression with these numbers (see
+ *       {@link PureFunction#deepOf(DoubleDouble, DoubleDouble)}) instead of evaluating it with {@code double}s
+ *       relative to a reference point: A perturbation scheme would need a derivative of every user-defined function,
+ *       while this works for all of them. The price is speed (about three times slower than
+ *       {@link PureFunction#fastOf(double)}, so it is only used while the deep zoom is active) and accuracy: Only
+ *       {@code + - * /}, {@code %} and {@code ^} with small integral exponents are exact to about 32 digits; other
+ *       powers and native functions like {@code sin()} are corrected to first order and all other operations are
+ *       rounded to {@code double}.
+ * @author 5hir0kur0
+ */
+public final class DoubleDouble {
+    private final static double SPLITTER = 134217729.0; // 2^27 + 1
+
+    double hi;
+    double lo;
+
+    public DoubleDouble() {
+        this(0.0, 0.0);
+    }
+
+    public DoubleDouble(double value) {
+        this(value, 0.0);
+    }
+
+    public DoubleDouble(double hi, double lo) {
+        this.set(hi, lo);
+    }
+
+    public DoubleDouble(DoubleDouble other) {
+        this(other.hi, other.lo);
+    }
+
+    public double getHi() {
+        return this.hi;
+    }
+
+    public double getLo() {
+        return this.lo;
+    }
+
+    /**
+     * @return the value rounded to the nearest {@code double}
+     */
+    public double doubleValue() {
+        return this.hi + this.lo;
+    }
+
+    /**
+     * @return the exact value of this number as a {@link BigDecimal}; {@code hi} and {@code lo} must be finite
+     */
+    public BigDecimal bigDecimalValue() {
+        return new BigDecimal(this.hi).add(new BigDecimal(this.lo));
+    }
+
+    public DoubleDouble set(double value) {
+        this.hi = value;
+        this.lo = 0.0;
+        return this;
+    }
+
+    /**
+     * Sets the value to {@code hi + lo}.
+     * NOTE: {@code |hi|} has to be greater than or equal to {@code |lo|} (or {@code hi} has to be zero).
+     * @param hi the higher part
+     * @param lo the lower part
+     * @return this object
+     */
+    public DoubleDouble set(double hi, double lo) {
+        return this.normalize(hi, lo);
+    }
+
+    public DoubleDouble set(DoubleDouble other) {
+        this.hi = other.hi;
+        this.lo = other.lo;
+        return this;
+    }
+
+    public boolean isNaN() {
+        return this.hi != this.hi;
+    }
+
+    public boolean isInfinite() {
+        return this.hi == Double.POSITIVE_INFINITY || this.hi == Double.NEGATIVE_INFINITY;
+    }
+
+    public DoubleDouble add(double b) {
+        final double s = this.hi + b;
+        final double bb = s - this.hi;
+        double e = (this.hi - (s - bb)) + (b - bb);
+        e += this.lo;
+        return this.normalize(s, e);
+    }
+
+    public DoubleDouble add(DoubleDouble b) {
+        return this.add(b.hi, b.lo);
+    }
+
+    private DoubleDouble add(double bHi, double bLo) {
+        double s = this.hi + bHi;
+        double v = s - this.hi;
+        double e = (this.hi - (s - v)) + (bHi - v);
+        final double t = this.lo + bLo;
+        v = t - this.lo;
+        final double f = (this.lo - (t - v)) + (bLo - v);
+        e += t;
+        final double s2 = s + e;
+        e = e - (s2 - s);
+        e += f;
+        return this.normalize(s2, e);
+    }
+
+    public DoubleDouble subtract(double b) {
+        return this.add(-b);
+    }
+
+    public DoubleDouble subtract(DoubleDouble b) {
+        return this.add(-b.hi, -b.lo);
+    }
+
+    /**
+     * Raises this number to the given power. Small integral exponents are computed by repeated multiplication,
+     * all other exponents by {@link Math#pow(double, double)} plus a first-order correction for the lower parts.
+     * @param exponent the exponent; must not be {@code null}
+     * @return this object
+     */
+    public DoubleDouble pow(DoubleDouble exponent) {
+        final double e = exponent.hi;
+        if (exponent.lo == 0.0 && e == Math.rint(e) && Math.abs(e) <= 1024) {
+            final DoubleDouble base = new DoubleDouble(this);
+            this.set(1.0);
+            for (long n = Math.abs((long) e); n > 0; n >>= 1) {
+                if ((n & 1) != 0) this.multiply(base);
+                if (n > 1) base.multiply(base);
+            }
+            if (e < 0) return this.set(new DoubleDouble(1.0).divide(this));
+            return this;
+        }
+        final double r = Math.pow(this.hi, e);
+        if (this.hi > 0.0 && r == r && r != Double.POSITIVE_INFINITY && r != 0.0)
+            return this.set(r, r * (e * this.lo / this.hi + Math.log(this.hi) * exponent.lo));
+        return this.set(r);
+    }
+
+    /**
+     * Computes the remainder of the truncated division of this number by the argument (just like {@code %}).
+     * @param divisor the divisor; must not be {@code null}
+     * @return this object
+     */
+    public DoubleDouble remainder(DoubleDouble divisor) {
+        final DoubleDouble quotient = new DoubleDouble(this).divide(divisor);
+        if (quotient.isNaN() || quotient.isInfinite()) return this.set(Double.NaN);
+        final double nHi = quotient.hi < 0 ? Math.ceil(quotient.hi) : Math.floor(quotient.hi);
+        final double nLo = nHi != quotient.hi ? 0.0 : quotient.hi < 0 ? Math.ceil(quotient.lo) : Math.floor(quotient.lo);
+        return this.subtract(new DoubleDouble(nHi, nLo).multiply(divisor));
+    }
+
+    public DoubleDouble negate() {
+        this.hi = -this.hi;
+        this.lo = -this.lo;
+        return this;
+    }
+
+    public DoubleDouble multiply(double b) {
+        final double p = this.hi * b;
+        double e = productError(this.hi, b, p);
+        e += this.lo * b;
+        return this.normalize(p, e);
+    }
+
+    public DoubleDouble multiply(DoubleDouble b) {
+        final double p = this.hi * b.hi;
+        double e = productError(this.hi, b.hi, p);
+        e += this.hi * b.lo + this.lo * b.hi;
+        return this.normalize(p, e);
+    }
+
+    public DoubleDouble divide(DoubleDouble b) {
+        return this.divide(b.hi, b.lo);
+    }
+
+    public DoubleDouble divide(double b) {
+        return this.divide(b, 0.0);
+    }
+
+    private DoubleDouble divide(double bHi, double bLo) {
+        final double q1 = this.hi / bHi;
+        if (q1 != q1 || q1 == Double.POSITIVE_INFINITY || q1 == Double.NEGATIVE_INFINITY) return this.set(q1);
+        // r = this - q1 * b
+        final double p = q1 * bHi;
+        final double pe = productError(q1, bHi, p) + q1 * bLo;
+        double s = this.hi - p;
+        double v = s - this.hi;
+        double e = (this.hi - (s - v)) + (-p - v);
+        e += this.lo - pe;
+        final double q2 = (s + e) / bHi;
+        return this.normalize(q1, q2);
+    }
+
+    /**
+     * Compares the values of two numbers.
+     * @param other the other number; must not be {@code null}
+     * @return a negative number, zero or a positive number if this number is smaller, equal or greater
+     */
+    public int compareTo(DoubleDouble other) {
+        if (this.hi != other.hi) return this.hi < other.hi ? -1 : 1;
+        if (this.lo != other.lo) return this.lo < other.lo ? -1 : 1;
+        return 0;
+    }
+
+    private DoubleDouble normalize(double s, double e) {
+        final double r = s + e;
+        if (r != r || r == Double.POSITIVE_INFINITY || r == Double.NEGATIVE_INFINITY) {
+            this.hi = r;
+            this.lo = 0.0;
+        } else {
+            this.lo = e - (r - s);
+            this.hi = r;
+        }
+        return this;
+    }
+
+    /**
+     * Computes the rounding error of {@code a * b} without a fused multiply-add (Dekker's algorithm).
+     */
+    static double productError(double a, double b, double p) {
+        double t = SPLITTER * a;
+        final double aHi = t - (t - a);
+        final double aLo = a - aHi;
+        t = SPLITTER * b;
+        final double bHi = t - (t - b);
+        final double bLo = b - bHi;
+        return ((aHi * bHi - p) + aHi * bLo + aLo * bHi) + aLo * bLo;
+    }
+
+    /**
+     * Converts a {@link BigDecimal} to the nearest {@code DoubleDouble}.
+     * @param value the value; must not be {@code null}
+     * @return a new {@code DoubleDouble}
+     */
+    public static DoubleDouble valueOf(BigDecimal value) {
+        final double hi = value.doubleValue();
+        if (hi != hi || hi == Double.POSITIVE_INFINITY || hi == Double.NEGATIVE_INFINITY) return new DoubleDouble(hi);
+        return new DoubleDouble(hi, value.subtract(new BigDecimal(hi)).doubleValue());
+    }
+
+    @Override
+    public String toString() {
+        if (this.isNaN() || this.isInfinite()) return Double.toString(this.hi);
+        return this.bigDecimalValue().round(new java.math.MathContext(32)).toString();
+    }
+}
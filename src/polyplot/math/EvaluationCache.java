@@ -0,0 +1,138 @@
+package polyplot.math;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache for the values of a {@link PureFunction}, keyed on the (exact or quantized) argument.
+ * NOTE: The cache uses open addressing with linear probing on primitive arrays, so no boxing is needed. If there is
+ *       no free slot near the slot of a key, the old value in that slot is overwritten. The cache is cleared in O(1)
+ *       by incrementing a stamp instead of clearing the arrays. Just like functions, it is not thread-safe.
+ * @author 5hir0kur0
+ * @see PureFunction#cachedOf(double)
+ */
+public final class EvaluationCache {
+    private final static int MAX_PROBES = 8;
+
+    private final long[] keys;
+    final double[] values; // accessed directly by PureFunction
+    private final int[] stamps; // a slot is only used if its stamp is the current one
+    private final int shift;
+    private int stamp = 1;
+    private int size = 0;
+
+    // the state the cached values are valid for (see validate())
+    private long modifications = -1;
+    private double quantum = Double.NaN;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    EvaluationCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("cache capacity must be positive");
+        final int bits = Math.max(3, 32 - Integer.numberOfLeadingZeros(capacity - 1));
+        if (bits > 30) throw new IllegalArgumentException("cache capacity too large: " + capacity);
+        this.keys = new long[1 << bits];
+        this.values = new double[1 << bits];
+        this.stamps = new int[1 << bits];
+        this.shift = 64 - bits;
+    }
+
+    /**
+     * Clears the cache if the function's offsets were modified or the quantum changed since the values were stored.
+     * @param modifications the current number of offset modifications
+     * @param quantum the quantum the keys are quantized with (or 0 for exact keys)
+     */
+    void validate(long modifications, double quantum) {
+        if (modifications == this.modifications && Double.compare(quantum, this.quantum) == 0) return;
+        this.modifications = modifications;
+        this.quantum = quantum;
+        this.clear();
+    }
+
+    /**
+     * Looks up the given key.
+     * @param key the key (e.g. the raw bits of the argument)
+     * @return the slot of the key if it is present or the bitwise complement of the slot it should be stored in
+     */
+    int find(long key) {
+        final int slot = this.probe(key);
+        if (slot >= 0) ++this.hits;
+        else ++this.misses;
+        return slot;
+    }
+
+    /**
+     * Like {@link #find(long)}, but the lookup is not counted.
+     */
+    private int probe(long key) {
+        final int home = (int) ((key * 0x9E3779B97F4A7C15L) >>> this.shift);
+        final int mask = this.keys.length - 1;
+        for (int i = 0, slot = home; i < MAX_PROBES; ++i, slot = (slot + 1) & mask) {
+            if (this.stamps[slot] != this.stamp) return ~slot;
+            if (this.keys[slot] == key) return slot;
+        }
+        return ~home; // evict
+    }
+
+    /**
+     * Stores a value.
+     * @param slot the slot returned by {@link #find(long)} (complemented back)
+     */
+    void put(int slot, long key, double value) {
+        if (this.stamps[slot] != this.stamp) {
+            this.stamps[slot] = this.stamp;
+            ++this.size;
+        }
+        this.keys[slot] = key;
+        this.values[slot] = value;
+    }
+
+    /**
+     * Stores a value without a slot from {@link #find(long)}, e.g. if the slot might have been used while the value
+     * was computed (by recursive calls). The key is looked up again, but the lookup is not counted, and a value that
+     * is already present is overwritten.
+     */
+    void store(long key, double value) {
+        final int slot = this.probe(key);
+        this.put(slot >= 0 ? slot : ~slot, key, value);
+    }
+
+    /**
+     * Removes all values (the counters are kept).
+     */
+    public void clear() {
+        if (++this.stamp == 0) { // overflow; very unlikely
+            Arrays.fill(this.stamps, 0);
+            this.stamp = 1;
+        }
+        this.size = 0;
+    }
+
+    public int getCapacity() {
+        return this.keys.length;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public long getHits() {
+        return this.hits;
+    }
+
+    public long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * @return the ratio of hits to lookups or {@code NaN} if there were no lookups
+     */
+    public double getHitRate() {
+        return (double) this.hits / (this.hits + this.misses);
+    }
+
+    public void resetCounters() {
+        this.hits = 0;
+        this.misses = 0;
+    }
+}
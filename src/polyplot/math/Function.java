@@ -1,6 +1,12 @@
 package polyplot.math;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 
 /**
  * Represents a mathematical function.
@@ -13,6 +19,23 @@ public abstract class Function {
     protected final CompiledToken[] postfix;
     protected final DoubleStack stack;
     protected final boolean userDefined;
+    private final double cost;
+
+    // state of the extended-precision interpreter; only allocated if it is used (see deepExecute())
+    private DoubleStack deepHi;
+    private DoubleStack deepLo;
+    final double[] deepArgs; // hi and lo parts of the arguments (interleaved)
+    private DoubleDouble deepLeft;
+    private DoubleDouble deepRight;
+
+    // state of the complex interpreter; only allocated if it is used (see complexExecute())
+    private DoubleStack complexRe;
+    private DoubleStack complexIm;
+    final double[] complexArgs; // real and imaginary parts of the arguments (interleaved)
+    private Complex complexLeft;
+    private Complex complexRight;
+
+    private Profiler.Profile profile; // only allocated if the profiler is used
 
     protected Function(String name, String fullExpression, int numberOfArguments, CompiledToken[] postfix,
                        boolean userDefined) {
@@ -24,10 +47,14 @@ public abstract class Function {
             throw new IllegalArgumentException("function expression must not be empty");
         this.numberOfArguments = numberOfArguments;
         this.postfix = postfix; // may be null
-        this.stack = new DoubleStack(2);
+        this.stack = new DoubleStack(postfix == null ? 2 : Math.max(2, stackSize(postfix)));
         this.name = name;
         this.expression = fullExpression;
         this.userDefined = userDefined;
+        this.deepArgs = new double[2 * numberOfArguments];
+        this.complexArgs = new double[2 * numberOfArguments];
+        this.cost = postfix == null ? 1.0 : estimateCost(postfix);
+        if (postfix != null) Recursion.bind(postfix, this);
     }
 
     protected Function(String name, String fullExpression, int numberOfArguments, CompiledToken[] postfix) {
@@ -68,4 +95,375 @@ public abstract class Function {
     public boolean isUserDefined() {
         return this.userDefined;
     }
+
+    /**
+     * Returns the estimated cost of one evaluation of the function. The estimate is a weighted count of the tokens of
+     * the compiled expression, where expensive operations like {@code ^} or {@code sin()} have a higher weight and
+     * calls of user-defined functions are weighted with the cost of the called function. Adding two numbers costs
+     * about {@code 1}.
+     * @return the estimated cost; always positive
+     */
+    public double getCost() {
+        return this.cost;
+    }
+
+    /**
+     * @return the maximum size of the stack needed to evaluate the postfix expression; both branches of conditional
+     *         expressions are counted, so it might be a bit larger than necessary
+     */
+    private static int stackSize(CompiledToken[] postfix) {
+        int size = 0, result = 0;
+        for (CompiledToken token : postfix) {
+            switch (token.type) {
+                case NUMBER: case ARGUMENT: ++size; break;
+                case BINARY_OPERATION: case JUMP_IF_FALSE: --size; break;
+                case FUNCTION: size -= token.function.getNumberOfArguments() - 1; break;
+                default: break;
+            }
+            result = Math.max(result, size);
+        }
+        return result;
+    }
+
+    private static double estimateCost(CompiledToken[] postfix) {
+        return Math.max(1.0, estimateCost(postfix, 0, postfix.length));
+    }
+
+    /**
+     * @return the estimated cost of the tokens from {@code from} (inclusive) to {@code to} (exclusive); only the more
+     *         expensive branch of a conditional expression is counted, as only one of them is evaluated
+     */
+    private static double estimateCost(CompiledToken[] postfix, int from, int to) {
+        double result = 0.0;
+        for (int i = from; i < to; ++i) {
+            final CompiledToken token = postfix[i];
+            switch (token.type) {
+                case NUMBER: case ARGUMENT: result += 0.5; break;
+                case UNARY_OPERATION:
+                    if (token.unaryOperator instanceof Function)
+                        result += ((Function) token.unaryOperator).getCost() + 1.0;
+                    else
+                        result += 1.0;
+                    break;
+                case BINARY_OPERATION:
+                    if (token.binaryOperator instanceof Function)
+                        result += ((Function) token.binaryOperator).getCost() + 1.0;
+                    else if (token.binaryOperator == BinaryOperation.EXPONENTIATION.operation)
+                        result += 40.0;
+                    else if (token.binaryOperator == BinaryOperation.DIVISION.operation)
+                        result += 4.0;
+                    else if (token.binaryOperator == BinaryOperation.MODULUS.operation)
+                        result += 8.0;
+                    else
+                        result += 1.0;
+                    break;
+                case FUNCTION:
+                    result += token.function.getCost() + token.function.getNumberOfArguments();
+                    break;
+                case JUMP_IF_FALSE: {
+                    final int jump = i + token.index - 1, end = CompiledToken.endOfConditional(postfix, i);
+                    result += 1.0 + Math.max(estimateCost(postfix, i + 1, jump),
+                                             estimateCost(postfix, jump + 1, end + 1));
+                    i = end;
+                } break;
+                case JUMP: break; // skipped by the conditional jump
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a copy of the function that can be evaluated independently of this one (e.g. in another thread), as
+     * evaluating a function modifies its internal state. Functions called by this function are copied as well.
+     * @return the copy (or this object if the function is stateless, as native functions are)
+     */
+    public Function copy() {
+        return this.copy(new IdentityHashMap<>());
+    }
+
+    /**
+     * @param copies the functions that were already copied; used so every function is only copied once
+     */
+    Function copy(Map<Function, Function> copies) {
+        return this; // native functions do not have any state
+    }
+
+    /**
+     * Counts the changes of the values of the function that do not require recompiling it: the changes of the offsets
+     * of the function and of all functions it calls and of the values of the animated constants it reads. Unlike
+     * {@link PureFunction#getOffsetModifications()}, the number does not change if an unrelated function is moved.
+     * @return the number of changes so far (only comparable for the same function object)
+     */
+    public final long getModifications() {
+        return this.getModifications(Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    /**
+     * @param visited the functions that were already counted; used so every function is only counted once
+     */
+    long getModifications(Set<Function> visited) {
+        if (!visited.add(this) || this.postfix == null) return 0;
+        long result = 0;
+        for (CompiledToken token : this.postfix) {
+            if (token.unaryOperator instanceof Function)
+                result += ((Function) token.unaryOperator).getModifications(visited);
+            else if (token.binaryOperator instanceof Function)
+                result += ((Function) token.binaryOperator).getModifications(visited);
+            else if (token.function != null)
+                result += token.function.getModifications(visited);
+        }
+        return result;
+    }
+
+    /**
+     * @return a copy of the postfix expression that references copies of all called functions
+     */
+    final CompiledToken[] copyPostfix(Map<Function, Function> copies) {
+        final CompiledToken[] result = new CompiledToken[this.postfix.length];
+        for (int i = 0; i < result.length; ++i) {
+            final CompiledToken token = this.postfix[i];
+            if (token.type == CompiledToken.Type.UNARY_OPERATION && token.unaryOperator instanceof Function)
+                result[i] = CompiledToken.newUnaryOperation(
+                        (DoubleUnaryOperator) ((Function) token.unaryOperator).copy(copies));
+            else if (token.type == CompiledToken.Type.BINARY_OPERATION && token.binaryOperator instanceof Function)
+                result[i] = CompiledToken.newBinaryOperation(
+                        (DoubleBinaryOperator) ((Function) token.binaryOperator).copy(copies));
+            else if (token.type == CompiledToken.Type.FUNCTION)
+                result[i] = CompiledToken.newFunction(token.function.copy(copies));
+            else
+                result[i] = token; // tokens are immutable
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the compiled postfix expression and records profiling data (see {@link Profiler}).
+     * @param arguments the arguments of the function
+     * @return the calculated value
+     */
+    final double profiledExecute(double[] arguments) {
+        if (this.profile == null) this.profile = Profiler.register(this);
+        final Profiler.Profile p = this.profile;
+        final boolean timed = p.calls++ % Profiler.SAMPLE_INTERVAL == 0;
+        final long start = timed ? System.nanoTime() : 0L;
+        final CompiledToken[] postfix = this.postfix;
+        for (int i = 0; i < postfix.length; ++i) {
+            final int current = i; // i is modified by jumps
+            final CompiledToken token = postfix[i];
+            final long tokenStart = timed ? System.nanoTime() : 0L;
+            switch (token.type) {
+                case NUMBER: this.stack.push(token.number); break;
+                case ARGUMENT: this.stack.push(arguments[token.index]); break;
+                case UNARY_OPERATION: this.stack.push(token.unaryOperator.applyAsDouble(this.stack.pop())); break;
+                case BINARY_OPERATION: {
+                    final double arg1 = this.stack.pop();
+                    final double arg0 = this.stack.pop();
+                    this.stack.push(token.binaryOperator.applyAsDouble(arg0, arg1));
+                } break;
+                case FUNCTION: {
+                    final ImpureFunction f = token.function;
+                    for (int j = 0, stop = f.getNumberOfArguments(); j < stop; ++j)
+                        f.args[j] = this.stack.pop();
+                    this.stack.push(f.ofStoredArgs());
+                } break;
+                case JUMP: i += token.index - 1; break;
+                case JUMP_IF_FALSE: {
+                    final double condition = this.stack.pop();
+                    if (condition == 0.0) i += token.index - 1;
+                    else if (condition != condition) {
+                        this.stack.push(Double.NaN);
+                        i = CompiledToken.endOfConditional(postfix, i);
+                    }
+                } break;
+            }
+            ++p.tokenCounts[current];
+            if (timed) p.tokenNanos[current] += System.nanoTime() - tokenStart;
+        }
+        if (timed) {
+            ++p.sampledCalls;
+            p.sampledNanos += System.nanoTime() - start;
+        }
+        if (this.stack.size() != 1) throw new IllegalStateException("stack not one at the end of calculation");
+        return this.stack.pop();
+    }
+
+    /**
+     * Evaluates the compiled postfix expression with the arguments stored in {@link #deepArgs} using double-double
+     * arithmetic. The basic arithmetic operations are computed exactly (up to about 32 digits); native functions get
+     * a first-order correction (see {@link CompilationContext}) and all other operations are computed with
+     * {@code double} precision.
+     * NOTE: This is a second interpreter rather than a {@code double} evaluation relative to a reference point (see
+     *       {@link DoubleDouble} for the trade-off).
+     * @param result the object the result is stored in
+     */
+    void deepExecute(DoubleDouble result) {
+        if (this.deepHi == null) {
+            this.deepHi = new DoubleStack(2);
+            this.deepLo = new DoubleStack(2);
+            this.deepLeft = new DoubleDouble();
+            this.deepRight = new DoubleDouble();
+        }
+        final DoubleStack hi = this.deepHi, lo = this.deepLo;
+        final DoubleDouble left = this.deepLeft, right = this.deepRight;
+        final CompiledToken[] postfix = this.postfix;
+        for (int i = 0; i < postfix.length; ++i) {
+            final CompiledToken token = postfix[i];
+            switch (token.type) {
+                case NUMBER:
+                    hi.push(token.number);
+                    lo.push(0.0);
+                    break;
+                case ARGUMENT:
+                    hi.push(this.deepArgs[2 * token.index]);
+                    lo.push(this.deepArgs[2 * token.index + 1]);
+                    break;
+                case UNARY_OPERATION:
+                    left.set(hi.pop(), lo.pop());
+                    applyDeep(token.unaryOperator, left);
+                    hi.push(left.hi);
+                    lo.push(left.lo);
+                    break;
+                case BINARY_OPERATION:
+                    right.set(hi.pop(), lo.pop());
+                    left.set(hi.pop(), lo.pop());
+                    applyDeep(token.binaryOperator, left, right);
+                    hi.push(left.hi);
+                    lo.push(left.lo);
+                    break;
+                case FUNCTION: {
+                    final ImpureFunction f = token.function;
+                    for (int j = 0, stop = f.getNumberOfArguments(); j < stop; ++j) {
+                        f.deepArgs[2 * j] = hi.pop();
+                        f.deepArgs[2 * j + 1] = lo.pop();
+                    }
+                    f.deepExecute(left);
+                    hi.push(left.hi);
+                    lo.push(left.lo);
+                } break;
+                case JUMP: i += token.index - 1; break;
+                case JUMP_IF_FALSE: {
+                    final double condition = hi.pop() + lo.pop();
+                    if (condition == 0.0) i += token.index - 1;
+                    else if (condition != condition) {
+                        hi.push(Double.NaN);
+                        lo.push(0.0);
+                        i = CompiledToken.endOfConditional(postfix, i);
+                    }
+                } break;
+            }
+        }
+        if (hi.size() != 1) throw new IllegalStateException("stack not one at the end of calculation");
+        result.set(hi.pop(), lo.pop());
+    }
+
+    private static void applyDeep(DoubleUnaryOperator operator, DoubleDouble operand) {
+        if (operator == UnaryOperation.MINUS.operation) operand.negate();
+        else if (operator == UnaryOperation.PLUS.operation) return;
+        else if (operator instanceof PureFunction) ((PureFunction) operator).deepOf(operand, operand);
+        else if (operator instanceof CompilationContext.PureFunctionAdapter)
+            ((CompilationContext.PureFunctionAdapter) operator).applyDeep(operand);
+        else operand.set(operator.applyAsDouble(operand.doubleValue()));
+    }
+
+    private static void applyDeep(DoubleBinaryOperator operator, DoubleDouble left, DoubleDouble right) {
+        if (operator == BinaryOperation.MULTIPLICATION.operation) left.multiply(right);
+        else if (operator == BinaryOperation.DIVISION.operation) left.divide(right);
+        else if (operator == BinaryOperation.PLUS.operation) left.add(right);
+        else if (operator == BinaryOperation.MINUS.operation) left.subtract(right);
+        else if (operator == BinaryOperation.EXPONENTIATION.operation) left.pow(right);
+        else if (operator == BinaryOperation.MODULUS.operation) left.remainder(right);
+        else left.set(operator.applyAsDouble(left.doubleValue(), right.doubleValue()));
+    }
+
+    /**
+     * Evaluates the compiled postfix expression with the complex arguments stored in {@link #complexArgs}. All
+     * {@link BinaryOperation}s and the native functions that have a complex continuation (see
+     * {@link CompilationContext}) are computed in the complex plane. All other operations are only defined for real
+     * arguments and result in {@code NaN} otherwise.
+     * @param result the object the result is stored in
+     */
+    void complexExecute(Complex result) {
+        if (this.complexRe == null) {
+            this.complexRe = new DoubleStack(2);
+            this.complexIm = new DoubleStack(2);
+            this.complexLeft = new Complex();
+            this.complexRight = new Complex();
+        }
+        final DoubleStack re = this.complexRe, im = this.complexIm;
+        final Complex left = this.complexLeft, right = this.complexRight;
+        final CompiledToken[] postfix = this.postfix;
+        for (int i = 0; i < postfix.length; ++i) {
+            final CompiledToken token = postfix[i];
+            switch (token.type) {
+                case NUMBER:
+                    re.push(token.number);
+                    im.push(0.0);
+                    break;
+                case ARGUMENT:
+                    re.push(this.complexArgs[2 * token.index]);
+                    im.push(this.complexArgs[2 * token.index + 1]);
+                    break;
+                case UNARY_OPERATION:
+                    left.im = im.pop();
+                    left.re = re.pop();
+                    applyComplex(token.unaryOperator, left);
+                    re.push(left.re);
+                    im.push(left.im);
+                    break;
+                case BINARY_OPERATION:
+                    right.im = im.pop();
+                    right.re = re.pop();
+                    left.im = im.pop();
+                    left.re = re.pop();
+                    applyComplex(token.binaryOperator, left, right);
+                    re.push(left.re);
+                    im.push(left.im);
+                    break;
+                case FUNCTION: {
+                    final ImpureFunction f = token.function;
+                    for (int j = 0, stop = f.getNumberOfArguments(); j < stop; ++j) {
+                        f.complexArgs[2 * j] = re.pop();
+                        f.complexArgs[2 * j + 1] = im.pop();
+                    }
+                    f.complexExecute(left);
+                    re.push(left.re);
+                    im.push(left.im);
+                } break;
+                case JUMP: i += token.index - 1; break;
+                case JUMP_IF_FALSE: {
+                    final double imaginary = im.pop(), real = re.pop();
+                    final double condition = imaginary == 0.0 ? real : Double.NaN; // complex conditions are undefined
+                    if (condition == 0.0) i += token.index - 1;
+                    else if (condition != condition) {
+                        re.push(Double.NaN);
+                        im.push(Double.NaN);
+                        i = CompiledToken.endOfConditional(postfix, i);
+                    }
+                } break;
+            }
+        }
+        if (re.size() != 1) throw new IllegalStateException("stack not one at the end of calculation");
+        result.set(re.pop(), im.pop());
+    }
+
+    private static void applyComplex(DoubleUnaryOperator operator, Complex operand) {
+        if (operator == UnaryOperation.MINUS.operation) operand.negate();
+        else if (operator == UnaryOperation.PLUS.operation) return;
+        else if (operator instanceof PureFunction) ((PureFunction) operator).complexOf(operand, operand);
+        else if (operator instanceof CompilationContext.PureFunctionAdapter)
+            ((CompilationContext.PureFunctionAdapter) operator).applyComplex(operand);
+        else if (operand.im == 0.0) operand.set(operator.applyAsDouble(operand.re));
+        else operand.set(Double.NaN, Double.NaN);
+    }
+
+    private static void applyComplex(DoubleBinaryOperator operator, Complex left, Complex right) {
+        if (operator == BinaryOperation.MULTIPLICATION.operation) left.multiply(right);
+        else if (operator == BinaryOperation.DIVISION.operation) left.divide(right);
+        else if (operator == BinaryOperation.PLUS.operation) left.add(right);
+        else if (operator == BinaryOperation.MINUS.operation) left.subtract(right);
+        else if (operator == BinaryOperation.EXPONENTIATION.operation) left.pow(right);
+        else if (operator == BinaryOperation.MODULUS.operation) left.remainder(right);
+        else if (left.im == 0.0 && right.im == 0.0) left.set(operator.applyAsDouble(left.re, right.re));
+        else left.set(Double.NaN, Double.NaN);
+    }
 }
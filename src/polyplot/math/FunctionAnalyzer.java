@@ -0,0 +1,371 @@
+package polyplot.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Analyzes a {@link PureFunction} in an interval: local extrema, inflection points, vertical asymptotes and the
+ * approximate range of values.
+ * NOTE: Just like {@link RootFinder}, the analysis starts with samples on an equally spaced grid (which may be
+ *       provided, e.g. by the renderer), and the grid is split across a fork/join pool. Local extrema of the samples
+ *       are refined with a golden-section search; if the absolute value keeps growing while approaching the extremum
+ *       (or a sign change or the border of the domain), it is reported as a vertical asymptote instead. Inflection
+ *       points are the sign changes of the second difference of the samples, refined by bisection. The results are
+ *       cached for the last few combinations of function, offsets and interval.
+ * @author 5hir0kur0
+ */
+public final class FunctionAnalyzer {
+    private final static int LEAF_INTERVALS = 64;
+    private final static int MAX_ITERATIONS = 100;
+    private final static double POLE_GROWTH = 1e6; // growth of |f| while approaching a pole that is expected at least
+    private final static double BORDER_GROWTH = 4; // the same for the border of the domain (e.g. "log(x)" at 0)
+    private final static int CACHE_SIZE = 16;
+
+    private final static Map<List<Object>, Report> cache = new LinkedHashMap<List<Object>, Report>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Report> eldest) {
+            return this.size() > CACHE_SIZE;
+        }
+    };
+
+    private final PureFunction function; // the original; only used as the key of the cache
+    private final ThreadLocal<DoubleUnaryOperator> copies;
+    private final long maxEvaluations;
+
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final AtomicBoolean truncated = new AtomicBoolean(false);
+    private final AtomicLong evaluations = new AtomicLong(0);
+
+    /**
+     * The results of an analysis. All lists are sorted in ascending order of x.
+     */
+    public final static class Report {
+        public final List<double[]> minima, maxima; // {x, y}
+        public final List<double[]> inflectionPoints; // {x, y}
+        public final List<Double> asymptotes; // x
+        public final double minimum, maximum; // the range of the finite values; NaN if there are none
+        public final boolean truncated; // true if the evaluation limit was reached
+
+        Report(List<double[]> minima, List<double[]> maxima, List<double[]> inflectionPoints, List<Double> asymptotes,
+               double minimum, double maximum, boolean truncated) {
+            this.minima = Collections.unmodifiableList(minima);
+            this.maxima = Collections.unmodifiableList(maxima);
+            this.inflectionPoints = Collections.unmodifiableList(inflectionPoints);
+            this.asymptotes = Collections.unmodifiableList(asymptotes);
+            this.minimum = minimum;
+            this.maximum = maximum;
+            this.truncated = truncated;
+        }
+    }
+
+    /**
+     * Creates a new {@code FunctionAnalyzer}.
+     * @param function the function; a snapshot is taken, so later changes (e.g. of the offsets) do not matter
+     * @param maxEvaluations the maximum number of evaluations of the function (excluding the provided samples)
+     */
+    public FunctionAnalyzer(PureFunction function, long maxEvaluations) {
+        if (maxEvaluations < 1) throw new IllegalArgumentException("limits must be positive");
+        this.function = Objects.requireNonNull(function, "function must not be null");
+        this.copies = RootFinder.copies(function);
+        this.maxEvaluations = maxEvaluations;
+    }
+
+    /**
+     * Analyzes the function in the interval {@code [from, to]}.
+     * @param intervals the number of intervals of the grid
+     * @param samples the samples of the function taken at {@code from + i * (to - from) / intervals} or {@code null}
+     * @param progress receives the finished fraction of the analysis (from the worker threads); may be {@code null}
+     * @return the report
+     */
+    public Report analyze(double from, double to, int intervals, double[] samples, DoubleConsumer progress) {
+        if (!(from < to)) throw new IllegalArgumentException("invalid interval: [" + from + ", " + to + "]");
+        if (intervals < 2) throw new IllegalArgumentException("there must be at least two intervals");
+        if (samples != null && samples.length != intervals + 1)
+            throw new IllegalArgumentException("there must be one sample more than intervals");
+        final List<Object> key = Arrays.asList(this.function, PureFunction.getOffsetModifications(), from, to,
+                intervals);
+        synchronized (cache) {
+            final Report cached = cache.get(key);
+            if (cached != null) return cached;
+        }
+        final double[] grid = samples != null ? samples : new double[intervals + 1];
+        final Search root = new Search(from, (to - from) / intervals, 0, intervals, grid, samples == null,
+                new AtomicInteger(), intervals, progress);
+        final Search.Result r = ForkJoinTask.inForkJoinPool() ? root.invoke() : ForkJoinPool.commonPool().invoke(root);
+        if (this.cancelled.get()) return null;
+
+        double minimum = Double.NaN, maximum = Double.NaN;
+        for (double d : grid)
+            if (isFinite(d)) {
+                if (!(d >= minimum)) minimum = d;
+                if (!(d <= maximum)) maximum = d;
+            }
+        for (double[] p : r.minima) if (!(p[1] >= minimum)) minimum = p[1];
+        for (double[] p : r.maxima) if (!(p[1] <= maximum)) maximum = p[1];
+        final double step = (to - from) / intervals;
+        final List<Double> asymptotes = merged(r.asymptotes, step);
+        // the curvature also changes its sign around poles (e.g. of "1/x"), which is not an inflection point
+        r.inflectionPoints.removeIf(p -> asymptotes.stream().anyMatch(a -> Math.abs(p[0] - a) < 2 * step));
+        final Report result = new Report(sorted(r.minima), sorted(r.maxima), sorted(r.inflectionPoints),
+                asymptotes, minimum, maximum, this.truncated.get());
+        if (!result.truncated)
+            synchronized (cache) {
+                cache.put(key, result);
+            }
+        return result;
+    }
+
+    private static List<double[]> sorted(List<double[]> points) {
+        points.sort((p, q) -> Double.compare(p[0], q[0]));
+        return points;
+    }
+
+    /**
+     * Sorts the x values and merges those that are closer than {@code epsilon} (e.g. asymptotes found from both sides).
+     */
+    private static List<Double> merged(List<Double> xs, double epsilon) {
+        Collections.sort(xs);
+        final List<Double> result = new ArrayList<>(xs.size());
+        for (double x : xs)
+            if (result.isEmpty() || x - result.get(result.size() - 1) >= epsilon) result.add(x);
+        return result;
+    }
+
+    public void cancel() {
+        this.cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled.get();
+    }
+
+    public long getEvaluations() {
+        return this.evaluations.get();
+    }
+
+    private final class Search extends RecursiveTask<Search.Result> {
+        private static final long serialVersionUID = -8425214402758591823L;
+
+        final class Result {
+            final List<double[]> minima = new ArrayList<>(), maxima = new ArrayList<>();
+            final List<double[]> inflectionPoints = new ArrayList<>();
+            final List<Double> asymptotes = new ArrayList<>();
+
+            Result merge(Result other) {
+                this.minima.addAll(other.minima);
+                this.maxima.addAll(other.maxima);
+                this.inflectionPoints.addAll(other.inflectionPoints);
+                this.asymptotes.addAll(other.asymptotes);
+                return this;
+            }
+        }
+
+        private final double from, step;
+        private final int first, last; // grid intervals [first, last)
+        private final double[] grid;
+        private final boolean sample; // true if the grid has to be filled first
+        private final AtomicInteger finished;
+        private final int total;
+        private final DoubleConsumer progress;
+        private DoubleUnaryOperator f;
+        private long localEvaluations;
+
+        Search(double from, double step, int first, int last, double[] grid, boolean sample, AtomicInteger finished,
+               int total, DoubleConsumer progress) {
+            this.from = from;
+            this.step = step;
+            this.first = first;
+            this.last = last;
+            this.grid = grid;
+            this.sample = sample;
+            this.finished = finished;
+            this.total = total;
+            this.progress = progress;
+        }
+
+        @Override
+        protected Result compute() {
+            if (this.last - this.first > LEAF_INTERVALS) {
+                final int middle = (this.first + this.last) >>> 1;
+                final Search left = new Search(this.from, this.step, this.first, middle, this.grid, this.sample,
+                        this.finished, this.total, this.progress);
+                final Search right = new Search(this.from, this.step, middle, this.last, this.grid, this.sample,
+                        this.finished, this.total, this.progress);
+                left.fork();
+                final Result result = right.compute();
+                return result.merge(left.join());
+            }
+            this.f = copies.get();
+            final Result result = new Result();
+            // every task needs the samples around its intervals to find local extrema and sign changes of the second
+            // difference; the neighbouring samples are evaluated by both tasks if the grid is not provided
+            final int start = Math.max(0, this.first - 2), stop = Math.min(this.grid.length - 1, this.last + 2);
+            final double[] values = new double[stop - start + 1];
+            for (int i = start; i <= stop; ++i)
+                values[i - start] = this.sample ? this.evaluate(this.x(i)) : this.grid[i];
+            if (this.sample) // the last sample belongs to the next task (if there is one)
+                System.arraycopy(values, this.first - start, this.grid, this.first,
+                        this.last - this.first + (this.last == this.grid.length - 1 ? 1 : 0));
+
+            for (int i = this.first; i < this.last; ++i) {
+                if (cancelled.get()) break;
+                if (evaluations.get() + this.localEvaluations > maxEvaluations) {
+                    truncated.set(true);
+                    break;
+                }
+                final int j = i - start; // index of x(i) in values
+                if (j > 0) this.extremum(i, values[j - 1], values[j], values[j + 1], result);
+                if (j > 1) this.inflection(i, values[j - 2], values[j - 1], values[j], values[j + 1],
+                        j + 2 < values.length ? values[j + 2] : Double.NaN, result);
+                if (isFinite(values[j]) && isFinite(values[j + 1]) && (values[j] < 0) != (values[j + 1] < 0))
+                    this.signChange(this.x(i), values[j], this.x(i + 1), values[j + 1], result);
+                else if (isFinite(values[j]) != isFinite(values[j + 1]))
+                    this.undefined(this.x(i), values[j], this.x(i + 1), values[j + 1], result);
+            }
+            evaluations.addAndGet(this.localEvaluations);
+            final int done = this.finished.addAndGet(this.last - this.first);
+            if (this.progress != null) this.progress.accept((double) done / this.total);
+            return result;
+        }
+
+        private double x(int index) {
+            return this.from + index * this.step;
+        }
+
+        private double evaluate(double x) {
+            ++this.localEvaluations;
+            return this.f.applyAsDouble(x);
+        }
+
+        /**
+         * Checks whether the sample {@code i} is a local extremum and refines it.
+         */
+        private void extremum(int i, double f0, double f1, double f2, Result result) {
+            if (!isFinite(f0) || !isFinite(f1) || !isFinite(f2)) return;
+            final boolean maximum = f1 > f0 && f1 >= f2, minimum = f1 < f0 && f1 <= f2;
+            if (!maximum && !minimum) return;
+            final double sign = maximum ? -1.0 : 1.0; // the search minimizes sign * f
+            final double ratio = (Math.sqrt(5) - 1) / 2;
+            double a = this.x(i - 1), b = this.x(i + 1);
+            double c = b - ratio * (b - a), d = a + ratio * (b - a);
+            double fc = sign * this.evaluate(c), fd = sign * this.evaluate(d);
+            for (int k = 0; k < MAX_ITERATIONS && b - a > 4 * Math.ulp(Math.max(Math.abs(a), Math.abs(b))); ++k) {
+                if (!isFinite(fc) || !isFinite(fd)) break;
+                if (fc < fd) {
+                    b = d;
+                    d = c;
+                    fd = fc;
+                    c = b - ratio * (b - a);
+                    fc = sign * this.evaluate(c);
+                } else {
+                    a = c;
+                    c = d;
+                    fc = fd;
+                    d = a + ratio * (b - a);
+                    fd = sign * this.evaluate(d);
+                }
+            }
+            final double x = fc < fd ? c : d, y = sign * Math.min(fc, fd);
+            final double scale = Math.max(1.0, Math.max(Math.abs(f0), Math.abs(f2)));
+            if (!isFinite(y) || Math.abs(y) > POLE_GROWTH * scale) result.asymptotes.add(x); // e.g. 1/x^2
+            else (maximum ? result.maxima : result.minima).add(new double[] {x, y});
+        }
+
+        /**
+         * Checks whether the second difference changes its sign between the samples {@code i - 1} and {@code i} (or
+         * at the sample {@code i}) and refines the inflection point.
+         */
+        private void inflection(int i, double f0, double f1, double f2, double f3, double f4, Result result) {
+            if (!isFinite(f0) || !isFinite(f1) || !isFinite(f2) || !isFinite(f3)) return;
+            final double d1 = f0 - 2 * f1 + f2, d2 = f1 - 2 * f2 + f3;
+            if (d2 == 0.0 && isFinite(f4)) { // exactly on the grid (e.g. "x^3" at 0)
+                final double d3 = f2 - 2 * f3 + f4;
+                if (d1 != 0.0 && d3 != 0.0 && (d1 < 0) != (d3 < 0))
+                    result.inflectionPoints.add(new double[] {this.x(i), f2});
+                return;
+            }
+            if (d1 == 0.0 || d2 == 0.0 || (d1 < 0) == (d2 < 0)) return;
+            // the second differences belong to x(i - 1) and x(i); bisect with a smaller step
+            final double h = this.step / 8;
+            double a = this.x(i - 1), b = this.x(i);
+            double fa = this.secondDifference(a, h);
+            for (int k = 0; k < MAX_ITERATIONS && b - a > 4 * Math.ulp(Math.max(Math.abs(a), Math.abs(b))); ++k) {
+                final double m = a + (b - a) / 2, fm = this.secondDifference(m, h);
+                if (!isFinite(fm)) return;
+                if ((fm < 0) == (fa < 0)) {
+                    a = m;
+                    fa = fm;
+                } else b = m;
+                if (b - a < h / 1024) break; // more is not possible with this step
+            }
+            final double x = a + (b - a) / 2, y = this.evaluate(x);
+            if (isFinite(y)) result.inflectionPoints.add(new double[] {x, y});
+        }
+
+        private double secondDifference(double x, double h) {
+            return this.evaluate(x - h) - 2 * this.evaluate(x) + this.evaluate(x + h);
+        }
+
+        /**
+         * Bisects a sign change and adds it as asymptote if the absolute value grows while approaching it
+         * (e.g. "1/x"). Roots are found by {@link RootFinder}.
+         */
+        private void signChange(double a, double fa, double b, double fb, Result result) {
+            final double scale = Math.max(1.0, Math.max(Math.abs(fa), Math.abs(fb)));
+            for (int k = 0; k < MAX_ITERATIONS && b - a > 4 * Math.ulp(Math.max(Math.abs(a), Math.abs(b))); ++k) {
+                final double m = a + (b - a) / 2, fm = this.evaluate(m);
+                if (fm == 0.0) return;
+                if (!isFinite(fm)) {
+                    result.asymptotes.add(m);
+                    return;
+                }
+                if ((fm < 0) == (fa < 0)) {
+                    a = m;
+                    fa = fm;
+                } else {
+                    b = m;
+                    fb = fm;
+                }
+            }
+            if (Math.min(Math.abs(fa), Math.abs(fb)) > POLE_GROWTH * scale) result.asymptotes.add(a + (b - a) / 2);
+        }
+
+        /**
+         * Bisects the border of the domain of the function and adds it as asymptote if the function grows while
+         * approaching it (e.g. "log(x)" at 0).
+         */
+        private void undefined(double a, double fa, double b, double fb, Result result) {
+            final boolean left = isFinite(fa); // true if the function is defined at a
+            final double scale = Math.max(1.0, Math.abs(left ? fa : fb));
+            double defined = left ? fa : fb;
+            for (int k = 0; k < MAX_ITERATIONS && b - a > 4 * Math.ulp(Math.max(Math.abs(a), Math.abs(b))); ++k) {
+                final double m = a + (b - a) / 2, fm = this.evaluate(m);
+                if (isFinite(fm) == left) {
+                    a = m;
+                    if (left) defined = fm;
+                } else {
+                    b = m;
+                    if (!left) defined = fm;
+                }
+            }
+            if (Math.abs(defined) > BORDER_GROWTH * scale) result.asymptotes.add(a + (b - a) / 2);
+        }
+    }
+
+    private static boolean isFinite(double d) {
+        return d == d && d != Double.POSITIVE_INFINITY && d != Double.NEGATIVE_INFINITY;
+    }
+}
@@ -0,0 +1,125 @@
+package polyplot.math;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+/**
+ * A family of functions {@code f(x, a)}, one for every value of the parameter {@code a} in a grid.
+ * NOTE: The members are not separate functions. The function of two arguments is compiled once and evaluated for all
+ *       members in one batched pass: The members are spread over the common fork/join pool and every worker evaluates
+ *       its own copy of the function (functions are not thread-safe). Compiled functions are evaluated directly with
+ *       stored arguments, so there is no argument array per evaluation.
+ * @author 5hir0kur0
+ */
+public final class FunctionFamily {
+    public final static int MAX_MEMBERS = 1000;
+
+    private final Function snapshot; // is never evaluated, so the workers can copy it concurrently
+    private final double[] parameters;
+
+    /**
+     * @param f a function of two arguments; the first one is {@code x} and the second one the parameter
+     * @param from the first value of the parameter
+     * @param to the last value of the parameter (included if it is on the grid)
+     * @param step the distance of the values of the parameter; must be positive
+     */
+    public FunctionFamily(Function f, double from, double to, double step) {
+        if (Objects.requireNonNull(f, "function must not be null").getNumberOfArguments() != 2)
+            throw new IllegalArgumentException("a family needs a function of two arguments: " + f.getName());
+        if (!(step > 0) || Double.isInfinite(step)) throw new IllegalArgumentException("illegal step: " + step);
+        if (from != from || to != to || Double.isInfinite(from) || Double.isInfinite(to) || to < from)
+            throw new IllegalArgumentException("illegal range of the parameter: [" + from + ", " + to + "]");
+        // a small tolerance, so e.g. [0, 5] with step 0.1 includes 5
+        final double members = Math.floor((to - from) / step * (1 + 1e-12)) + 1;
+        if (members > MAX_MEMBERS)
+            throw new IllegalArgumentException("too many members (at most " + MAX_MEMBERS + "): " + (long) members);
+        this.snapshot = f.copy();
+        this.parameters = new double[(int) members];
+        for (int i = 0; i < this.parameters.length; ++i)
+            this.parameters[i] = from + i * step; // not accumulated, so there is no rounding drift
+    }
+
+    private FunctionFamily(Function f, double[] parameters) {
+        this.snapshot = f.copy();
+        this.parameters = parameters;
+    }
+
+    /**
+     * @return a family of another function (e.g. a redefinition) with the same values of the parameter
+     */
+    public FunctionFamily withFunction(Function f) {
+        if (Objects.requireNonNull(f, "function must not be null").getNumberOfArguments() != 2)
+            throw new IllegalArgumentException("a family needs a function of two arguments: " + f.getName());
+        return new FunctionFamily(f, this.parameters);
+    }
+
+    public String getName() {
+        return this.snapshot.getName();
+    }
+
+    public int size() {
+        return this.parameters.length;
+    }
+
+    public double getParameter(int member) {
+        return this.parameters[member];
+    }
+
+    /**
+     * @return the estimated cost of evaluating all members once (see {@link Function#getCost()})
+     */
+    public double getCost() {
+        return this.parameters.length * this.snapshot.getCost();
+    }
+
+    /**
+     * Evaluates all members at {@code x = from + i * step} for {@code 0 <= i < count}.
+     * The calling thread blocks until all values are computed.
+     * @return the values of member {@code m} at index {@code i} in {@code result[m][i]}
+     */
+    public double[][] sample(double from, double step, int count) {
+        return this.sample(from, step, count, () -> false);
+    }
+
+    /**
+     * Like {@link #sample(double, double, int)}, but stops if the evaluation is not needed anymore. The condition is
+     * checked before every member is evaluated.
+     * @param cancelled returns {@code true} if the values are not needed anymore
+     * @return the values or {@code null} if the evaluation was cancelled
+     */
+    public double[][] sample(double from, double step, int count, BooleanSupplier cancelled) {
+        if (count < 0) throw new IllegalArgumentException("illegal number of samples: " + count);
+        final double[][] result = new double[this.parameters.length][count];
+        final ThreadLocal<Function> functions = ThreadLocal.withInitial(this.snapshot::copy);
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        IntStream.range(0, this.parameters.length).parallel().forEach(member -> {
+            if (stopped.get() || cancelled.getAsBoolean()) {
+                stopped.set(true);
+                return;
+            }
+            final Function f = functions.get();
+            final double[] values = result[member];
+            final double a = this.parameters[member];
+            if (f instanceof ImpureFunction) {
+                final ImpureFunction impure = (ImpureFunction) f;
+                impure.args[1] = a;
+                for (int i = 0; i < count; ++i) {
+                    impure.args[0] = from + i * step;
+                    values[i] = impure.ofStoredArgs();
+                }
+            } else {
+                for (int i = 0; i < count; ++i)
+                    values[i] = f.of(from + i * step, a);
+            }
+        });
+        return stopped.get() ? null : result;
+    }
+
+    @Override
+    public String toString() {
+        return this.snapshot.getName() + "[" + this.parameters[0] + " … "
+                + this.parameters[this.parameters.length - 1] + "; " + this.parameters.length + " members]";
+    }
+}
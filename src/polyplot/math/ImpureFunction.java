@@ -1,5 +1,6 @@
 package polyplot.math;
 
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -7,7 +8,7 @@ import java.util.Objects;
  * @author 5hir0kur0
  * @see Function
  */
-final class ImpureFunction extends Function {
+class ImpureFunction extends Function {
 
     final double[] args;
 
@@ -28,7 +29,10 @@ final class ImpureFunction extends Function {
     }
 
     double ofStoredArgs() {
-        for (CompiledToken token : this.postfix) {
+        if (Profiler.enabled) return this.profiledExecute(this.args);
+        final CompiledToken[] postfix = this.postfix;
+        for (int i = 0; i < postfix.length; ++i) {
+            final CompiledToken token = postfix[i];
             switch (token.type) {
                 case NUMBER: this.stack.push(token.number); break;
                 case ARGUMENT:
@@ -44,16 +48,35 @@ final class ImpureFunction extends Function {
                 } break;
                 case FUNCTION: {
                     final ImpureFunction f = token.function;
-                    for (int i = 0, stop = f.getNumberOfArguments(); i < stop; ++i)
-                        f.args[i] = this.stack.pop();
+                    for (int j = 0, stop = f.getNumberOfArguments(); j < stop; ++j)
+                        f.args[j] = this.stack.pop();
                     this.stack.push(f.ofStoredArgs());
                 } break;
+                case JUMP: i += token.index - 1; break;
+                case JUMP_IF_FALSE: {
+                    final double condition = this.stack.pop();
+                    if (condition == 0.0) i += token.index - 1;
+                    else if (condition != condition) {
+                        this.stack.push(Double.NaN);
+                        i = CompiledToken.endOfConditional(postfix, i);
+                    }
+                } break;
             }
         }
         if (this.stack.size() != 1) throw new IllegalStateException("stack not one at the end of calculation");
         return this.stack.pop();
     }
 
+    @Override
+    ImpureFunction copy(Map<Function, Function> copies) {
+        final Function existing = copies.get(this);
+        if (existing != null) return (ImpureFunction) existing;
+        final ImpureFunction result =
+                new ImpureFunction(this.name, this.expression, this.numberOfArguments, this.copyPostfix(copies));
+        copies.put(this, result);
+        return result;
+    }
+
     @Override
     public String toString() {
         return this.name + "[" + this.numberOfArguments + "]()";
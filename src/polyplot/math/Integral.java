@@ -0,0 +1,91 @@
+package polyplot.math;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The compiled form of {@code integrate(f, a, b)} (and {@code integrate(f, a, b, tolerance)}): A binary operation that
+ * integrates the function {@code f} from its left to its right operand (see {@link Integrator}).
+ * NOTE: The results are cached for the last few bounds, so evaluating e.g. {@code integrate(f, 0, 1) * x} for every
+ *       pixel only integrates once. Just like {@link EvaluationCache}, the cache is invalidated if the offset of any
+ *       function changes. If {@code f} is redefined, the functions using it are recompiled anyway.
+ * @author 5hir0kur0
+ */
+final class Integral extends Function implements DoubleBinaryOperator {
+    final static String NAME = "integrate";
+    private final static int CACHE_SIZE = 64; // has to be a power of two
+    private final static AtomicBoolean NOT_CANCELLED = new AtomicBoolean(false); // never set
+
+    private final Function integrand; // implements DoubleUnaryOperator
+    private final double tolerance;
+
+    private final double[] cachedA = new double[CACHE_SIZE];
+    private final double[] cachedB = new double[CACHE_SIZE];
+    private final double[] cachedValues = new double[CACHE_SIZE];
+    private long cacheModifications = -1;
+
+    Integral(Function integrand, double tolerance) {
+        super(NAME, "[native function]", 2, null, false);
+        if (!(Objects.requireNonNull(integrand, "integrand must not be null") instanceof DoubleUnaryOperator))
+            throw new IllegalArgumentException("only functions of one argument can be integrated: "
+                    + integrand.getName());
+        if (!(tolerance > 0)) throw new IllegalArgumentException("tolerance must be positive: " + tolerance);
+        this.integrand = integrand;
+        this.tolerance = tolerance;
+    }
+
+    @Override
+    public double applyAsDouble(double a, double b) {
+        final long modifications = PureFunction.getOffsetModifications();
+        if (modifications != this.cacheModifications) {
+            Arrays.fill(this.cachedA, Double.NaN); // NaN never equals a bound, so the cache is empty
+            this.cacheModifications = modifications;
+        }
+        final long bits = Double.doubleToLongBits(a) * 31 + Double.doubleToLongBits(b);
+        final int slot = (int) ((bits * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(CACHE_SIZE)));
+        if (this.cachedA[slot] == a && this.cachedB[slot] == b) return this.cachedValues[slot];
+        final double value = Integrator.integrate(this.integrand, a, b, this.tolerance, NOT_CANCELLED).value;
+        this.cachedA[slot] = a;
+        this.cachedB[slot] = b;
+        this.cachedValues[slot] = value;
+        return value;
+    }
+
+    @Override
+    public double of(double... args) {
+        if (args.length != 2) throw new IllegalStateException("illegal number of arguments");
+        return this.applyAsDouble(args[0], args[1]);
+    }
+
+    @Override
+    long getModifications(Set<Function> visited) {
+        return visited.add(this) ? this.integrand.getModifications(visited) : 0;
+    }
+
+    @Override
+    Integral copy(Map<Function, Function> copies) {
+        final Function existing = copies.get(this);
+        if (existing != null) return (Integral) existing;
+        final Integral result = new Integral(this.integrand.copy(copies), this.tolerance);
+        copies.put(this, result);
+        return result;
+    }
+
+    /**
+     * @return the cost of the initial estimate (15 evaluations of the integrand); it might be a lot more
+     */
+    @Override
+    public double getCost() {
+        return 15 * this.integrand.getCost();
+    }
+
+    @Override
+    public String toString() {
+        return NAME + "[" + this.integrand.getName() + "]()";
+    }
+}
@@ -0,0 +1,273 @@
+package polyplot.math;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Calculates definite integrals with adaptive Gauss-Kronrod quadrature (7-point Gauss, 15-point Kronrod rule).
+ * NOTE: The whole interval is estimated on the calling thread first, which is enough for most smooth functions. If the
+ *       error estimate is too large, the interval is bisected recursively on a fork/join pool; every subinterval gets
+ *       a share of the tolerance proportional to its width. The worker threads evaluate their own copies of the
+ *       function, because functions are not thread-safe. The number of evaluations is limited, so integrals of
+ *       functions with singularities (e.g. "1/x" around 0) terminate; the result is marked as not converged then.
+ *       Integrations in the background (see {@link Job}) can be cancelled and their results are cached for the last
+ *       few combinations of function version, bounds and tolerance.
+ * @author 5hir0kur0
+ */
+public final class Integrator {
+    public final static double DEFAULT_TOLERANCE = 1e-10;
+    final static long MAX_EVALUATIONS = 1_000_000;
+
+    private final static int MAX_DEPTH = 60;
+    private final static int FORK_DEPTH = 12; // deeper subintervals are processed sequentially
+    private final static int CACHE_SIZE = 16;
+
+    private final static Map<List<Object>, Result> cache = new LinkedHashMap<List<Object>, Result>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Result> eldest) {
+            return this.size() > CACHE_SIZE;
+        }
+    };
+
+    // nodes (in [0, 1]) and weights of the Kronrod rule; every second node (starting at 1) is a Gauss node
+    private final static double[] NODES = {
+            0.991455371120812639206854697526329, 0.949107912342758524526189684047851,
+            0.864864423359769072789712788640926, 0.741531185599394439863864773280788,
+            0.586087235467691130294144845693013, 0.405845151377397166906606412076961,
+            0.207784955007898467600689403773245, 0.0
+    };
+    private final static double[] KRONROD_WEIGHTS = {
+            0.022935322010529224963732008058970, 0.063092092629978553290700663189204,
+            0.104790010322250183839876322541518, 0.140653259715525918745189590510238,
+            0.169004726639267902826583426598550, 0.190350578064785409913256402421014,
+            0.204432940075298892414161999234649, 0.209482141084727828012999174891714
+    };
+    private final static double[] GAUSS_WEIGHTS = {
+            0.129484966168869693270611432679082, 0.279705391489276667901467771423780,
+            0.381830050505118944950369775488975, 0.417959183673469387755102040816327
+    };
+
+    private Integrator() {}
+
+    /**
+     * The result of an integration.
+     */
+    public final static class Result {
+        public final double value;
+        public final double error; // estimated absolute error
+        public final long evaluations;
+        public final boolean converged; // false if the tolerance could not be reached
+
+        Result(double value, double error, long evaluations, boolean converged) {
+            this.value = value;
+            this.error = error;
+            this.evaluations = evaluations;
+            this.converged = converged;
+        }
+
+        @Override
+        public String toString() {
+            return this.value + " (error ≤ " + this.error + (this.converged ? "" : "; not converged") + ")";
+        }
+    }
+
+    /**
+     * An integration of a snapshot of a function that can be run in the background and cancelled.
+     */
+    public final static class Job {
+        private final PureFunction snapshot;
+        private final double a, b, tolerance;
+        private final List<Object> key; // of the cache
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+        /**
+         * Creates a new {@code Job}. Must be called by the thread that modifies the function.
+         * @param function the function; a snapshot is taken, so later changes (e.g. of the offsets) do not matter
+         * @see #integrate(PureFunction, double, double, double)
+         */
+        public Job(PureFunction function, double a, double b, double tolerance) {
+            if (!(tolerance > 0)) throw new IllegalArgumentException("tolerance must be positive: " + tolerance);
+            this.snapshot = function.copy();
+            this.a = a;
+            this.b = b;
+            this.tolerance = tolerance;
+            this.key = Arrays.asList(function, function.getModifications(), a, b, tolerance);
+        }
+
+        /**
+         * Integrates the function (unless the same version of it was integrated with the same bounds before).
+         * @return the result or {@code null} if the job was cancelled
+         */
+        public Result run() {
+            synchronized (cache) {
+                final Result cached = cache.get(this.key);
+                if (cached != null) return cached;
+            }
+            final Result result = integrate(this.snapshot, this.a, this.b, this.tolerance, this.cancelled);
+            if (this.cancelled.get()) return null;
+            synchronized (cache) {
+                cache.put(this.key, result);
+            }
+            return result;
+        }
+
+        public void cancel() {
+            this.cancelled.set(true);
+        }
+
+        public boolean isCancelled() {
+            return this.cancelled.get();
+        }
+    }
+
+    /**
+     * Integrates a function from {@code a} to {@code b}.
+     * @param f the function; it is only evaluated by the calling thread, the worker threads use copies
+     * @param a the lower bound
+     * @param b the upper bound (may be less than {@code a})
+     * @param tolerance the requested absolute or relative error (whichever is larger); must be positive
+     * @return the result
+     */
+    public static Result integrate(PureFunction f, double a, double b, double tolerance) {
+        return integrate(f, a, b, tolerance, new AtomicBoolean(false));
+    }
+
+    /**
+     * @param f a {@link Function} that implements {@link DoubleUnaryOperator} (e.g. a native function like "sin()")
+     * @param cancelled stops the integration if it is set (the result is meaningless then)
+     * @see #integrate(PureFunction, double, double, double)
+     */
+    static Result integrate(Function f, double a, double b, double tolerance, AtomicBoolean cancelled) {
+        if (!(Objects.requireNonNull(f, "function must not be null") instanceof DoubleUnaryOperator))
+            throw new IllegalArgumentException("only functions of one argument can be integrated: " + f.getName());
+        if (!(tolerance > 0)) throw new IllegalArgumentException("tolerance must be positive: " + tolerance);
+        if (a == b) return new Result(0.0, 0.0, 0, true);
+        if (a != a || b != b || Double.isInfinite(a) || Double.isInfinite(b))
+            return new Result(Double.NaN, Double.NaN, 0, false);
+        if (a > b) {
+            final Result r = integrate(f, b, a, tolerance, cancelled);
+            return new Result(-r.value, r.error, r.evaluations, r.converged);
+        }
+
+        final double[] estimate = new double[2];
+        kronrod((DoubleUnaryOperator) f, a, b, estimate);
+        if (estimate[0] != estimate[0] || Double.isInfinite(estimate[0]))
+            return new Result(estimate[0], Double.NaN, 15, false);
+        final double absolute = Math.max(tolerance, tolerance * Math.abs(estimate[0]));
+        if (estimate[1] <= absolute) return new Result(estimate[0], estimate[1], 15, true);
+
+        final Function snapshot = f.copy(); // never evaluated, so the workers can copy it concurrently
+        final Task root = new Task(ThreadLocal.withInitial(() -> (DoubleUnaryOperator) snapshot.copy()),
+                a, b, estimate[0], estimate[1], absolute / (b - a), 0, cancelled);
+        final double[] result = ForkJoinTask.inForkJoinPool() ? root.invoke() : ForkJoinPool.commonPool().invoke(root);
+        return new Result(result[0], result[1], 15 + root.evaluations.get(), !root.failed.get());
+    }
+
+    /**
+     * Applies the Gauss-Kronrod rule to {@code [a, b]}.
+     * @param result the integral is stored at index 0 and the error estimate at index 1
+     */
+    static void kronrod(DoubleUnaryOperator f, double a, double b, double[] result) {
+        final double center = a + (b - a) / 2, half = (b - a) / 2;
+        final double[] values = new double[15];
+        values[7] = f.applyAsDouble(center);
+        for (int i = 0; i < 7; ++i) {
+            values[i] = f.applyAsDouble(center - half * NODES[i]);
+            values[14 - i] = f.applyAsDouble(center + half * NODES[i]);
+        }
+        double kronrod = values[7] * KRONROD_WEIGHTS[7], gauss = values[7] * GAUSS_WEIGHTS[3];
+        double absolute = Math.abs(kronrod);
+        for (int i = 0; i < 7; ++i) {
+            final double sum = values[i] + values[14 - i];
+            kronrod += KRONROD_WEIGHTS[i] * sum;
+            absolute += KRONROD_WEIGHTS[i] * (Math.abs(values[i]) + Math.abs(values[14 - i]));
+            if (i % 2 == 1) gauss += GAUSS_WEIGHTS[i / 2] * sum;
+        }
+        final double mean = kronrod / 2;
+        double deviation = KRONROD_WEIGHTS[7] * Math.abs(values[7] - mean);
+        for (int i = 0; i < 7; ++i)
+            deviation += KRONROD_WEIGHTS[i] * (Math.abs(values[i] - mean) + Math.abs(values[14 - i] - mean));
+        result[0] = kronrod * half;
+        // the error estimate of QUADPACK: the difference of both rules is scaled, because it is too pessimistic for
+        // smooth functions, but it is never less than what can be achieved with the rounding errors of the sum
+        double error = Math.abs((kronrod - gauss) * half);
+        deviation *= Math.abs(half);
+        if (deviation != 0.0 && error != 0.0) error = deviation * Math.min(1.0, Math.pow(200 * error / deviation, 1.5));
+        result[1] = Math.max(error, 50 * Math.ulp(1.0) * absolute * Math.abs(half));
+    }
+
+    private final static class Task extends RecursiveTask<double[]> {
+        private static final long serialVersionUID = -1976801738864984818L;
+
+        private final ThreadLocal<DoubleUnaryOperator> copies;
+        private final double a, b, value, error;
+        private final double tolerancePerWidth;
+        private final int depth;
+        // shared by all tasks of one integration
+        final AtomicLong evaluations;
+        final AtomicBoolean failed;
+        private final AtomicBoolean cancelled;
+
+        Task(ThreadLocal<DoubleUnaryOperator> copies, double a, double b, double value, double error,
+             double tolerancePerWidth, int depth, AtomicBoolean cancelled) {
+            this(copies, a, b, value, error, tolerancePerWidth, depth, new AtomicLong(), new AtomicBoolean(),
+                    cancelled);
+        }
+
+        private Task(ThreadLocal<DoubleUnaryOperator> copies, double a, double b, double value, double error,
+                     double tolerancePerWidth, int depth, AtomicLong evaluations, AtomicBoolean failed,
+                     AtomicBoolean cancelled) {
+            this.copies = copies;
+            this.a = a;
+            this.b = b;
+            this.value = value;
+            this.error = error;
+            this.tolerancePerWidth = tolerancePerWidth;
+            this.depth = depth;
+            this.evaluations = evaluations;
+            this.failed = failed;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected double[] compute() {
+            return this.integrate(this.a, this.b, this.value, this.error, this.depth);
+        }
+
+        private double[] integrate(double a, double b, double value, double error, int depth) {
+            if (error <= this.tolerancePerWidth * (b - a)) return new double[] {value, error};
+            final double m = a + (b - a) / 2;
+            if (depth >= MAX_DEPTH || !(a < m && m < b) || this.evaluations.get() >= MAX_EVALUATIONS
+                    || this.cancelled.get()) {
+                this.failed.set(true);
+                return new double[] {value, error};
+            }
+            final DoubleUnaryOperator f = this.copies.get();
+            final double[] left = new double[2], right = new double[2];
+            kronrod(f, a, m, left);
+            kronrod(f, m, b, right);
+            this.evaluations.addAndGet(30);
+            if (depth < FORK_DEPTH) {
+                final Task l = new Task(this.copies, a, m, left[0], left[1], this.tolerancePerWidth, depth + 1,
+                        this.evaluations, this.failed, this.cancelled);
+                final Task r = new Task(this.copies, m, b, right[0], right[1], this.tolerancePerWidth, depth + 1,
+                        this.evaluations, this.failed, this.cancelled);
+                l.fork();
+                final double[] resultRight = r.compute(), resultLeft = l.join();
+                return new double[] {resultLeft[0] + resultRight[0], resultLeft[1] + resultRight[1]};
+            }
+            final double[] resultLeft = this.integrate(a, m, left[0], left[1], depth + 1);
+            final double[] resultRight = this.integrate(m, b, right[0], right[1], depth + 1);
+            return new double[] {resultLeft[0] + resultRight[0], resultLeft[1] + resultRight[1]};
+        }
+    }
+}
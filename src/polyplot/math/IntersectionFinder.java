@@ -0,0 +1,172 @@
+package polyplot.math;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Finds the intersections of multiple {@link PureFunction}s in an interval, i.e. the roots of {@code f - g} for every
+ * pair of functions {@code f} and {@code g}.
+ * NOTE: Every function is sampled once on a common grid (or the samples are provided, e.g. by the renderer), so the
+ *       grid of a pair is just the difference of the samples. Pairs whose sampled value ranges do not overlap are
+ *       skipped. The remaining pairs are searched in parallel by a {@link RootFinder} each (which splits the interval
+ *       again), so the work is spread across all cores even if there are only a few pairs. The number of evaluations
+ *       is limited for every pair and the search can be cancelled at any time.
+ * @author 5hir0kur0
+ */
+public final class IntersectionFinder {
+    private final List<PureFunction> functions; // snapshots; never evaluated
+    private final List<ThreadLocal<DoubleUnaryOperator>> copies;
+    private final long maxEvaluations;
+    private final int maxIntersections;
+
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final AtomicBoolean truncated = new AtomicBoolean(false);
+    private final AtomicLong evaluations = new AtomicLong(0);
+    private final AtomicInteger skippedPairs = new AtomicInteger(0);
+
+    /**
+     * An intersection of two functions.
+     */
+    public final static class Intersection {
+        public final PureFunction first, second;
+        public final double x, y;
+
+        Intersection(PureFunction first, PureFunction second, double x, double y) {
+            this.first = first;
+            this.second = second;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public String toString() {
+            return this.first.getName() + "(" + this.x + ") = " + this.second.getName() + "(" + this.x + ") = "
+                    + this.y;
+        }
+    }
+
+    /**
+     * Creates a new {@code IntersectionFinder}.
+     * @param functions the functions; snapshots are taken, so later changes (e.g. of the offsets) do not matter
+     * @param maxEvaluations the maximum number of evaluations (excluding the samples) for every pair
+     * @param maxIntersections the maximum number of intersections to be found
+     */
+    public IntersectionFinder(List<PureFunction> functions, long maxEvaluations, int maxIntersections) {
+        if (maxEvaluations < 1 || maxIntersections < 1) throw new IllegalArgumentException("limits must be positive");
+        this.functions = new ArrayList<>(functions.size());
+        this.copies = new ArrayList<>(functions.size());
+        for (PureFunction f : functions) {
+            final PureFunction snapshot = f.copy();
+            this.functions.add(snapshot);
+            this.copies.add(ThreadLocal.withInitial(() -> snapshot.copy()::fastOf));
+        }
+        this.maxEvaluations = maxEvaluations;
+        this.maxIntersections = maxIntersections;
+    }
+
+    /**
+     * Finds the intersections in the interval {@code [from, to]}.
+     * @param intervals the number of intervals of the grid
+     * @param samples the samples of the functions (in the same order as the functions) taken at
+     *                {@code from + i * (to - from) / intervals}; an element may be {@code null} (or have the wrong
+     *                length) if there are no samples for that function
+     * @return the intersections in ascending order of their x values
+     */
+    public List<Intersection> find(double from, double to, int intervals, List<double[]> samples) {
+        if (!(from < to)) throw new IllegalArgumentException("invalid interval: [" + from + ", " + to + "]");
+        if (intervals < 1) throw new IllegalArgumentException("there must be at least one interval");
+        final int n = this.functions.size();
+        final double step = (to - from) / intervals;
+
+        final double[][] grid = new double[n][];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            final double[] given = samples == null || i >= samples.size() ? null : samples.get(i);
+            if (given != null && given.length == intervals + 1) {
+                grid[i] = given;
+                return;
+            }
+            final DoubleUnaryOperator f = this.copies.get(i).get();
+            grid[i] = new double[intervals + 1];
+            for (int j = 0; j <= intervals && !this.cancelled.get(); ++j)
+                grid[i][j] = f.applyAsDouble(from + j * step);
+            this.evaluations.addAndGet(intervals + 1);
+        });
+
+        // the ranges of the finite samples; NaN if there are none
+        final double[] min = new double[n], max = new double[n];
+        for (int i = 0; i < n; ++i) {
+            min[i] = Double.NaN;
+            max[i] = Double.NaN;
+            for (double d : grid[i]) {
+                if (d != d || Double.isInfinite(d)) continue;
+                if (!(d >= min[i])) min[i] = d;
+                if (!(d <= max[i])) max[i] = d;
+            }
+        }
+
+        final List<int[]> pairs = new ArrayList<>(n * (n - 1) / 2);
+        for (int i = 0; i < n; ++i)
+            for (int j = i + 1; j < n; ++j)
+                if (max[i] >= min[j] && max[j] >= min[i]) pairs.add(new int[] {i, j}); // false if one of them is NaN
+                else this.skippedPairs.incrementAndGet();
+
+        final List<Intersection> result = pairs.parallelStream().flatMap(pair -> {
+            final ThreadLocal<DoubleUnaryOperator> f = this.copies.get(pair[0]), g = this.copies.get(pair[1]);
+            final double[] difference = new double[intervals + 1];
+            for (int j = 0; j <= intervals; ++j) difference[j] = grid[pair[0]][j] - grid[pair[1]][j];
+            final RootFinder finder = new RootFinder(
+                    ThreadLocal.withInitial(() -> {
+                        final DoubleUnaryOperator fc = f.get(), gc = g.get();
+                        return x -> fc.applyAsDouble(x) - gc.applyAsDouble(x);
+                    }), this.maxEvaluations, this.maxIntersections, this.cancelled);
+            final double[] roots = finder.find(from, to, difference);
+            this.evaluations.addAndGet(2 * finder.getEvaluations());
+            if (finder.isTruncated()) this.truncated.set(true);
+            final DoubleUnaryOperator fc = f.get();
+            final List<Intersection> intersections = new ArrayList<>(roots.length);
+            for (double x : roots)
+                intersections.add(new Intersection(this.functions.get(pair[0]), this.functions.get(pair[1]), x,
+                        fc.applyAsDouble(x)));
+            return intersections.stream();
+        }).sorted(Comparator.comparingDouble(i -> i.x)).collect(Collectors.toList());
+
+        if (result.size() > this.maxIntersections) {
+            this.truncated.set(true);
+            return new ArrayList<>(result.subList(0, this.maxIntersections));
+        }
+        return result;
+    }
+
+    public void cancel() {
+        this.cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled.get();
+    }
+
+    /**
+     * @return {@code true} if the evaluation or intersection limit was reached, i.e. there might be more intersections
+     */
+    public boolean isTruncated() {
+        return this.truncated.get();
+    }
+
+    public long getEvaluations() {
+        return this.evaluations.get();
+    }
+
+    /**
+     * @return the number of pairs that were skipped because their value ranges do not overlap
+     */
+    public int getSkippedPairs() {
+        return this.skippedPairs.get();
+    }
+}
@@ -0,0 +1,269 @@
+package polyplot.math;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * An opt-in profiler for the interpreters of compiled functions.
+ * NOTE: If the profiler is enabled, {@link PureFunction#of(double)}, {@link PureFunction#fastOf(double)} and
+ *       {@link ImpureFunction#ofStoredArgs()} use a slower interpreter that counts how often every token of the
+ *       function is executed. The time is only measured for every {@value #SAMPLE_INTERVAL}th evaluation and
+ *       extrapolated. The measured times are inclusive, i.e. the time of a token that calls another function contains
+ *       the time spent in that function. If the profiler is disabled, the only overhead is checking
+ *       {@link #enabled}. The extended-precision and complex interpreters are not profiled.
+ *       The profiles only hold the functions weakly. When a function is garbage collected (e.g. a copy of a worker
+ *       thread), its data is merged into one profile per function definition, so the number of profiles stays
+ *       bounded.
+ * @author 5hir0kur0
+ */
+public final class Profiler {
+    final static int SAMPLE_INTERVAL = 16;
+
+    static volatile boolean enabled = false;
+
+    // the profiles of the functions that are still reachable and the merged profiles of the collected ones (per name
+    // and expression); both guarded by the lock
+    private final static Object lock = new Object();
+    private final static Set<Entry> live = new HashSet<>();
+    private final static Map<String, Profile> retired = new HashMap<>();
+    private final static ReferenceQueue<Function> collected = new ReferenceQueue<>();
+
+    private Profiler() {}
+
+    /**
+     * The profiling data of one {@link Function}. Copies of functions (e.g. used by worker threads) get their own
+     * profiles, which are merged by name when the results are shown.
+     */
+    final static class Profile {
+        final String name;
+        final String[] labels;
+        final long[] tokenCounts;
+        final long[] tokenNanos; // only measured in sampled evaluations
+        long calls;
+        long sampledCalls;
+        long sampledNanos;
+
+        private Profile(Function function) {
+            this.name = function.getName();
+            this.labels = new String[function.postfix.length];
+            for (int i = 0; i < this.labels.length; ++i)
+                this.labels[i] = label(function.postfix[i]);
+            this.tokenCounts = new long[this.labels.length];
+            this.tokenNanos = new long[this.labels.length];
+        }
+
+        /**
+         * Creates an empty profile with the same operations as the given one.
+         */
+        private Profile(Profile other) {
+            this.name = other.name;
+            this.labels = other.labels;
+            this.tokenCounts = new long[this.labels.length];
+            this.tokenNanos = new long[this.labels.length];
+        }
+
+        /**
+         * Adds the data of a profile of the same function definition to this one.
+         */
+        private void add(Profile other) {
+            this.calls += other.calls;
+            this.sampledCalls += other.sampledCalls;
+            this.sampledNanos += other.sampledNanos;
+            for (int i = 0; i < this.labels.length; ++i) {
+                this.tokenCounts[i] += other.tokenCounts[i];
+                this.tokenNanos[i] += other.tokenNanos[i];
+            }
+        }
+
+        private void clear() {
+            this.calls = this.sampledCalls = this.sampledNanos = 0;
+            Arrays.fill(this.tokenCounts, 0);
+            Arrays.fill(this.tokenNanos, 0);
+        }
+
+        /**
+         * @return the estimated total time in nanoseconds
+         */
+        double estimatedNanos() {
+            return this.sampledCalls == 0 ? 0.0 : (double) this.sampledNanos * this.calls / this.sampledCalls;
+        }
+    }
+
+    private static String label(CompiledToken token) {
+        switch (token.type) {
+            case NUMBER: return "<number>";
+            case ARGUMENT: return "<argument>";
+            case UNARY_OPERATION:
+                if (token.unaryOperator instanceof Function) return ((Function) token.unaryOperator).getName() + "()";
+                return "unary " + token;
+            case BINARY_OPERATION:
+                if (token.binaryOperator instanceof Function) return ((Function) token.binaryOperator).getName() + "()";
+                return token.toString();
+            case FUNCTION: return token.function.getName() + "()";
+            default: return token.toString();
+        }
+    }
+
+    /**
+     * The profile of a function that might still be evaluated.
+     */
+    private final static class Entry extends WeakReference<Function> {
+        final Profile profile;
+        final String definition; // the name and the expression; copies of a function have the same operations
+
+        Entry(Function function, Profile profile) {
+            super(function, collected);
+            this.profile = profile;
+            this.definition = function.getName() + '\n' + function.getFullExpression();
+        }
+    }
+
+    static Profile register(Function function) {
+        final Profile result = new Profile(function);
+        synchronized (lock) {
+            expunge();
+            live.add(new Entry(function, result));
+        }
+        return result;
+    }
+
+    /**
+     * Merges the profiles of the functions that were garbage collected. Must be called with the lock held.
+     */
+    private static void expunge() {
+        for (Object reference; (reference = collected.poll()) != null; ) {
+            final Entry e = (Entry) reference;
+            if (!live.remove(e) || e.profile.calls == 0) continue;
+            retired.computeIfAbsent(e.definition, d -> new Profile(e.profile)).add(e.profile);
+        }
+    }
+
+    /**
+     * @return all profiles; must be called with the lock held
+     */
+    private static List<Profile> profiles() {
+        expunge();
+        final List<Profile> result = new ArrayList<>(live.size() + retired.size());
+        for (Entry e : live)
+            result.add(e.profile);
+        result.addAll(retired.values());
+        return result;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Profiler.enabled = enabled;
+    }
+
+    /**
+     * Removes all collected data.
+     * NOTE: Functions that are evaluated while this method is running might keep some of their data.
+     */
+    public static void reset() {
+        synchronized (lock) {
+            expunge();
+            retired.clear();
+            for (Entry e : live)
+                e.profile.clear();
+        }
+    }
+
+    /**
+     * A row of a result table.
+     */
+    private final static class Row {
+        final String name;
+        long calls;
+        double nanos;
+
+        Row(String name) {
+            this.name = name;
+        }
+    }
+
+    private static List<Row> sort(Collection<Row> rows, String sortBy) {
+        final Comparator<Row> comparator;
+        switch (Objects.requireNonNull(sortBy, "sort key must not be null").trim().toLowerCase()) {
+            case "name": comparator = Comparator.comparing(r -> r.name); break;
+            case "calls": comparator = Comparator.comparingLong((Row r) -> r.calls).reversed(); break;
+            case "avg": comparator = Comparator.comparingDouble((Row r) -> r.nanos / Math.max(1, r.calls)).reversed();
+                break;
+            case "time": comparator = Comparator.comparingDouble((Row r) -> r.nanos).reversed(); break;
+            default: throw new IllegalArgumentException("invalid sort key (valid: name, calls, avg, time): " + sortBy);
+        }
+        final List<Row> result = new ArrayList<>(rows);
+        result.sort(comparator);
+        return result;
+    }
+
+    private static String format(List<Row> rows, String firstColumn) {
+        final StringBuilder result = new StringBuilder();
+        result.append(String.format("%-24s %12s %12s %10s%n", firstColumn, "calls", "time [ms]", "avg [ns]"));
+        for (Row r : rows)
+            result.append(String.format("%-24s %12d %12.3f %10.1f%n", r.name, r.calls, r.nanos / 1e6,
+                    r.nanos / Math.max(1, r.calls)));
+        return result.toString();
+    }
+
+    private static List<Row> functionRows(String sortBy) {
+        final Map<String, Row> rows = new HashMap<>();
+        synchronized (lock) {
+            for (Profile p : profiles()) {
+                if (p.calls == 0) continue;
+                final Row r = rows.computeIfAbsent(p.name, Row::new);
+                r.calls += p.calls;
+                r.nanos += p.estimatedNanos();
+            }
+        }
+        return sort(rows.values(), sortBy);
+    }
+
+    /**
+     * Creates a table of all profiled functions.
+     * @param sortBy the column to sort by: {@code "name"}, {@code "calls"}, {@code "avg"} or {@code "time"}
+     * @return the table
+     */
+    public static String table(String sortBy) {
+        return format(functionRows(sortBy), "function");
+    }
+
+    /**
+     * Creates a table of the operations (token types, operators and called functions) of a function.
+     * @param function the function's name; must not be {@code null}
+     * @param sortBy the column to sort by: {@code "name"}, {@code "calls"}, {@code "avg"} or {@code "time"}
+     * @return the table
+     */
+    public static String operations(String function, String sortBy) {
+        final Map<String, Row> rows = new HashMap<>();
+        synchronized (lock) {
+            for (Profile p : profiles()) {
+                if (!p.name.equalsIgnoreCase(function) || p.sampledCalls == 0) continue;
+                final double factor = (double) p.calls / p.sampledCalls;
+                for (int i = 0; i < p.labels.length; ++i) {
+                    final Row r = rows.computeIfAbsent(p.labels[i], Row::new);
+                    r.calls += p.tokenCounts[i];
+                    r.nanos += p.tokenNanos[i] * factor;
+                }
+            }
+        }
+        return format(sort(rows.values(), sortBy), function);
+    }
+
+    /**
+     * @param n the maximum number of functions
+     * @return short descriptions of the {@code n} functions with the most time spent in them
+     */
+    public static List<String> summary(int n) {
+        final List<String> result = new ArrayList<>(n);
+        for (Row r : functionRows("time")) {
+            if (result.size() >= n) break;
+            result.add(String.format("%s: %d calls, %.3f ms, %.1f ns/call", r.name, r.calls, r.nanos / 1e6,
+                    r.nanos / Math.max(1, r.calls)));
+        }
+        return result;
+    }
+}
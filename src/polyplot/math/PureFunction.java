@@ -1,6 +1,9 @@
 package polyplot.math;
 
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.DoubleUnaryOperator;
 
 /**
@@ -13,14 +16,37 @@ public final class PureFunction extends Function implements DoubleUnaryOperator
     private double xOffset = 0.0;
     private double yOffset = 0.0;
 
+    private final DoubleDouble deepX = new DoubleDouble();
+    private final double[] profileArgs = new double[1];
+
+    // the offsets of a function also change the values of all functions calling it, so every cache has to be
+    // invalidated when any offset changes; read by the threads that render the functions
+    private final static AtomicLong offsetModifications = new AtomicLong();
+    private long modifications = 0; // of the offsets of this function (see getModifications())
+    private EvaluationCache cache = null; // keyed on the exact argument
+    private EvaluationCache renderCache = null; // keyed on the quantized argument
+
     PureFunction(String name, String fullExpression, CompiledToken[] postfix) {
         super(name, fullExpression, 1, Objects.requireNonNull(postfix, "compiled postfix expression must not be null"));
-        this.of(0.0); // needed because the stack needs to be the correct size for fastOf(...) to work
     }
 
     public double of(double x) {
-        x += xOffset;
-        for (CompiledToken token : this.postfix) {
+        return this.execute(x + this.xOffset) + this.yOffset;
+    }
+
+    /**
+     * Evaluates the compiled expression without the offsets (used for recursive calls, see {@link Recursion}).
+     * @param x the argument (including the x offset)
+     * @return the value of the expression (excluding the y offset)
+     */
+    double execute(double x) {
+        if (Profiler.enabled) {
+            this.profileArgs[0] = x;
+            return this.profiledExecute(this.profileArgs);
+        }
+        final CompiledToken[] postfix = this.postfix;
+        for (int i = 0; i < postfix.length; ++i) {
+            final CompiledToken token = postfix[i];
             switch (token.type) {
                 case NUMBER: this.stack.push(token.number); break;
                 case ARGUMENT: this.stack.push(x); break;
@@ -32,25 +58,56 @@ public final class PureFunction extends Function implements DoubleUnaryOperator
                 } break;
                 case FUNCTION: {
                     ImpureFunction f = token.function;
-                    for (int i = 0, stop = f.getNumberOfArguments(); i < stop; ++i)
-                        f.args[i] = this.stack.pop();
+                    for (int j = 0, stop = f.getNumberOfArguments(); j < stop; ++j)
+                        f.args[j] = this.stack.pop();
                     this.stack.push(f.ofStoredArgs());
                 } break;
+                case JUMP: i += token.index - 1; break;
+                case JUMP_IF_FALSE: {
+                    final double condition = this.stack.pop();
+                    if (condition == 0.0) i += token.index - 1;
+                    else if (condition != condition) {
+                        this.stack.push(Double.NaN);
+                        i = CompiledToken.endOfConditional(postfix, i);
+                    }
+                } break;
             }
         }
         if (this.stack.size() != 1) throw new IllegalStateException("stack not one at the end of calculation");
-        return this.stack.pop() + yOffset;
+        return this.stack.pop();
+    }
+
+    /**
+     * @return the number of changes of any offset of any function so far (used to invalidate caches)
+     */
+    public static long getOffsetModifications() {
+        return offsetModifications.get();
+    }
+
+    /**
+     * Invalidates the caches of all functions (e.g. if the value of an {@link AnimatedConstant} changes).
+     */
+    static void invalidateCaches() {
+        offsetModifications.incrementAndGet();
     }
 
     public void setXOffset(double xOffset) {
         if (Double.isNaN(xOffset) || Double.isInfinite(xOffset))
             throw new IllegalArgumentException("illegal x offset: " + xOffset);
+        if (this.xOffset != xOffset) {
+            offsetModifications.incrementAndGet();
+            ++this.modifications;
+        }
         this.xOffset = xOffset;
     }
 
     public void setYOffset(double yOffset) {
         if (Double.isNaN(yOffset) || Double.isInfinite(yOffset))
             throw new IllegalArgumentException("illegal y offset: " + yOffset);
+        if (this.yOffset != yOffset) {
+            offsetModifications.incrementAndGet();
+            ++this.modifications;
+        }
         this.yOffset = yOffset;
     }
 
@@ -69,8 +126,11 @@ public final class PureFunction extends Function implements DoubleUnaryOperator
      * @see #of(double)
      */
     public double fastOf(double x) {
+        if (Profiler.enabled) return this.profiledOf(x);
         x += xOffset;
-        for (CompiledToken token : this.postfix) {
+        final CompiledToken[] postfix = this.postfix;
+        for (int i = 0; i < postfix.length; ++i) {
+            final CompiledToken token = postfix[i];
             switch (token.type) {
                 case NUMBER: this.stack.stack[++this.stack.top] = token.number; break;
                 case ARGUMENT: this.stack.stack[++this.stack.top] = x; break;
@@ -102,16 +162,155 @@ public final class PureFunction extends Function implements DoubleUnaryOperator
                     break;
                 case FUNCTION:
                     ImpureFunction f = token.function;
-                    for (int i = 0, stop = f.getNumberOfArguments(); i < stop; ++i)
-                        f.args[i] = this.stack.stack[this.stack.top--];
+                    for (int j = 0, stop = f.getNumberOfArguments(); j < stop; ++j)
+                        f.args[j] = this.stack.stack[this.stack.top--];
                     this.stack.stack[++this.stack.top] = f.ofStoredArgs();
                     break;
+                case JUMP: i += token.index - 1; break;
+                case JUMP_IF_FALSE:
+                    final double condition = this.stack.stack[this.stack.top--];
+                    if (condition == 0.0) i += token.index - 1;
+                    else if (condition != condition) {
+                        this.stack.stack[++this.stack.top] = Double.NaN;
+                        i = CompiledToken.endOfConditional(postfix, i);
+                    }
+                    break;
             }
         }
         if (this.stack.top != 0) throw new IllegalStateException("stack not one at the end of calculation");
         return this.stack.stack[this.stack.top--] + yOffset;
     }
 
+    private double profiledOf(double x) {
+        this.profileArgs[0] = x + this.xOffset;
+        return this.profiledExecute(this.profileArgs) + this.yOffset;
+    }
+
+    /**
+     * Enables the evaluation cache used by {@link #cachedOf(double)}.
+     * NOTE: The cache is invalidated automatically if any offset changes. If the function is redefined, a new
+     *       {@code PureFunction} (with a new cache) is created anyway.
+     * @param size the maximum number of cached values; {@code 0} disables the cache
+     */
+    public void setCacheSize(int size) {
+        if (size < 0) throw new IllegalArgumentException("cache size must not be negative");
+        this.cache = size == 0 ? null : new EvaluationCache(size);
+    }
+
+    /**
+     * Enables the evaluation cache used by {@link #cachedOf(double, double)}. It is only needed by the copies that
+     * are rendered with quantized arguments, so it is separate from {@link #setCacheSize(int)}.
+     * @param size the maximum number of cached values; {@code 0} disables the cache
+     */
+    public void setRenderCacheSize(int size) {
+        if (size < 0) throw new IllegalArgumentException("cache size must not be negative");
+        this.renderCache = size == 0 ? null : new EvaluationCache(size);
+    }
+
+    /**
+     * Like {@link #fastOf(double)}, but the values are stored in a cache, so evaluating the function at the same
+     * argument again (e.g. while the mouse does not move) does not require another calculation.
+     * @param x the argument of the function
+     * @return the value of the function at x
+     */
+    public double cachedOf(double x) {
+        final EvaluationCache c = this.cache;
+        if (c == null) return this.fastOf(x);
+        c.validate(offsetModifications.get(), 0.0);
+        final long key = Double.doubleToRawLongBits(x);
+        final int slot = c.find(key);
+        if (slot >= 0) return c.values[slot];
+        final double value = this.fastOf(x);
+        c.put(~slot, key, value);
+        return value;
+    }
+
+    /**
+     * Evaluates the function at the multiple of {@code quantum} that is closest to {@code x} and caches the value.
+     * This is meant for rendering: If the quantum is the width of a pixel, the arguments stay the same when the view
+     * is moved by whole pixels, even if the exact arguments differ by rounding errors.
+     * @param x the argument of the function
+     * @param quantum the resolution of the arguments; must be positive
+     * @return the value of the function at the quantized argument
+     */
+    public double cachedOf(double x, double quantum) {
+        final double index = Math.rint(x / quantum);
+        final EvaluationCache c = this.renderCache;
+        if (c == null) return this.fastOf(index * quantum);
+        c.validate(offsetModifications.get(), quantum);
+        final long key = Double.doubleToRawLongBits(index);
+        final int slot = c.find(key);
+        if (slot >= 0) return c.values[slot];
+        final double value = this.fastOf(index * quantum);
+        c.put(~slot, key, value);
+        return value;
+    }
+
+    /**
+     * @return the cache used by {@link #cachedOf(double)} or {@code null} if caching is disabled
+     */
+    public EvaluationCache getCache() {
+        return this.cache;
+    }
+
+    /**
+     * @return the cache used by {@link #cachedOf(double, double)} or {@code null} if caching is disabled
+     */
+    public EvaluationCache getRenderCache() {
+        return this.renderCache;
+    }
+
+    /**
+     * Calculates the value of the function with double-double precision. This is a lot slower than
+     * {@link #fastOf(double)} and should only be used if the arguments cannot be distinguished as {@code double}s
+     * anymore (e.g. when zooming in very far).
+     * @param x the argument; must not be {@code null}
+     * @param result the object the result is stored in; may be the same object as {@code x}
+     * @see DoubleDouble
+     */
+    public void deepOf(DoubleDouble x, DoubleDouble result) {
+        this.deepX.set(x).add(this.xOffset);
+        this.deepArgs[0] = this.deepX.hi;
+        this.deepArgs[1] = this.deepX.lo;
+        this.deepExecute(result);
+        result.add(this.yOffset);
+    }
+
+    /**
+     * Calculates the value of the function at a complex argument. The offsets only move the function along the real
+     * axes.
+     * @param z the argument; must not be {@code null}
+     * @param result the object the result is stored in; may be the same object as {@code z}
+     * @see Complex
+     */
+    public void complexOf(Complex z, Complex result) {
+        this.complexArgs[0] = z.re + this.xOffset;
+        this.complexArgs[1] = z.im;
+        this.complexExecute(result);
+        result.add(this.yOffset);
+    }
+
+    @Override
+    long getModifications(Set<Function> visited) {
+        return visited.contains(this) ? 0 : this.modifications + super.getModifications(visited);
+    }
+
+    @Override
+    public PureFunction copy() {
+        return (PureFunction) super.copy();
+    }
+
+    @Override
+    PureFunction copy(Map<Function, Function> copies) {
+        final Function existing = copies.get(this);
+        if (existing != null) return (PureFunction) existing;
+        final PureFunction result = new PureFunction(this.name, this.expression, this.copyPostfix(copies));
+        result.xOffset = this.xOffset;
+        result.yOffset = this.yOffset;
+        copies.put(this, result);
+        return result;
+    }
+
     @Override
     public double applyAsDouble(double operand) {
         return this.of(operand);
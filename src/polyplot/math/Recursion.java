@@ -0,0 +1,188 @@
+package polyplot.math;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A call of a function from within its own definition, e.g. {@code fib(n) = if(n < 2, n, fib(n - 1) + fib(n - 2))}.
+ * Recursive functions can have one argument (the call is a unary operation) or two (a binary operation).
+ * NOTE: The call is compiled before the function exists, so the function binds itself to the call when it is
+ *       created (see {@link #bind(CompiledToken[], Function)}). As evaluating a function modifies its internal state,
+ *       every level of the recursion is evaluated by its own copy of the function (a frame); the frames share this
+ *       object. The calls do not include the offsets of the function, so moving it moves the whole graph.
+ *       The results are stored in a memo table, so e.g. the naive definition of the Fibonacci numbers above runs in
+ *       linear time. The table is keyed on the exact argument (with two arguments only on integers) and cleared if any
+ *       offset changes, just like {@link EvaluationCache}. The depth of the recursion is limited, so functions without
+ *       a (reachable) base case are {@code NaN} instead of overflowing the stack.
+ * @author 5hir0kur0
+ */
+final class Recursion extends Function implements DoubleUnaryOperator, DoubleBinaryOperator {
+    final static int MAX_DEPTH = 1000;
+    private final static int MEMO_SIZE = 1 << 16;
+
+    private Function root; // null until the function is created
+    private final List<Function> frames = new ArrayList<>(); // frames.get(i) evaluates the calls at depth i + 1
+    private EvaluationCache memo = null; // only allocated if the function is evaluated
+    private long frameModifications = -1; // see PureFunction.getOffsetModifications()
+    private int depth = 0;
+    private boolean overflow = false; // set if the maximum depth was reached, until the outermost call returns
+
+    Recursion(String name, int numberOfArguments) {
+        super(name, "[recursive call]", numberOfArguments, null, false);
+        if (numberOfArguments > 2)
+            throw new IllegalArgumentException("recursive functions cannot have more than two arguments");
+    }
+
+    /**
+     * Binds all unbound recursive calls of a function to it, including the calls in the expressions of series.
+     * @param postfix the compiled expression of the function
+     * @param root the function
+     */
+    static void bind(CompiledToken[] postfix, Function root) {
+        for (CompiledToken token : postfix) {
+            final Object operation = token.unaryOperator != null ? token.unaryOperator : token.binaryOperator;
+            if (operation instanceof Recursion) {
+                final Recursion recursion = (Recursion) operation;
+                if (recursion.root == null && recursion.name.equalsIgnoreCase(root.name)) recursion.root = root;
+            } else if (token.function instanceof Series)
+                bind(token.function.postfix, root);
+        }
+    }
+
+    private EvaluationCache memo() {
+        if (this.memo == null) this.memo = new EvaluationCache(MEMO_SIZE);
+        this.memo.validate(PureFunction.getOffsetModifications(), 0.0);
+        return this.memo;
+    }
+
+    /**
+     * @return the frame for the calls at the current depth
+     */
+    private Function frame() {
+        if (this.depth == 0 && this.frameModifications != PureFunction.getOffsetModifications()) {
+            // the frames are copies, so they would keep the old offsets and values of animated constants
+            this.frames.clear();
+            this.frameModifications = PureFunction.getOffsetModifications();
+        }
+        while (this.frames.size() <= this.depth) {
+            final Map<Function, Function> copies = new IdentityHashMap<>();
+            copies.put(this, this); // all frames share this object
+            this.frames.add(this.root.copy(copies));
+        }
+        return this.frames.get(this.depth);
+    }
+
+    /**
+     * Checks the depth before a call. Once the maximum depth is reached, all calls are {@code NaN} until the
+     * outermost call returns. Otherwise the results would not be stored (they are not the actual values), so the
+     * number of calls would grow exponentially in many cases.
+     * @return {@code true} if the call must not be evaluated
+     */
+    private boolean overflow() {
+        if (this.depth >= MAX_DEPTH) this.overflow = true;
+        return this.overflow;
+    }
+
+    private void leave() {
+        if (--this.depth == 0) this.overflow = false;
+    }
+
+    /**
+     * Called if the stack of the thread is too small for the maximum depth (e.g. if every level of the recursion
+     * evaluates a series). The frames are discarded, because the exception might have left them in any state.
+     */
+    private double abort() {
+        this.frames.clear();
+        return Double.NaN;
+    }
+
+    @Override
+    public double applyAsDouble(double x) {
+        if (this.root == null) return Double.NaN; // the function is still being created
+        final EvaluationCache memo = this.memo();
+        final long key = Double.doubleToRawLongBits(x);
+        final int slot = memo.find(key);
+        if (slot >= 0) return memo.values[slot];
+        if (this.overflow()) return Double.NaN;
+        final PureFunction frame = (PureFunction) this.frame();
+        final double result;
+        ++this.depth;
+        try {
+            result = frame.execute(x);
+        } catch (StackOverflowError e) {
+            if (this.depth > 1) throw e; // handled by the outermost call
+            return this.abort(); // the result is not stored
+        } finally {
+            this.leave();
+        }
+        if (!this.overflow) memo.store(key, result); // the slot might have been used meanwhile
+        return result;
+    }
+
+    @Override
+    public double applyAsDouble(double x, double y) {
+        if (this.root == null) return Double.NaN;
+        final EvaluationCache memo = this.memo();
+        final boolean integers = x == (int) x && y == (int) y;
+        final long key = ((long) (int) x << 32) | ((int) y & 0xFFFFFFFFL);
+        if (integers) {
+            final int slot = memo.find(key);
+            if (slot >= 0) return memo.values[slot];
+        }
+        if (this.overflow()) return Double.NaN;
+        final ImpureFunction frame = (ImpureFunction) this.frame();
+        final double result;
+        ++this.depth;
+        try {
+            frame.args[0] = x;
+            frame.args[1] = y;
+            result = frame.ofStoredArgs();
+        } catch (StackOverflowError e) {
+            if (this.depth > 1) throw e;
+            return this.abort(); // the result is not stored
+        } finally {
+            this.leave();
+        }
+        if (integers && !this.overflow) memo.store(key, result);
+        return result;
+    }
+
+    @Override
+    public double of(double... args) {
+        if (args.length != this.numberOfArguments)
+            throw new IllegalArgumentException("illegal number of arguments: " + args.length);
+        return args.length == 1 ? this.applyAsDouble(args[0]) : this.applyAsDouble(args[0], args[1]);
+    }
+
+    @Override
+    long getModifications(Set<Function> visited) {
+        return visited.add(this) && this.root != null ? this.root.getModifications(visited) : 0;
+    }
+
+    @Override
+    Recursion copy(Map<Function, Function> copies) {
+        final Function existing = copies.get(this);
+        if (existing != null) return (Recursion) existing;
+        final Recursion result = new Recursion(this.name, this.numberOfArguments); // bound by the copied function
+        copies.put(this, result);
+        return result;
+    }
+
+    /**
+     * @return a guess, as the number of calls is unknown
+     */
+    @Override
+    public double getCost() {
+        return 10.0;
+    }
+
+    @Override
+    public String toString() {
+        return this.name + "[recursive]()";
+    }
+}
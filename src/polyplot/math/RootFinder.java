@@ -0,0 +1,303 @@
+package polyplot.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Finds the roots of a {@link PureFunction} in an interval.
+ * NOTE: The interval is sampled on an equally spaced grid (or the samples are provided, e.g. by the renderer) and the
+ *       grid is split across a fork/join pool. Every sign change between two samples is refined with Brent's method.
+ *       Around local minima of the absolute value of the samples (without a sign change), the minimum is searched,
+ *       so touching roots (like the one of "x^2") and pairs of close roots are found as well. To stay responsive for
+ *       heavily oscillating functions (e.g. "sin(1/x)"), the number of evaluations and the number of roots are
+ *       limited and the search can be cancelled at any time.
+ * @author 5hir0kur0
+ */
+public final class RootFinder {
+    private final static int LEAF_INTERVALS = 64; // number of grid intervals processed by one task
+    private final static int MAX_ITERATIONS = 100;
+
+    private final ThreadLocal<DoubleUnaryOperator> copies; // one copy of the function per thread
+    private final long maxEvaluations;
+    private final int maxRoots;
+
+    private final AtomicBoolean cancelled;
+    private final AtomicBoolean truncated = new AtomicBoolean(false);
+    private final AtomicLong evaluations = new AtomicLong(0);
+
+    /**
+     * Creates a new {@code RootFinder}.
+     * @param function the function; a snapshot is taken, so later changes (e.g. of the offsets) do not matter
+     * @param maxEvaluations the maximum number of evaluations of the function (excluding the provided samples)
+     * @param maxRoots the maximum number of roots to be found
+     */
+    public RootFinder(PureFunction function, long maxEvaluations, int maxRoots) {
+        this(copies(function), maxEvaluations, maxRoots, new AtomicBoolean(false));
+    }
+
+    /**
+     * @param copies supplies the function that is evaluated by the current thread
+     * @param cancelled the flag that cancels the search (may be shared between multiple searches)
+     */
+    RootFinder(ThreadLocal<DoubleUnaryOperator> copies, long maxEvaluations, int maxRoots, AtomicBoolean cancelled) {
+        if (maxEvaluations < 1 || maxRoots < 1) throw new IllegalArgumentException("limits must be positive");
+        this.copies = copies;
+        this.maxEvaluations = maxEvaluations;
+        this.maxRoots = maxRoots;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * @return the thread local copies of a snapshot of the function (the snapshot itself is never evaluated, so it can
+     *         be copied concurrently)
+     */
+    static ThreadLocal<DoubleUnaryOperator> copies(PureFunction function) {
+        final PureFunction snapshot = function.copy();
+        return ThreadLocal.withInitial(() -> snapshot.copy()::fastOf);
+    }
+
+    /**
+     * Finds the roots in the interval {@code [from, to]} by sampling it at {@code intervals + 1} points.
+     * @return the roots in ascending order
+     */
+    public double[] find(double from, double to, int intervals) {
+        if (intervals < 1) throw new IllegalArgumentException("there must be at least one interval");
+        return this.find(from, to, intervals, null);
+    }
+
+    /**
+     * Finds the roots in the interval {@code [from, to]} by using the given samples of the function. The samples must
+     * have been taken at {@code from + i * (to - from) / (samples.length - 1)}.
+     * @return the roots in ascending order
+     */
+    public double[] find(double from, double to, double[] samples) {
+        if (samples.length < 2) throw new IllegalArgumentException("there must be at least two samples");
+        return this.find(from, to, samples.length - 1, samples);
+    }
+
+    private double[] find(double from, double to, int intervals, double[] samples) {
+        if (!(from < to)) throw new IllegalArgumentException("invalid interval: [" + from + ", " + to + "]");
+        final Search search = new Search(from, (to - from) / intervals, 0, intervals, samples);
+        // searches can be nested (see IntersectionFinder)
+        final List<Double> roots = ForkJoinTask.inForkJoinPool() ?
+                search.invoke() : ForkJoinPool.commonPool().invoke(search);
+        final double[] result = roots.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        // remove duplicates (e.g. roots that are exactly on the border of two tasks)
+        final double epsilon = (to - from) / intervals * 1e-9;
+        int size = 0;
+        for (int i = 0; i < result.length; ++i)
+            if (size == 0 || result[i] - result[size - 1] > epsilon) result[size++] = result[i];
+        if (size > this.maxRoots) {
+            this.truncated.set(true);
+            size = this.maxRoots;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    public void cancel() {
+        this.cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled.get();
+    }
+
+    /**
+     * @return {@code true} if the evaluation or root limit was reached, i.e. there might be more roots
+     */
+    public boolean isTruncated() {
+        return this.truncated.get();
+    }
+
+    public long getEvaluations() {
+        return this.evaluations.get();
+    }
+
+    private final class Search extends RecursiveTask<List<Double>> {
+        private static final long serialVersionUID = -561183317355615549L;
+
+        private final double from, step;
+        private final int first, last; // grid intervals [first, last)
+        private final double[] samples;
+        private DoubleUnaryOperator f;
+        private long localEvaluations;
+
+        Search(double from, double step, int first, int last, double[] samples) {
+            this.from = from;
+            this.step = step;
+            this.first = first;
+            this.last = last;
+            this.samples = samples;
+        }
+
+        @Override
+        protected List<Double> compute() {
+            if (this.last - this.first > LEAF_INTERVALS) {
+                final int middle = (this.first + this.last) >>> 1;
+                final Search left = new Search(this.from, this.step, this.first, middle, this.samples);
+                final Search right = new Search(this.from, this.step, middle, this.last, this.samples);
+                left.fork();
+                final List<Double> result = right.compute();
+                result.addAll(left.join());
+                return result;
+            }
+            this.f = copies.get();
+            final List<Double> result = new ArrayList<>();
+            // the sample before the first one is needed to find local minima of |f| at the first grid point
+            double previous = Double.NaN, fPrevious = Double.NaN;
+            if (this.first > 0) fPrevious = this.sample(this.first - 1, previous = this.x(this.first - 1));
+            double a = this.x(this.first), fa = this.sample(this.first, a);
+            for (int i = this.first; i < this.last; ++i) {
+                if (RootFinder.this.cancelled.get()) break;
+                if (RootFinder.this.evaluations.get() + this.localEvaluations > maxEvaluations
+                        || result.size() > maxRoots) {
+                    RootFinder.this.truncated.set(true);
+                    break;
+                }
+                final double b = this.x(i + 1), fb = this.sample(i + 1, b);
+                if (fa == 0.0) result.add(a);
+                else if (isFinite(fa) && isFinite(fb) && (fa < 0) != (fb < 0)) {
+                    if (fb != 0.0) this.refine(a, fa, b, fb, result);
+                } else if (isDip(fPrevious, fa, fb)) this.dip(previous, fPrevious, b, fb, result);
+                if (fb == 0.0 && i + 1 == this.last) result.add(b); // all other roots on the grid are added as 'a'
+                previous = a;
+                fPrevious = fa;
+                a = b;
+                fa = fb;
+            }
+            RootFinder.this.evaluations.addAndGet(this.localEvaluations);
+            return result;
+        }
+
+        private double x(int index) {
+            return this.from + index * this.step;
+        }
+
+        private double sample(int index, double x) {
+            if (this.samples != null) return this.samples[index];
+            return this.evaluate(x);
+        }
+
+        private double evaluate(double x) {
+            ++this.localEvaluations;
+            return this.f.applyAsDouble(x);
+        }
+
+        /**
+         * Minimizes {@code |f|} in an interval without a sign change that contains a local minimum of {@code |f|} with
+         * a golden-section search.
+         * If the function changes its sign during the search, both roots are refined; otherwise the minimum is added
+         * if it is (numerically) a touching root.
+         */
+        private void dip(double a, double fa, double b, double fb, List<Double> result) {
+            final double ratio = (Math.sqrt(5) - 1) / 2, left = a, fLeft = fa, right = b, fRight = fb;
+            final double scale = Math.max(Math.abs(fa), Math.abs(fb));
+            double c = b - ratio * (b - a), d = a + ratio * (b - a);
+            double fc = this.evaluate(c), fd = this.evaluate(d);
+            for (int i = 0; i < MAX_ITERATIONS; ++i) {
+                if (!isFinite(fc) || !isFinite(fd)) return;
+                for (double x : new double[] {c, d}) {
+                    final double fx = x == c ? fc : fd;
+                    if (fx == 0.0) {
+                        result.add(x);
+                        return;
+                    }
+                    if ((fx < 0) != (fLeft < 0)) { // two roots close to each other
+                        this.refine(left, fLeft, x, fx, result);
+                        this.refine(x, fx, right, fRight, result);
+                        return;
+                    }
+                }
+                if (b - a <= 4 * Math.ulp(Math.max(Math.abs(a), Math.abs(b)))) break;
+                if (Math.abs(fc) < Math.abs(fd)) {
+                    b = d;
+                    d = c;
+                    fd = fc;
+                    c = b - ratio * (b - a);
+                    fc = this.evaluate(c);
+                } else {
+                    a = c;
+                    c = d;
+                    fc = fd;
+                    d = a + ratio * (b - a);
+                    fd = this.evaluate(d);
+                }
+            }
+            if (Math.min(Math.abs(fc), Math.abs(fd)) <= 1e-12 * Math.max(1.0, scale))
+                result.add(Math.abs(fc) < Math.abs(fd) ? c : d);
+        }
+
+        /**
+         * Refines a bracketed root with Brent's method (inverse quadratic interpolation, secant and bisection steps).
+         * Sign changes at poles (e.g. of "1/x") are discarded.
+         */
+        private void refine(double a, double fa, double b, double fb, List<Double> result) {
+            final double scale = Math.max(Math.abs(fa), Math.abs(fb));
+            double c = a, fc = fa, d = b - a, e = d;
+            for (int i = 0; i < MAX_ITERATIONS; ++i) {
+                if ((fb > 0) == (fc > 0)) {
+                    c = a;
+                    fc = fa;
+                    d = e = b - a;
+                }
+                if (Math.abs(fc) < Math.abs(fb)) {
+                    a = b; b = c; c = a;
+                    fa = fb; fb = fc; fc = fa;
+                }
+                final double tolerance = 2 * Math.ulp(b), half = (c - b) / 2;
+                if (Math.abs(half) <= tolerance || fb == 0.0) break;
+                if (Math.abs(e) >= tolerance && Math.abs(fa) > Math.abs(fb)) {
+                    double p, q;
+                    final double s = fb / fa;
+                    if (a == c) { // secant
+                        p = 2 * half * s;
+                        q = 1 - s;
+                    } else { // inverse quadratic interpolation
+                        final double r = fb / fc, t = fa / fc;
+                        p = s * (2 * half * t * (t - r) - (b - a) * (r - 1));
+                        q = (t - 1) * (r - 1) * (s - 1);
+                    }
+                    if (p > 0) q = -q;
+                    else p = -p;
+                    if (2 * p < Math.min(3 * half * q - Math.abs(tolerance * q), Math.abs(e * q))) {
+                        e = d;
+                        d = p / q;
+                    } else {
+                        d = half;
+                        e = d;
+                    }
+                } else {
+                    d = half;
+                    e = d;
+                }
+                a = b;
+                fa = fb;
+                b += Math.abs(d) > tolerance ? d : Math.copySign(tolerance, half);
+                fb = this.evaluate(b);
+                if (fb != fb) return;
+            }
+            // at a pole the function gets larger while approaching the sign change
+            if (Math.abs(fb) <= 1e-6 * Math.max(1.0, scale)) result.add(b);
+        }
+    }
+
+    /**
+     * @return {@code true} if the middle sample is a local minimum of {@code |f|} and all samples have the same sign
+     */
+    private static boolean isDip(double f0, double f1, double f2) {
+        if (!isFinite(f0) || !isFinite(f1) || !isFinite(f2)) return false;
+        if ((f0 < 0) != (f1 < 0) || (f1 < 0) != (f2 < 0)) return false;
+        return Math.abs(f1) < Math.abs(f0) && Math.abs(f1) <= Math.abs(f2);
+    }
+
+    private static boolean isFinite(double d) {
+        return d == d && d != Double.POSITIVE_INFINITY && d != Double.NEGATIVE_INFINITY;
+    }
+}
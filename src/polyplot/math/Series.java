@@ -0,0 +1,156 @@
+package polyplot.math;
+
+import java.util.Map;
+
+/**
+ * The compiled form of {@code sum(expression, k, a, b)} and {@code prod(expression, k, a, b)}: A loop that evaluates
+ * the expression for every integer {@code k} from {@code a} to {@code b} and adds (or multiplies) the values.
+ * NOTE: The expression is compiled once into the postfix expression of this function. Its arguments are the bounds,
+ *       the arguments of the enclosing function that are used by the expression and, in the last slot, the variable
+ *       {@code k}. The variable is not passed by the caller, but set by the loop before every evaluation of the
+ *       expression (like a register), so a series with thousands of terms is still a single token of the caller.
+ * @author 5hir0kur0
+ */
+final class Series extends ImpureFunction {
+    final static String SUM = "sum";
+    final static String PRODUCT = "prod";
+    final static long MAX_TERMS = 10_000_000; // longer series result in NaN, so the evaluation always terminates
+    private final static double MAX_BOUND = 0x1p53; // larger bounds are not exact integers (k + 1 == k)
+
+    private final boolean product;
+    private final String variable;
+    private final int register;
+    private final double terms; // the expected number of terms (only used for the cost estimate)
+
+    // only allocated if the extended-precision or complex interpreter is used
+    private DoubleDouble deepTerm;
+    private DoubleDouble deepResult;
+    private Complex complexTerm;
+    private Complex complexResult;
+
+    /**
+     * @param product {@code true} for a product, {@code false} for a sum
+     * @param variable the name of the variable (only used for {@link #toString()})
+     * @param numberOfArguments the number of arguments passed by the caller (the bounds and the arguments of the
+     *                          enclosing function used by the expression); the variable is stored after them
+     * @param postfix the compiled expression
+     * @param terms the expected number of terms
+     */
+    Series(boolean product, String variable, int numberOfArguments, CompiledToken[] postfix, double terms) {
+        super(product ? PRODUCT : SUM, (product ? PRODUCT : SUM) + "[" + variable + "]", numberOfArguments + 1,
+                postfix);
+        if (numberOfArguments < 2) throw new IllegalArgumentException("the bounds of a series are missing");
+        this.product = product;
+        this.variable = variable;
+        this.register = numberOfArguments;
+        this.terms = terms;
+    }
+
+    static boolean isSeries(String name) {
+        return SUM.equalsIgnoreCase(name) || PRODUCT.equalsIgnoreCase(name);
+    }
+
+    /**
+     * @return {@code false} if the bounds are not finite, too large or the series has too many terms
+     */
+    private static boolean isValid(double from, double to) {
+        return !(from != from || to != to || Math.abs(from) > MAX_BOUND || Math.abs(to) > MAX_BOUND
+                || to - from >= MAX_TERMS);
+    }
+
+    @Override
+    double ofStoredArgs() {
+        final double from = Math.ceil(this.args[0]), to = Math.floor(this.args[1]);
+        if (!isValid(from, to)) return Double.NaN;
+        double result = this.product ? 1.0 : 0.0;
+        for (long i = 0, n = (long) (to - from); i <= n; ++i) { // the terms are counted exactly
+            this.args[this.register] = from + i;
+            final double term = super.ofStoredArgs();
+            result = this.product ? result * term : result + term;
+        }
+        return result;
+    }
+
+    @Override
+    void deepExecute(DoubleDouble result) {
+        if (this.deepTerm == null) {
+            this.deepTerm = new DoubleDouble();
+            this.deepResult = new DoubleDouble();
+        }
+        final double from = Math.ceil(this.deepArgs[0]), to = Math.floor(this.deepArgs[2]);
+        if (!isValid(from, to)) {
+            result.set(Double.NaN);
+            return;
+        }
+        final DoubleDouble sum = this.deepResult.set(this.product ? 1.0 : 0.0);
+        for (long i = 0, n = (long) (to - from); i <= n; ++i) {
+            this.deepArgs[2 * this.register] = from + i;
+            this.deepArgs[2 * this.register + 1] = 0.0;
+            super.deepExecute(this.deepTerm);
+            if (this.product) sum.multiply(this.deepTerm);
+            else sum.add(this.deepTerm);
+        }
+        result.set(sum);
+    }
+
+    @Override
+    void complexExecute(Complex result) {
+        if (this.complexTerm == null) {
+            this.complexTerm = new Complex();
+            this.complexResult = new Complex();
+        }
+        final double from = Math.ceil(this.complexArgs[0]), to = Math.floor(this.complexArgs[2]);
+        if (this.complexArgs[1] != 0.0 || this.complexArgs[3] != 0.0 || !isValid(from, to)) {
+            result.set(Double.NaN, Double.NaN); // the bounds have to be real
+            return;
+        }
+        final Complex sum = this.complexResult.set(this.product ? 1.0 : 0.0, 0.0);
+        for (long i = 0, n = (long) (to - from); i <= n; ++i) {
+            this.complexArgs[2 * this.register] = from + i;
+            this.complexArgs[2 * this.register + 1] = 0.0;
+            super.complexExecute(this.complexTerm);
+            if (this.product) sum.multiply(this.complexTerm);
+            else sum.add(this.complexTerm);
+        }
+        result.set(sum);
+    }
+
+    @Override
+    public double of(double... args) {
+        if (args.length != this.register)
+            throw new IllegalArgumentException("illegal number of arguments: " + args.length);
+        System.arraycopy(args, 0, this.args, 0, this.register);
+        return this.ofStoredArgs();
+    }
+
+    /**
+     * @return the number of arguments passed by the caller (the variable is not an argument)
+     */
+    @Override
+    public int getNumberOfArguments() {
+        return this.register;
+    }
+
+    /**
+     * @return the cost of the expression times the expected number of terms
+     */
+    @Override
+    public double getCost() {
+        return Math.max(1.0, this.terms * (super.getCost() + 1.0));
+    }
+
+    @Override
+    Series copy(Map<Function, Function> copies) {
+        final Function existing = copies.get(this);
+        if (existing != null) return (Series) existing;
+        final Series result =
+                new Series(this.product, this.variable, this.register, this.copyPostfix(copies), this.terms);
+        copies.put(this, result);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return this.name + "[" + this.variable + "]()";
+    }
+}
@@ -0,0 +1,14 @@
+#!/bin/sh
+
+[ -d tmp ] || mkdir tmp
+find src test -type f -name '*.java' -print0 | xargs -0 javac -encoding UTF-8 -d tmp || exit 1
+cd src
+find . -type f -iname '*.js' -print0 | xargs -0 cp -t ../tmp --parents
+cd ..
+status=0
+for test in $(cd test && find . -type f -name '*Test.java' | sed 's|^\./||; s|\.java$||; s|/|.|g'); do
+    echo "$test"
+    java -Djava.awt.headless=true -cp tmp "$test" || status=1
+done
+rm -r tmp
+exit $status
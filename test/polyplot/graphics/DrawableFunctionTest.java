@@ -0,0 +1,175 @@
+package polyplot.graphics;
+
+import polyplot.math.Compiler;
+import polyplot.math.Function;
+import polyplot.math.PureFunction;
+
+import javax.swing.SwingUtilities;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Counts the evaluations of the functions to check that only the functions that changed are sampled again when the
+ * plotter is painted. Run it with <code>test.sh</code> (the plotter is painted into an image, so it runs headless).
+ *
+ * @author Polymehr
+ */
+public class DrawableFunctionTest {
+
+    private final static long TIMEOUT = 10_000_000_000L; // [ns]
+
+    /**
+     * A native function that counts how often it is evaluated (by all threads of the renderer).
+     */
+    private static class Counter extends Function implements DoubleUnaryOperator {
+        private final AtomicLong evaluations = new AtomicLong();
+
+        Counter(String name) {
+            super(name, "[counter]", 1, null, false);
+        }
+
+        @Override
+        public double applyAsDouble(double x) {
+            evaluations.incrementAndGet();
+            return Math.sin(x);
+        }
+
+        @Override
+        public double of(double... args) {
+            return applyAsDouble(args[0]);
+        }
+
+        long reset() {
+            return evaluations.getAndSet(0);
+        }
+    }
+
+    private final FunctionPlotter plotter;
+    private final Compiler compiler;
+    private final BufferedImage image;
+    private final Counter a = new Counter("a"), b = new Counter("b"), c = new Counter("c");
+
+    private DrawableFunctionTest() {
+        plotter = new FunctionPlotter();
+        plotter.setSize(400, 300);
+        image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_ARGB);
+        compiler = new Compiler(plotter.getFunctionContext()); // the plotter observes the context
+        compiler.getContext().addFunction("a", a);
+        compiler.getContext().addFunction("b", b);
+        compiler.getContext().addFunction("c", c);
+        compiler.definition("f(x) = a(x)");
+        compiler.definition("g(x) = b(x)");
+        compiler.definition("h(x) = f(x) + c(x)"); // depends on f
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options.INSTANCE.load();
+        final DrawableFunctionTest test = create();
+        test.testUnchanged();
+        test.testMovedFunction();
+        test.testNewFunction();
+        test.testRedefinedDependency();
+        System.out.println("OK");
+        System.exit(0);
+    }
+
+    private static DrawableFunctionTest create() throws Exception {
+        final DrawableFunctionTest[] result = new DrawableFunctionTest[1];
+        SwingUtilities.invokeAndWait(() -> result[0] = new DrawableFunctionTest());
+        return result[0];
+    }
+
+    /**
+     * Painting the same view again must not evaluate any function.
+     */
+    private void testUnchanged() throws Exception {
+        render();
+        check(a.reset() > 0 && b.reset() > 0 && c.reset() > 0, "the functions were not sampled");
+        render();
+        check(a.reset() == 0 && b.reset() == 0 && c.reset() == 0, "unchanged functions were sampled again");
+    }
+
+    /**
+     * Moving one function must only sample it and the functions that call it again.
+     */
+    private void testMovedFunction() throws Exception {
+        final long g = modifications("g"), h = modifications("h");
+        onEdt(() -> drawing("f").setOffset(1, 0.5));
+        check(modifications("g") == g, "moving f changed the version of g");
+        check(modifications("h") != h, "moving f did not change the version of h, which calls f");
+        render();
+        check(a.reset() > 0, "the moved function was not sampled again");
+        check(c.reset() > 0, "the function that calls the moved function was not sampled again");
+        check(b.reset() == 0, "an unrelated function was sampled again because another one was moved");
+    }
+
+    /**
+     * Defining a new function recreates the drawings, but the functions that were not recompiled keep their curves.
+     */
+    private void testNewFunction() throws Exception {
+        onEdt(() -> compiler.definition("k(x) = x^2"));
+        render();
+        check(a.reset() == 0 && b.reset() == 0 && c.reset() == 0,
+                "defining an unrelated function sampled the existing ones again");
+    }
+
+    /**
+     * Redefining a function recompiles the functions that call it, so they have to be sampled again.
+     */
+    private void testRedefinedDependency() throws Exception {
+        final PureFunction h = drawing("h").getFunction();
+        onEdt(() -> compiler.definition("f(x) = 2 * a(x)"));
+        check(drawing("h").getFunction() != h, "redefining f did not recompile h");
+        check(drawing("f").getXOffset() == 1 && drawing("f").getYOffset() == 0.5, "f lost its offsets");
+        render();
+        check(a.reset() > 0, "the redefined function was not sampled");
+        check(c.reset() > 0, "the function that calls the redefined function was not sampled again");
+        b.reset(); // all functions are recompiled, so g is sampled again, too
+        render();
+        check(a.reset() == 0 && b.reset() == 0 && c.reset() == 0, "the recompiled functions were sampled twice");
+    }
+
+    /**
+     * Paints the plotter until all functions are completely sampled.
+     */
+    private void render() throws Exception {
+        final long start = System.nanoTime();
+        final boolean[] rendering = new boolean[1];
+        do {
+            if (System.nanoTime() - start > TIMEOUT)
+                throw new AssertionError("the functions were not sampled in time");
+            Thread.sleep(5);
+            onEdt(() -> {
+                final Graphics2D g = image.createGraphics();
+                try {
+                    plotter.paintComponent(g);
+                } finally {
+                    g.dispose();
+                }
+                rendering[0] = plotter.getFunctions().stream().anyMatch(DrawableFunction::isRendering);
+            });
+        } while (rendering[0]);
+    }
+
+    private DrawableFunction drawing(String name) {
+        for (DrawableFunction f : plotter.getFunctions())
+            if (f.getFunction().getName().equals(name))
+                return f;
+        throw new AssertionError("no drawing of " + name);
+    }
+
+    private long modifications(String name) {
+        return compiler.getContext().getFunction(name).getModifications();
+    }
+
+    private static void onEdt(Runnable r) throws Exception {
+        SwingUtilities.invokeAndWait(r);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}